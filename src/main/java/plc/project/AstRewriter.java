@@ -0,0 +1,223 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Base class for passes that rewrite an analyzed AST, such as {@link
+ * ConstantFolder}. Each visit returns the rewritten node, and by default
+ * rewrites the children of the node.
+ *
+ * Nodes are copied only when one of their children changed, with the
+ * analyzer's annotations, so unchanged subtrees keep their identity (and, for
+ * example, their {@link SourceSpans}).
+ */
+public abstract class AstRewriter implements Ast.Visitor<Ast> {
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        List<Ast.Global> globals = rewriteAll(ast.getGlobals());
+        List<Ast.Function> functions = rewriteAll(ast.getFunctions());
+        if (globals == ast.getGlobals() && functions == ast.getFunctions()) {
+            return ast;
+        }
+        return new Ast.Source(globals, functions);
+    }
+
+    @Override
+    public Ast.Global visit(Ast.Global ast) {
+        Optional<Ast.Expression> value = rewrite(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        Ast.Global global = new Ast.Global(ast.getName(), ast.getTypeName(), ast.getMutable(), value);
+        global.setVariable(ast.getVariable());
+        return global;
+    }
+
+    @Override
+    public Ast.Function visit(Ast.Function ast) {
+        List<Ast.Statement> statements = rewriteStatements(ast.getStatements());
+        if (statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Function function = new Ast.Function(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Expression ast) {
+        Ast.Expression expression = rewrite(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Declaration ast) {
+        Optional<Ast.Expression> value = rewrite(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), value);
+        declaration.setVariable(ast.getVariable());
+        return declaration;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Assignment ast) {
+        Ast.Expression receiver = rewrite(ast.getReceiver());
+        Ast.Expression value = rewrite(ast.getValue());
+        if (receiver == ast.getReceiver() && value == ast.getValue()) {
+            return ast;
+        }
+        return new Ast.Statement.Assignment(receiver, value);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.If ast) {
+        Ast.Expression condition = rewrite(ast.getCondition());
+        List<Ast.Statement> thenStatements = rewriteStatements(ast.getThenStatements());
+        List<Ast.Statement> elseStatements = rewriteStatements(ast.getElseStatements());
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Switch ast) {
+        Ast.Expression condition = rewrite(ast.getCondition());
+        List<Ast.Statement.Case> cases = rewriteAll(ast.getCases());
+        if (condition == ast.getCondition() && cases == ast.getCases()) {
+            return ast;
+        }
+        return new Ast.Statement.Switch(condition, cases);
+    }
+
+    @Override
+    public Ast.Statement.Case visit(Ast.Statement.Case ast) {
+        Optional<Ast.Expression> value = rewrite(ast.getValue());
+        List<Ast.Statement> statements = rewriteStatements(ast.getStatements());
+        if (value == ast.getValue() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.Case(value, statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.While ast) {
+        Ast.Expression condition = rewrite(ast.getCondition());
+        List<Ast.Statement> statements = rewriteStatements(ast.getStatements());
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.While(condition, statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Return ast) {
+        Ast.Expression value = rewrite(ast.getValue());
+        return value == ast.getValue() ? ast : new Ast.Statement.Return(value);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = rewrite(ast.getExpression());
+        if (expression == ast.getExpression()) {
+            return ast;
+        }
+        Ast.Expression.Group group = new Ast.Expression.Group(expression);
+        group.setType(ast.getType());
+        return group;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = rewrite(ast.getLeft());
+        Ast.Expression right = rewrite(ast.getRight());
+        if (left == ast.getLeft() && right == ast.getRight()) {
+            return ast;
+        }
+        Ast.Expression.Binary binary = new Ast.Expression.Binary(ast.getOperator(), left, right);
+        binary.setType(ast.getType());
+        return binary;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Access ast) {
+        Optional<Ast.Expression> offset = rewrite(ast.getOffset());
+        if (offset == ast.getOffset()) {
+            return ast;
+        }
+        Ast.Expression.Access access = new Ast.Expression.Access(offset, ast.getName());
+        access.setVariable(ast.getVariable());
+        return access;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = rewriteAll(ast.getArguments());
+        if (arguments == ast.getArguments()) {
+            return ast;
+        }
+        Ast.Expression.Function function = new Ast.Expression.Function(ast.getName(), arguments);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.PlcList ast) {
+        List<Ast.Expression> values = rewriteAll(ast.getValues());
+        if (values == ast.getValues()) {
+            return ast;
+        }
+        Ast.Expression.PlcList list = new Ast.Expression.PlcList(values);
+        list.setType(ast.getType());
+        return list;
+    }
+
+    protected Ast.Expression rewrite(Ast.Expression ast) {
+        return (Ast.Expression) visit(ast);
+    }
+
+    protected Optional<Ast.Expression> rewrite(Optional<Ast.Expression> ast) {
+        if (ast.isPresent()) {
+            Ast.Expression expression = rewrite(ast.get());
+            return expression == ast.get() ? ast : Optional.of(expression);
+        }
+        return ast;
+    }
+
+    /**
+     * Rewrites a list of statements, returning the same list if none changed.
+     * Passes that remove statements override this method.
+     */
+    protected List<Ast.Statement> rewriteStatements(List<Ast.Statement> statements) {
+        return rewriteAll(statements);
+    }
+
+    /**
+     * Rewrites each node of the list, returning the same list if none changed.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends Ast> List<T> rewriteAll(List<T> nodes) {
+        List<T> rewritten = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            T node = (T) visit(nodes.get(i));
+            if (rewritten == null && node != nodes.get(i)) {
+                rewritten = new ArrayList<>(nodes.subList(0, i));
+            }
+            if (rewritten != null) {
+                rewritten.add(node);
+            }
+        }
+        return rewritten == null ? nodes : rewritten;
+    }
+
+}
@@ -0,0 +1,733 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Saves an analyzed {@link Ast.Source} in a compact binary form and loads it
+ * back, annotations included, so a program that has not changed does not need
+ * to be lexed, parsed, and analyzed again.
+ *
+ * The format starts with the {@link #MAGIC} bytes and the {@link #VERSION} of
+ * the format, which must be bumped whenever the layout below or the meaning of
+ * an annotation changes; data with another version is rejected by {@link
+ * #read(byte[])} and reported as stale by {@link #isCurrent(byte[])}. Then the
+ * tree follows in prefix order:
+ *
+ *  - nodes are written field by field, in constructor order, with a one byte
+ *    tag only where the kind of node is not implied by its position (the
+ *    statements of a block and expressions),
+ *  - integers are variable length, and strings, including names and type
+ *    names, are written once and then referred to by index,
+ *  - types are written by name and resolved with {@link
+ *    Environment#getType(String)} on load,
+ *  - and {@link Environment.Variable}s and {@link Environment.Function}s are
+ *    written once and then referred to by index, so nodes bound to the same
+ *    variable or function before saving still share it after loading.
+ *
+ * Loaded variables hold {@link Environment#NIL} and loaded functions return
+ * {@link Environment#NIL}, as the {@link Analyzer} defines them. Only trees
+ * produced by the analyzer can be saved: types must be registered.
+ */
+public final class AstSerializer {
+
+    static final byte[] MAGIC = {'P', 'L', 'C', 'A'};
+    static final int VERSION = 1;
+
+    private static final int EXPRESSION_STATEMENT = 1;
+    private static final int DECLARATION = 2;
+    private static final int ASSIGNMENT = 3;
+    private static final int IF = 4;
+    private static final int SWITCH = 5;
+    private static final int WHILE = 6;
+    private static final int RETURN = 7;
+
+    private static final int LITERAL = 1;
+    private static final int GROUP = 2;
+    private static final int BINARY = 3;
+    private static final int ACCESS = 4;
+    private static final int FUNCTION = 5;
+    private static final int LIST = 6;
+
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INTEGER = 3;
+    private static final int DECIMAL = 4;
+    private static final int CHARACTER = 5;
+    private static final int STRING = 6;
+
+    private AstSerializer() {}
+
+    public static byte[] write(Ast.Source ast) {
+        Writer writer = new Writer();
+        writer.ensure(MAGIC.length);
+        System.arraycopy(MAGIC, 0, writer.buffer, 0, MAGIC.length);
+        writer.size = MAGIC.length;
+        writer.integer(VERSION);
+        writer.visit(ast);
+        return Arrays.copyOf(writer.buffer, writer.size);
+    }
+
+    public static void write(Ast.Source ast, OutputStream out) throws IOException {
+        out.write(write(ast));
+    }
+
+    public static Ast.Source read(byte[] data) throws IOException {
+        if (!isCurrent(data)) {
+            throw new IOException("Not a version " + VERSION + " serialized AST.");
+        }
+        Reader reader = new Reader(data, MAGIC.length);
+        reader.integer();
+        try {
+            Ast.Source ast = reader.source();
+            if (reader.position != data.length) {
+                throw new IOException("Unexpected data after the serialized AST.");
+            }
+            return ast;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("The serialized AST is truncated.", e);
+        } catch (RuntimeException e) {
+            throw new IOException("The serialized AST is malformed: " + e.getMessage(), e);
+        }
+    }
+
+    public static Ast.Source read(InputStream in) throws IOException {
+        return read(in.readAllBytes());
+    }
+
+    /**
+     * Returns true if the data starts with the header of the current version
+     * of the format; anything else should be discarded and regenerated.
+     */
+    public static boolean isCurrent(byte[] data) {
+        if (data.length <= MAGIC.length || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            return false;
+        }
+        try {
+            return new Reader(data, MAGIC.length).integer() == VERSION;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private static final class Writer implements Ast.Visitor<Void> {
+
+        private byte[] buffer = new byte[1024];
+        private int size = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Environment.Variable, Integer> variables = new IdentityHashMap<>();
+        private final Map<Environment.Function, Integer> functions = new IdentityHashMap<>();
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            integer(ast.getGlobals().size());
+            ast.getGlobals().forEach(this::visit);
+            integer(ast.getFunctions().size());
+            ast.getFunctions().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            string(ast.getName());
+            string(ast.getTypeName());
+            bool(ast.getMutable());
+            optional(ast.getValue());
+            variable(ast.getVariable());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            string(ast.getName());
+            strings(ast.getParameters());
+            strings(ast.getParameterTypeNames());
+            string(ast.getReturnTypeName().orElse(null));
+            statements(ast.getStatements());
+            function(ast.getFunction());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            integer(EXPRESSION_STATEMENT);
+            visit(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            integer(DECLARATION);
+            string(ast.getName());
+            string(ast.getTypeName().orElse(null));
+            optional(ast.getValue());
+            variable(ast.getVariable());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            integer(ASSIGNMENT);
+            visit(ast.getReceiver());
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            integer(IF);
+            visit(ast.getCondition());
+            statements(ast.getThenStatements());
+            statements(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            integer(SWITCH);
+            visit(ast.getCondition());
+            integer(ast.getCases().size());
+            ast.getCases().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            optional(ast.getValue());
+            statements(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            integer(WHILE);
+            visit(ast.getCondition());
+            statements(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            integer(RETURN);
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            integer(LITERAL);
+            Object literal = ast.getLiteral();
+            if (literal == null) {
+                integer(NIL);
+            }
+            else if (literal instanceof Boolean) {
+                integer((Boolean) literal ? TRUE : FALSE);
+            }
+            else if (literal instanceof BigInteger) {
+                integer(INTEGER);
+                bytes(((BigInteger) literal).toByteArray());
+            }
+            else if (literal instanceof BigDecimal) {
+                integer(DECIMAL);
+                integer(((BigDecimal) literal).scale());
+                bytes(((BigDecimal) literal).unscaledValue().toByteArray());
+            }
+            else if (literal instanceof Character) {
+                integer(CHARACTER);
+                integer((Character) literal);
+            }
+            else if (literal instanceof String) {
+                integer(STRING);
+                string((String) literal);
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported literal " + literal.getClass().getName() + ".");
+            }
+            type(ast.getType());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            integer(GROUP);
+            visit(ast.getExpression());
+            type(ast.getType());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            integer(BINARY);
+            string(ast.getOperator());
+            visit(ast.getLeft());
+            visit(ast.getRight());
+            type(ast.getType());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            integer(ACCESS);
+            optional(ast.getOffset());
+            string(ast.getName());
+            variable(ast.getVariable());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            integer(FUNCTION);
+            string(ast.getName());
+            integer(ast.getArguments().size());
+            ast.getArguments().forEach(this::visit);
+            function(ast.getFunction());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            integer(LIST);
+            integer(ast.getValues().size());
+            ast.getValues().forEach(this::visit);
+            type(ast.getType());
+            return null;
+        }
+
+        private void statements(List<Ast.Statement> statements) {
+            integer(statements.size());
+            statements.forEach(this::visit);
+        }
+
+        private void optional(Optional<Ast.Expression> expression) {
+            if (expression.isPresent()) {
+                visit(expression.get());
+            }
+            else {
+                integer(0);
+            }
+        }
+
+        private void strings(List<String> strings) {
+            integer(strings.size());
+            strings.forEach(this::string);
+        }
+
+        /**
+         * Writes 0 for null, the index + 1 of a string already written, or
+         * the next index + 1 followed by the string itself.
+         */
+        private void string(String string) {
+            if (string == null) {
+                integer(0);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index != null) {
+                integer(index + 1);
+            }
+            else {
+                strings.put(string, strings.size());
+                integer(strings.size());
+                bytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void type(Environment.Type type) {
+            string(type == null ? null : type.getName());
+        }
+
+        private void variable(Environment.Variable variable) {
+            if (variable == null) {
+                integer(0);
+                return;
+            }
+            Integer index = variables.get(variable);
+            if (index != null) {
+                integer(index + 1);
+            }
+            else {
+                variables.put(variable, variables.size());
+                integer(variables.size());
+                string(variable.getName());
+                string(variable.getJvmName());
+                type(variable.getType());
+                bool(variable.getMutable());
+            }
+        }
+
+        private void function(Environment.Function function) {
+            if (function == null) {
+                integer(0);
+                return;
+            }
+            Integer index = functions.get(function);
+            if (index != null) {
+                integer(index + 1);
+            }
+            else {
+                functions.put(function, functions.size());
+                integer(functions.size());
+                string(function.getName());
+                string(function.getJvmName());
+                integer(function.getParameterTypes().size());
+                function.getParameterTypes().forEach(this::type);
+                type(function.getReturnType());
+            }
+        }
+
+        private void bool(boolean value) {
+            integer(value ? 1 : 0);
+        }
+
+        /**
+         * Writes a length prefixed byte array.
+         */
+        private void bytes(byte[] bytes) {
+            integer(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Writes a non-negative integer in 7 bit groups, low group first, with
+         * the high bit set on all but the last byte.
+         */
+        private void integer(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensure(int bytes) {
+            if (size + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+            }
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final byte[] data;
+        private int position;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Environment.Variable> variables = new ArrayList<>();
+        private final List<Environment.Function> functions = new ArrayList<>();
+
+        private Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        private Ast.Source source() throws IOException {
+            int globalCount = count();
+            List<Ast.Global> globals = new ArrayList<>(globalCount);
+            for (int i = 0; i < globalCount; i++) {
+                globals.add(global());
+            }
+            int functionCount = count();
+            List<Ast.Function> functions = new ArrayList<>(functionCount);
+            for (int i = 0; i < functionCount; i++) {
+                functions.add(function());
+            }
+            return new Ast.Source(globals, functions);
+        }
+
+        private Ast.Global global() throws IOException {
+            String name = string();
+            String typeName = string();
+            boolean mutable = bool();
+            Optional<Ast.Expression> value = optional();
+            Ast.Global ast = new Ast.Global(name, typeName, mutable, value);
+            Environment.Variable variable = variable();
+            if (variable != null) {
+                ast.setVariable(variable);
+            }
+            return ast;
+        }
+
+        private Ast.Function function() throws IOException {
+            String name = string();
+            List<String> parameters = strings();
+            List<String> parameterTypeNames = strings();
+            Optional<String> returnTypeName = Optional.ofNullable(string());
+            List<Ast.Statement> statements = statements();
+            Ast.Function ast = new Ast.Function(name, parameters, parameterTypeNames, returnTypeName, statements);
+            Environment.Function function = functionBinding();
+            if (function != null) {
+                ast.setFunction(function);
+            }
+            return ast;
+        }
+
+        private List<Ast.Statement> statements() throws IOException {
+            int count = count();
+            List<Ast.Statement> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Ast.Statement statement() throws IOException {
+            int tag = integer();
+            switch (tag) {
+                case EXPRESSION_STATEMENT:
+                    return new Ast.Statement.Expression(expression());
+                case DECLARATION: {
+                    String name = string();
+                    Optional<String> typeName = Optional.ofNullable(string());
+                    Optional<Ast.Expression> value = optional();
+                    Ast.Statement.Declaration ast = new Ast.Statement.Declaration(name, typeName, value);
+                    Environment.Variable variable = variable();
+                    if (variable != null) {
+                        ast.setVariable(variable);
+                    }
+                    return ast;
+                }
+                case ASSIGNMENT:
+                    return new Ast.Statement.Assignment(expression(), expression());
+                case IF:
+                    return new Ast.Statement.If(expression(), statements(), statements());
+                case SWITCH: {
+                    Ast.Expression condition = expression();
+                    int count = count();
+                    List<Ast.Statement.Case> cases = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        cases.add(new Ast.Statement.Case(optional(), statements()));
+                    }
+                    return new Ast.Statement.Switch(condition, cases);
+                }
+                case WHILE:
+                    return new Ast.Statement.While(expression(), statements());
+                case RETURN:
+                    return new Ast.Statement.Return(expression());
+                default:
+                    throw new IOException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        private Optional<Ast.Expression> optional() throws IOException {
+            if (data[position] == 0) {
+                position++;
+                return Optional.empty();
+            }
+            return Optional.of(expression());
+        }
+
+        private Ast.Expression expression() throws IOException {
+            int tag = integer();
+            switch (tag) {
+                case LITERAL: {
+                    Ast.Expression.Literal ast = new Ast.Expression.Literal(literal());
+                    Environment.Type type = type();
+                    if (type != null) {
+                        ast.setType(type);
+                    }
+                    return ast;
+                }
+                case GROUP: {
+                    Ast.Expression.Group ast = new Ast.Expression.Group(expression());
+                    Environment.Type type = type();
+                    if (type != null) {
+                        ast.setType(type);
+                    }
+                    return ast;
+                }
+                case BINARY: {
+                    Ast.Expression.Binary ast = new Ast.Expression.Binary(string(), expression(), expression());
+                    Environment.Type type = type();
+                    if (type != null) {
+                        ast.setType(type);
+                    }
+                    return ast;
+                }
+                case ACCESS: {
+                    Ast.Expression.Access ast = new Ast.Expression.Access(optional(), string());
+                    Environment.Variable variable = variable();
+                    if (variable != null) {
+                        ast.setVariable(variable);
+                    }
+                    return ast;
+                }
+                case FUNCTION: {
+                    String name = string();
+                    int count = count();
+                    List<Ast.Expression> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(expression());
+                    }
+                    Ast.Expression.Function ast = new Ast.Expression.Function(name, arguments);
+                    Environment.Function function = functionBinding();
+                    if (function != null) {
+                        ast.setFunction(function);
+                    }
+                    return ast;
+                }
+                case LIST: {
+                    int count = count();
+                    List<Ast.Expression> values = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        values.add(expression());
+                    }
+                    Ast.Expression.PlcList ast = new Ast.Expression.PlcList(values);
+                    Environment.Type type = type();
+                    if (type != null) {
+                        ast.setType(type);
+                    }
+                    return ast;
+                }
+                default:
+                    throw new IOException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Object literal() throws IOException {
+            int kind = integer();
+            switch (kind) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INTEGER:
+                    return new BigInteger(bytes());
+                case DECIMAL: {
+                    int scale = integer();
+                    return new BigDecimal(new BigInteger(bytes()), scale);
+                }
+                case CHARACTER:
+                    return (char) integer();
+                case STRING:
+                    return string();
+                default:
+                    throw new IOException("Unknown literal kind " + kind + ".");
+            }
+        }
+
+        private List<String> strings() throws IOException {
+            int count = count();
+            List<String> strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strings.add(string());
+            }
+            return strings;
+        }
+
+        private String string() throws IOException {
+            int index = integer();
+            if (index == 0) {
+                return null;
+            }
+            else if (index <= strings.size()) {
+                return strings.get(index - 1);
+            }
+            else if (index == strings.size() + 1) {
+                int length = count();
+                String string = new String(data, position, length, StandardCharsets.UTF_8);
+                position += length;
+                strings.add(string);
+                return string;
+            }
+            throw new IOException("Invalid string reference " + index + ".");
+        }
+
+        private Environment.Type type() throws IOException {
+            String name = string();
+            return name == null ? null : Environment.getType(name);
+        }
+
+        private Environment.Variable variable() throws IOException {
+            int index = integer();
+            if (index == 0) {
+                return null;
+            }
+            else if (index <= variables.size()) {
+                return variables.get(index - 1);
+            }
+            else if (index == variables.size() + 1) {
+                Environment.Variable variable = new Environment.Variable(string(), string(), type(), bool(), Environment.NIL);
+                variables.add(variable);
+                return variable;
+            }
+            throw new IOException("Invalid variable reference " + index + ".");
+        }
+
+        private Environment.Function functionBinding() throws IOException {
+            int index = integer();
+            if (index == 0) {
+                return null;
+            }
+            else if (index <= functions.size()) {
+                return functions.get(index - 1);
+            }
+            else if (index == functions.size() + 1) {
+                String name = string();
+                String jvmName = string();
+                int count = count();
+                List<Environment.Type> parameterTypes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    parameterTypes.add(type());
+                }
+                Environment.Function function = new Environment.Function(name, jvmName, parameterTypes, type(), args -> Environment.NIL);
+                functions.add(function);
+                return function;
+            }
+            throw new IOException("Invalid function reference " + index + ".");
+        }
+
+        private boolean bool() {
+            return integer() != 0;
+        }
+
+        private byte[] bytes() throws IOException {
+            int length = count();
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        /**
+         * Reads the number of elements or bytes that follow, checking it
+         * against the remaining data before anything is allocated for them,
+         * since each element takes at least a byte.
+         */
+        private int count() throws IOException {
+            int count = integer();
+            if (count < 0 || count > data.length - position) {
+                throw new IOException("The serialized AST is malformed: invalid count " + count + ".");
+            }
+            return count;
+        }
+
+        private int integer() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+    }
+
+}
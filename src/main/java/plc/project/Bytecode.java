@@ -0,0 +1,651 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled {@link Ast.Source}, executed by the {@link VirtualMachine}.
+ * Built with {@link #compile(Ast.Source)}.
+ *
+ * The code of every function is stored in a single {@code int} array, as an
+ * opcode followed by its operands, if any. Operands are jump targets, which
+ * are positions in the code, or indices into the constant pool, the globals,
+ * the locals of the current call, or the functions. Instructions take their
+ * operands from and push their result onto a stack of values.
+ *
+ * Values are the {@link Environment.PlcObject#getValue() values} of the
+ * {@link Interpreter}'s objects, with {@link Environment#NIL}'s value for
+ * nil, so lists are shared with and print the same as in the interpreter.
+ *
+ * Variables are resolved when compiling: parameters and variables declared in
+ * a function are locals, numbered from 0 with the parameters first, and
+ * globals are numbered in the order they are declared. Blocks reuse the
+ * locals of the blocks before them. Variables that are neither, such as
+ * those of the scope given to the machine, and functions that are not
+ * defined by the source, such as {@code print}, are looked up by name in the
+ * machine's {@link Scope} when executed.
+ *
+ * Function 0 initializes the globals and then invokes {@code main}. As the
+ * interpreter only defines the functions of the source after the globals,
+ * calls in the initializers of globals are looked up by name. Errors the
+ * interpreter only raises when it runs a node, such as a variable declared
+ * twice in a block, compile to a {@code FAIL} at that node, so programs
+ * that never run it still run. Binary
+ * expressions of operands the {@link Analyzer} typed as integers or decimals
+ * compile to instructions for that type; others, including those of ASTs
+ * that were not analyzed, compile to instructions that check their
+ * operands as the interpreter does.
+ */
+public final class Bytecode {
+
+    /** CONST constant: pushes a constant. */
+    static final int CONST = 0;
+    /** LOAD local: pushes a local. */
+    static final int LOAD = 1;
+    /** STORE local: pops a value and assigns it to a local. */
+    static final int STORE = 2;
+    /** ASSIGNABLE: pops the value of a receiver, and fails if it is a list, which can't be reassigned. */
+    static final int ASSIGNABLE = 3;
+    /** GLOAD global: pushes a global. */
+    static final int GLOAD = 4;
+    /** GSTORE global: pops a value and assigns it to a global. */
+    static final int GSTORE = 5;
+    /** LOOKUP constant: pushes the variable named by the constant in the machine's scope. */
+    static final int LOOKUP = 6;
+    /** ASSIGN constant: pops a value and assigns it to the variable named by the constant. */
+    static final int ASSIGN = 7;
+    /** INDEX: pops an index and a list, and pushes the element. */
+    static final int INDEX = 8;
+    /** SET_INDEX: pops a value, an index, and a list, and sets the element. */
+    static final int SET_INDEX = 9;
+    /** LIST count: pops that many values and pushes a list of them. */
+    static final int LIST = 10;
+    /** POP: pops a value. */
+    static final int POP = 11;
+    /** JUMP target: continues at the target. */
+    static final int JUMP = 12;
+    /** JUMP_FALSE target: pops a boolean, and continues at the target if it is false. */
+    static final int JUMP_FALSE = 13;
+    /** JUMP_TRUE target: pops a boolean, and continues at the target if it is true. */
+    static final int JUMP_TRUE = 14;
+    /** BOOLEAN: checks that the top of the stack is a boolean. */
+    static final int BOOLEAN = 15;
+    /** ADD_INTEGER, SUBTRACT_INTEGER, MULTIPLY_INTEGER, DIVIDE_INTEGER: pop two integers and push the result. */
+    static final int ADD_INTEGER = 16;
+    static final int SUBTRACT_INTEGER = 17;
+    static final int MULTIPLY_INTEGER = 18;
+    static final int DIVIDE_INTEGER = 19;
+    /** ADD_DECIMAL, SUBTRACT_DECIMAL, MULTIPLY_DECIMAL, DIVIDE_DECIMAL: pop two decimals and push the result. */
+    static final int ADD_DECIMAL = 20;
+    static final int SUBTRACT_DECIMAL = 21;
+    static final int MULTIPLY_DECIMAL = 22;
+    static final int DIVIDE_DECIMAL = 23;
+    /** LESS, GREATER, EQUAL, NOT_EQUAL: pop two values and push the comparison. */
+    static final int LESS = 24;
+    static final int GREATER = 25;
+    static final int EQUAL = 26;
+    static final int NOT_EQUAL = 27;
+    /** BINARY constant: pops two values and pushes the result of the operator named by the constant. */
+    static final int BINARY = 28;
+    /** CALL function arity: pops the arguments and pushes the result of the function. */
+    static final int CALL = 29;
+    /** INVOKE constant arity: pops the arguments and pushes the result of the function named by the constant. */
+    static final int INVOKE = 30;
+    /** RETURN: pops a value and returns it from the function. */
+    static final int RETURN = 31;
+    /** FAIL constant: throws a {@link RuntimeException} with the message of the constant. */
+    static final int FAIL = 32;
+    /** MUTABLE constant: pushes the variable named by the constant in the machine's scope, failing if it is immutable. */
+    static final int MUTABLE = 33;
+
+    private static final String[] NAMES = {
+            "CONST", "LOAD", "STORE", "ASSIGNABLE", "GLOAD", "GSTORE", "LOOKUP", "ASSIGN", "INDEX", "SET_INDEX", "LIST", "POP",
+            "JUMP", "JUMP_FALSE", "JUMP_TRUE", "BOOLEAN",
+            "ADD_INTEGER", "SUBTRACT_INTEGER", "MULTIPLY_INTEGER", "DIVIDE_INTEGER",
+            "ADD_DECIMAL", "SUBTRACT_DECIMAL", "MULTIPLY_DECIMAL", "DIVIDE_DECIMAL",
+            "LESS", "GREATER", "EQUAL", "NOT_EQUAL", "BINARY", "CALL", "INVOKE", "RETURN", "FAIL", "MUTABLE",
+    };
+
+    private static final int[] OPERANDS = {
+            1, 1, 1, 0, 1, 1, 1, 1, 0, 0, 1, 0,
+            1, 1, 1, 0,
+            0, 0, 0, 0,
+            0, 0, 0, 0,
+            0, 0, 0, 0, 1, 2, 2, 0, 1, 1,
+    };
+
+    final int[] code;
+    final Object[] constants;
+    final int globals;
+    final String[] names;
+    final int[] entries;
+    final int[] locals;
+    final int[] stacks;
+
+    private Bytecode(int[] code, Object[] constants, int globals, String[] names, int[] entries, int[] locals, int[] stacks) {
+        this.code = code;
+        this.constants = constants;
+        this.globals = globals;
+        this.names = names;
+        this.entries = entries;
+        this.locals = locals;
+        this.stacks = stacks;
+    }
+
+    public static Bytecode compile(Ast.Source ast) {
+        Compiler compiler = new Compiler();
+        compiler.visit(ast);
+        return compiler.build();
+    }
+
+    /**
+     * Returns the number of ints of code.
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Returns a listing of the code, one instruction per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int function = 0; function < entries.length; function++) {
+            builder.append(names[function]).append(": locals=").append(locals[function])
+                    .append(" stack=").append(stacks[function]).append('\n');
+            int end = function + 1 < entries.length ? entries[function + 1] : code.length;
+            for (int pc = entries[function]; pc < end; pc += 1 + OPERANDS[code[pc]]) {
+                builder.append(String.format("%6d  %s", pc, NAMES[code[pc]]));
+                for (int i = 1; i <= OPERANDS[code[pc]]; i++) {
+                    builder.append(' ').append(code[pc + i]);
+                }
+                if (code[pc] == CONST || code[pc] == LOOKUP || code[pc] == ASSIGN || code[pc] == BINARY || code[pc] == INVOKE || code[pc] == FAIL || code[pc] == MUTABLE) {
+                    builder.append("  ; ").append(constants[code[pc + 1]]);
+                }
+                builder.append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static final class Compiler implements Ast.Visitor<Void> {
+
+        private int[] code = new int[256];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+        private final Map<String, Integer> globals = new HashMap<>();
+        private final Map<String, Boolean> mutable = new HashMap<>();
+        private final Map<String, Integer> functions = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> entries = new ArrayList<>();
+        private final List<Integer> locals = new ArrayList<>();
+        private final List<Integer> stacks = new ArrayList<>();
+
+        /** The variables of each enclosing block of the current function, innermost first. */
+        private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+        private int next = 0;
+        private int maximumLocals = 0;
+        private int depth = 0;
+        private int maximumDepth = 0;
+
+        /** The local holding the condition of the switch being compiled. */
+        private int switchCondition = -1;
+        /** The jumps to the end of the switch being compiled from the ends of its cases. */
+        private List<Integer> switchEnds = null;
+
+        private Bytecode build() {
+            return new Bytecode(Arrays.copyOf(code, size), constants.toArray(), globals.size(),
+                    names.toArray(new String[0]), toArray(entries), toArray(locals), toArray(stacks));
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            begin("<init>");
+            //as in the interpreter, the functions of the source are not defined yet for the globals' initializers
+            for (Ast.Global global : ast.getGlobals()) {
+                visit(global);
+            }
+            String duplicate = null;
+            for (Ast.Function function : ast.getFunctions()) {
+                String name = function.getName() + "/" + function.getParameters().size();
+                if (functions.putIfAbsent(name, functions.size() + 1) != null && duplicate == null) {
+                    duplicate = name;
+                }
+            }
+            if (duplicate != null) {
+                fail("The function " + duplicate + " is already defined in this scope.");
+            }
+            else {
+                call("main", 0);
+                emit(RETURN, -1);
+            }
+            end();
+            for (Ast.Function function : ast.getFunctions()) {
+                if (functions.get(function.getName() + "/" + function.getParameters().size()) == entries.size()) {
+                    visit(function);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            if (ast.getValue().isPresent()) {
+                visit(ast.getValue().get());
+            }
+            else if (ast.getMutable()) {
+                constant(Environment.NIL.getValue());
+            }
+            else {
+                fail("Expected a value for immutable global " + ast.getName() + ".");
+                return null;
+            }
+            if (globals.containsKey(ast.getName())) {
+                fail("The variable " + ast.getName() + " is already defined in this scope.");
+                return null;
+            }
+            globals.put(ast.getName(), globals.size());
+            mutable.put(ast.getName(), ast.getMutable());
+            emit(GSTORE, -1, globals.get(ast.getName()));
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            begin(ast.getName());
+            for (String parameter : ast.getParameters()) {
+                if (declare(parameter) == -1) {
+                    //as in the interpreter, calls fail when they define the parameters
+                    fail("The variable " + parameter + " is already defined in this scope.");
+                    break;
+                }
+            }
+            for (Ast.Statement statement : ast.getStatements()) {
+                visit(statement);
+            }
+            constant(Environment.NIL.getValue());
+            emit(RETURN, -1);
+            end();
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            visit(ast.getExpression());
+            emit(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            if (ast.getValue().isPresent()) {
+                visit(ast.getValue().get());
+            }
+            else {
+                constant(Environment.NIL.getValue());
+            }
+            int slot = declare(ast.getName());
+            if (slot == -1) {
+                //as in the interpreter, this only fails when the declaration runs
+                fail("The variable " + ast.getName() + " is already defined in this scope.");
+                depth--;
+            }
+            else {
+                emit(STORE, -1, slot);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            if (!(ast.getReceiver().getClass().equals(Ast.Expression.Access.class))) {
+                fail("Expected type Access, received " + ast.getReceiver().getClass().getName() + ".");
+                return null;
+            }
+            Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+            Integer local = local(receiver.getName());
+            if (local == null && globals.containsKey(receiver.getName()) && !mutable.get(receiver.getName())) {
+                fail("Expected mutable receiver.");
+                return null;
+            }
+            //as in the interpreter, the receiver is checked before the value is evaluated
+            if (local == null && !globals.containsKey(receiver.getName())) {
+                emit(MUTABLE, 1, constant(receiver.getName(), false));
+            }
+            else {
+                load(receiver.getName());
+            }
+            if (receiver.getOffset().isPresent()) {
+                visit(receiver.getOffset().get());
+                visit(ast.getValue());
+                emit(SET_INDEX, -3);
+            }
+            else {
+                emit(ASSIGNABLE, -1);
+                visit(ast.getValue());
+                if (local != null) {
+                    emit(STORE, -1, local);
+                }
+                else if (globals.containsKey(receiver.getName())) {
+                    emit(GSTORE, -1, globals.get(receiver.getName()));
+                }
+                else {
+                    emit(ASSIGN, -1, constant(receiver.getName(), false));
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            visit(ast.getCondition());
+            int otherwise = jump(JUMP_FALSE, -1);
+            block(ast.getThenStatements());
+            if (ast.getElseStatements().isEmpty()) {
+                patch(otherwise);
+            }
+            else {
+                int end = jump(JUMP, 0);
+                patch(otherwise);
+                block(ast.getElseStatements());
+                patch(end);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            visit(ast.getCondition());
+            int condition = allocate();
+            emit(STORE, -1, condition);
+            int enclosingCondition = switchCondition;
+            List<Integer> enclosingEnds = switchEnds;
+            switchCondition = condition;
+            switchEnds = new ArrayList<>();
+            for (Ast.Statement.Case caseNode : ast.getCases()) {
+                visit(caseNode);
+                if (!caseNode.getValue().isPresent()) {
+                    //the default case always runs, so no later case can
+                    break;
+                }
+            }
+            switchEnds.forEach(this::patch);
+            switchCondition = enclosingCondition;
+            switchEnds = enclosingEnds;
+            next = condition;
+            return null;
+        }
+
+        /**
+         * Compiles a case of the switch being compiled, which runs its
+         * statements and jumps to the end of the switch if it matches, and
+         * otherwise continues with the next case.
+         */
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            if (!ast.getValue().isPresent()) {
+                block(ast.getStatements());
+                return null;
+            }
+            //as in the interpreter, the case value is compared to the condition, and if it does not
+            //match it is evaluated again and the case runs if that evaluates to nil
+            visit(ast.getValue().get());
+            emit(LOAD, 1, switchCondition);
+            emit(EQUAL, -1);
+            int match = jump(JUMP_TRUE, -1);
+            visit(ast.getValue().get());
+            constant(Environment.NIL.getValue());
+            emit(EQUAL, -1);
+            int skip = jump(JUMP_FALSE, -1);
+            patch(match);
+            block(ast.getStatements());
+            switchEnds.add(jump(JUMP, 0));
+            patch(skip);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            int start = size;
+            visit(ast.getCondition());
+            int end = jump(JUMP_FALSE, -1);
+            block(ast.getStatements());
+            emit(JUMP, 0, start);
+            patch(end);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            visit(ast.getValue());
+            emit(RETURN, -1);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            constant(ast.getLiteral() == null ? Environment.NIL.getValue() : ast.getLiteral());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            String operator = ast.getOperator();
+            if (operator.equals("&&") || operator.equals("||")) {
+                //the right operand is only evaluated if the left does not decide the result
+                visit(ast.getLeft());
+                int shortCircuit = jump(operator.equals("&&") ? JUMP_FALSE : JUMP_TRUE, -1);
+                visit(ast.getRight());
+                emit(BOOLEAN, 0);
+                int end = jump(JUMP, 0);
+                patch(shortCircuit);
+                depth--;
+                constant(operator.equals("||"));
+                patch(end);
+                return null;
+            }
+            visit(ast.getLeft());
+            visit(ast.getRight());
+            Environment.Type type = typeOf(ast.getLeft());
+            boolean typed = type != null && type == typeOf(ast.getRight());
+            int offset = !typed ? -1 : type == Environment.Type.INTEGER ? ADD_INTEGER : type == Environment.Type.DECIMAL ? ADD_DECIMAL : -1;
+            switch (operator) {
+                case "<": emit(LESS, -1); break;
+                case ">": emit(GREATER, -1); break;
+                case "==": emit(EQUAL, -1); break;
+                case "!=": emit(NOT_EQUAL, -1); break;
+                case "+": case "-": case "*": case "/":
+                    if (offset != -1) {
+                        emit(offset + "+-*/".indexOf(operator), -1);
+                    }
+                    else {
+                        emit(BINARY, -1, constant(operator, false));
+                    }
+                    break;
+                default:
+                    emit(BINARY, -1, constant(operator, false));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            load(ast.getName());
+            if (ast.getOffset().isPresent()) {
+                visit(ast.getOffset().get());
+                emit(INDEX, -1);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            for (Ast.Expression argument : ast.getArguments()) {
+                visit(argument);
+            }
+            call(ast.getName(), ast.getArguments().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            for (Ast.Expression value : ast.getValues()) {
+                visit(value);
+            }
+            emit(LIST, 1 - ast.getValues().size(), ast.getValues().size());
+            return null;
+        }
+
+        private void begin(String name) {
+            names.add(name);
+            entries.add(size);
+            scopes.push(new HashMap<>());
+            next = 0;
+            maximumLocals = 0;
+            depth = 0;
+            maximumDepth = 0;
+        }
+
+        private void end() {
+            scopes.clear();
+            locals.add(maximumLocals);
+            stacks.add(maximumDepth);
+        }
+
+        /**
+         * Compiles the statements in a new block, as for the body of an {@code
+         * IF}, {@code SWITCH} case, or {@code WHILE}.
+         */
+        private void block(List<Ast.Statement> statements) {
+            scopes.push(new HashMap<>());
+            int start = next;
+            for (Ast.Statement statement : statements) {
+                visit(statement);
+            }
+            scopes.pop();
+            next = start;
+        }
+
+        /**
+         * Allocates a local for a variable of the current block, or returns -1
+         * if the block already has a variable of the name.
+         */
+        private int declare(String name) {
+            if (scopes.peek().containsKey(name)) {
+                return -1;
+            }
+            int slot = allocate();
+            scopes.peek().put(name, slot);
+            return slot;
+        }
+
+        /**
+         * Allocates a local, which is released when the block that allocated
+         * it ends.
+         */
+        private int allocate() {
+            maximumLocals = Math.max(maximumLocals, next + 1);
+            return next++;
+        }
+
+        private Integer local(String name) {
+            for (Map<String, Integer> scope : scopes) {
+                if (scope.containsKey(name)) {
+                    return scope.get(name);
+                }
+            }
+            return null;
+        }
+
+        private void load(String name) {
+            Integer local = local(name);
+            if (local != null) {
+                emit(LOAD, 1, local);
+            }
+            else if (globals.containsKey(name)) {
+                emit(GLOAD, 1, globals.get(name));
+            }
+            else {
+                emit(LOOKUP, 1, constant(name, false));
+            }
+        }
+
+        private void call(String name, int arity) {
+            Integer function = functions.get(name + "/" + arity);
+            if (function != null) {
+                emit(CALL, 1 - arity, function, arity);
+            }
+            else {
+                emit(INVOKE, 1 - arity, constant(name, false), arity);
+            }
+        }
+
+        private void fail(String message) {
+            emit(FAIL, 0, constant(message, false));
+        }
+
+        private void constant(Object value) {
+            emit(CONST, 1, constant(value, true));
+        }
+
+        private int constant(Object value, boolean literal) {
+            //names and literals are kept apart so a string literal is never mistaken for a name
+            List<Object> key = Arrays.asList(literal, value.getClass(), value);
+            Integer index = constantIndices.get(key);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndices.put(key, index);
+            }
+            return index;
+        }
+
+        private int jump(int opcode, int effect) {
+            emit(opcode, effect, -1);
+            return size - 1;
+        }
+
+        private void patch(int operand) {
+            code[operand] = size;
+        }
+
+        private void emit(int opcode, int effect, int... operands) {
+            if (size + 1 + operands.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + 1 + operands.length));
+            }
+            code[size++] = opcode;
+            for (int operand : operands) {
+                code[size++] = operand;
+            }
+            depth += effect;
+            maximumDepth = Math.max(maximumDepth, depth);
+        }
+
+        private static Environment.Type typeOf(Ast.Expression ast) {
+            try {
+                return ast.getType();
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+
+        private static int[] toArray(List<Integer> values) {
+            return values.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,972 @@
+package plc.project;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a JVM class file directly from an analyzed {@link Ast.Source},
+ * so a program can be loaded and run without writing Java source and
+ * compiling it. The class is the one the {@link Generator}'s source would
+ * compile to: a public class {@code Main} whose globals are instance fields,
+ * whose functions are instance methods, and whose static {@code
+ * main(String[])} exits with the result of {@code main()}.
+ *
+ * Names and types come from the {@code getJvmName()} of the analyzer's
+ * {@link Environment.Variable}s, {@link Environment.Function}s, and {@link
+ * Environment.Type}s, as in the generated source: {@code int}, {@code
+ * double}, {@code boolean}, {@code char}, and {@code String} map to their JVM
+ * types, other types to classes of {@code java.lang}, and lists to arrays.
+ * {@code System.out.println} is the only function that is not defined by
+ * the source which is supported.
+ *
+ * Programs behave as the generated Java does, which is not always as the
+ * {@link Interpreter} does: arithmetic is on {@code int}s and {@code
+ * double}s, {@code ==} compares references for objects, {@code SWITCH} cases
+ * fall through to the following ones, and {@code ^} is {@code Math.pow}, whose
+ * result is converted back to an {@code int} for integers (where the
+ * generated Java would not compile). Strings and other {@code Comparable}s
+ * are compared with {@code compareTo}.
+ *
+ * The class file has version 49, which the JVM verifies without stack map
+ * frames, so none are generated.
+ */
+public final class ClassGenerator implements Ast.Visitor<String> {
+
+    static final String CLASS = "Main";
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final Map<String, String> DESCRIPTORS = new HashMap<>();
+
+    static {
+        DESCRIPTORS.put("int", "I");
+        DESCRIPTORS.put("double", "D");
+        DESCRIPTORS.put("boolean", "Z");
+        DESCRIPTORS.put("char", "C");
+        DESCRIPTORS.put("String", STRING);
+        DESCRIPTORS.put("Object", OBJECT);
+    }
+
+    private final ConstantPool pool = new ConstantPool();
+    private final Bytes fields = new Bytes();
+    private final Bytes methods = new Bytes();
+    private int fieldCount = 0;
+    private int methodCount = 0;
+
+    private final Map<String, String> globals = new HashMap<>();
+    private final Map<String, String[]> functions = new HashMap<>();
+
+    private Code code;
+    private String returnDescriptor;
+    private final Deque<Map<String, Local>> scopes = new ArrayDeque<>();
+    private int nextLocal;
+    /** The local holding the condition of the switch being generated, and the label of its case being tested. */
+    private Local switchCondition;
+    private Label caseLabel;
+
+    private ClassGenerator() {
+    }
+
+    /**
+     * Returns the class file of the analyzed source.
+     */
+    public static byte[] generate(Ast.Source ast) {
+        ClassGenerator generator = new ClassGenerator();
+        generator.visit(ast);
+        return generator.toClassFile();
+    }
+
+    /**
+     * Defines the class in a new class loader, whose parent is the loader of
+     * this class.
+     */
+    public static Class<?> load(byte[] classFile) {
+        return new Loader().define(classFile);
+    }
+
+    /**
+     * Generates, loads, and runs the analyzed source, returning the result of
+     * {@code main()} rather than exiting with it.
+     */
+    public static int run(Ast.Source ast) {
+        return run(load(generate(ast)));
+    }
+
+    /**
+     * Runs a loaded {@code Main} class, generated by this class or compiled
+     * from the {@link Generator}'s source, by invoking {@code main()} on a new
+     * instance rather than the static {@code main(String[])}, which exits.
+     */
+    static int run(Class<?> type) {
+        try {
+            Object instance = type.getConstructor().newInstance();
+            Method main = type.getDeclaredMethod("main");
+            main.setAccessible(true);
+            return (Integer) main.invoke(instance);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String visit(Ast.Source ast) {
+        for (Ast.Function function : ast.getFunctions()) {
+            Environment.Function annotation = function.getFunction();
+            StringBuilder descriptor = new StringBuilder("(");
+            for (Environment.Type type : annotation.getParameterTypes()) {
+                descriptor.append(descriptor(type));
+            }
+            descriptor.append(')').append(descriptor(annotation.getReturnType()));
+            functions.put(function.getName() + "/" + function.getParameters().size(), new String[] {annotation.getJvmName(), descriptor.toString()});
+        }
+
+        //the constructor initializes the globals, as the field initializers of the generated source do
+        begin();
+        code.op(0x2a, 1);
+        code.op(0xb7, -1).u2(pool.method(0x0a, "java/lang/Object", "<init>", "()V"));
+        for (Ast.Global global : ast.getGlobals()) {
+            visit(global);
+        }
+        code.op(0xb1, 0);
+        end(0x0001, "<init>", "()V", 1);
+
+        begin();
+        code.op(0xbb, 1).u2(pool.type(CLASS));
+        code.op(0x59, 1);
+        code.op(0xb7, -1).u2(pool.method(0x0a, CLASS, "<init>", "()V"));
+        code.op(0xb6, 0).u2(pool.method(0x0a, CLASS, "main", "()I"));
+        code.op(0xb8, -1).u2(pool.method(0x0a, "java/lang/System", "exit", "(I)V"));
+        code.op(0xb1, 0);
+        end(0x0009, "main", "([Ljava/lang/String;)V", 1);
+
+        for (Ast.Function function : ast.getFunctions()) {
+            visit(function);
+        }
+        return null;
+    }
+
+    /**
+     * Declares the field of the global and, in the constructor being
+     * generated, initializes it.
+     */
+    @Override
+    public String visit(Ast.Global ast) {
+        String name = ast.getVariable().getJvmName();
+        String descriptor = descriptor(ast.getVariable().getType());
+        if (ast.getValue().isPresent() && ast.getValue().get() instanceof Ast.Expression.PlcList) {
+            descriptor = "[" + descriptor;
+        }
+        globals.put(name, descriptor);
+        fields.u2(ast.getMutable() ? 0 : 0x0010).u2(pool.utf8(name)).u2(pool.utf8(descriptor)).u2(0);
+        fieldCount++;
+        if (ast.getValue().isPresent()) {
+            code.op(0x2a, 1);
+            convert(visit(ast.getValue().get()), descriptor);
+            code.op(0xb5, -1 - size(descriptor)).u2(pool.field(CLASS, name, descriptor));
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Function ast) {
+        String[] method = functions.get(ast.getName() + "/" + ast.getParameters().size());
+        returnDescriptor = method[1].substring(method[1].indexOf(')') + 1);
+        begin();
+        nextLocal = 1;
+        code.maximumLocals = 1;
+        scopes.push(new HashMap<>());
+        List<Environment.Type> types = ast.getFunction().getParameterTypes();
+        for (int i = 0; i < ast.getParameters().size(); i++) {
+            declare(ast.getParameters().get(i), descriptor(types.get(i)));
+        }
+        for (Ast.Statement statement : ast.getStatements()) {
+            visit(statement);
+        }
+        //the generated source would not compile without a return, but the class must not fall off its end
+        push(returnDescriptor);
+        code.op(returnOpcode(returnDescriptor), -size(returnDescriptor));
+        int locals = code.maximumLocals;
+        scopes.clear();
+        end(0x0000, method[0], method[1], locals);
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Expression ast) {
+        String descriptor = visit(ast.getExpression());
+        if (size(descriptor) == 1) {
+            code.op(0x57, -1);
+        }
+        else if (size(descriptor) == 2) {
+            code.op(0x58, -2);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Declaration ast) {
+        String descriptor = descriptor(ast.getVariable().getType());
+        if (ast.getValue().isPresent()) {
+            convert(visit(ast.getValue().get()), descriptor);
+        }
+        else {
+            push(descriptor);
+        }
+        Local local = declare(ast.getVariable().getJvmName(), descriptor);
+        code.local(storeOpcode(descriptor), local.slot, -size(descriptor));
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        String name = receiver.getVariable().getJvmName();
+        if (receiver.getOffset().isPresent()) {
+            String element = load(name).substring(1);
+            convert(visit(receiver.getOffset().get()), "I");
+            convert(visit(ast.getValue()), element);
+            code.op(arrayOpcode(element, true), -2 - size(element));
+            return null;
+        }
+        Local local = local(name);
+        if (local != null) {
+            convert(visit(ast.getValue()), local.descriptor);
+            code.local(storeOpcode(local.descriptor), local.slot, -size(local.descriptor));
+        }
+        else {
+            String descriptor = global(name);
+            code.op(0x2a, 1);
+            convert(visit(ast.getValue()), descriptor);
+            code.op(0xb5, -1 - size(descriptor)).u2(pool.field(CLASS, name, descriptor));
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.If ast) {
+        Label otherwise = new Label();
+        convert(visit(ast.getCondition()), "Z");
+        code.jump(0x99, otherwise, -1);
+        block(ast.getThenStatements());
+        if (ast.getElseStatements().isEmpty()) {
+            code.place(otherwise);
+        }
+        else {
+            Label end = new Label();
+            code.jump(0xa7, end, 0);
+            code.place(otherwise);
+            block(ast.getElseStatements());
+            code.place(end);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Switch ast) {
+        String descriptor = visit(ast.getCondition());
+        scopes.push(new HashMap<>());
+        int start = nextLocal;
+        Local condition = declare(" switch", descriptor);
+        code.local(storeOpcode(descriptor), condition.slot, -size(descriptor));
+        Label[] labels = new Label[ast.getCases().size()];
+        Local enclosingCondition = switchCondition;
+        switchCondition = condition;
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new Label();
+            caseLabel = labels[i];
+            visit(ast.getCases().get(i));
+        }
+        switchCondition = enclosingCondition;
+        Label end = new Label();
+        code.jump(0xa7, end, 0);
+        //as in the generated source, which has no breaks, each case falls through to the next one
+        for (int i = 0; i < labels.length; i++) {
+            code.place(labels[i]);
+            block(ast.getCases().get(i).getStatements());
+        }
+        code.place(end);
+        scopes.pop();
+        nextLocal = start;
+        return null;
+    }
+
+    /**
+     * Generates the test of a case of the switch being generated, which jumps
+     * to the case's label if the case matches.
+     */
+    @Override
+    public String visit(Ast.Statement.Case ast) {
+        if (!ast.getValue().isPresent()) {
+            code.jump(0xa7, caseLabel, 0);
+            return null;
+        }
+        String descriptor = switchCondition.descriptor;
+        code.local(loadOpcode(descriptor), switchCondition.slot, size(descriptor));
+        convert(visit(ast.getValue().get()), descriptor);
+        if (isPrimitive(descriptor)) {
+            equal(descriptor, caseLabel, true);
+        }
+        else {
+            //as a switch on strings does
+            code.op(0xb6, -1).u2(pool.method(0x0a, "java/lang/Object", "equals", "(" + OBJECT + ")Z"));
+            code.jump(0x9a, caseLabel, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.While ast) {
+        Label start = new Label();
+        Label end = new Label();
+        code.place(start);
+        convert(visit(ast.getCondition()), "Z");
+        code.jump(0x99, end, -1);
+        block(ast.getStatements());
+        code.jump(0xa7, start, 0);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Return ast) {
+        convert(visit(ast.getValue()), returnDescriptor);
+        code.op(returnOpcode(returnDescriptor), -size(returnDescriptor));
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Literal ast) {
+        Object literal = ast.getLiteral();
+        if (literal == null) {
+            code.op(0x01, 1);
+            return descriptor(Environment.Type.NIL);
+        }
+        else if (literal instanceof Boolean) {
+            integer((Boolean) literal ? 1 : 0);
+            return "Z";
+        }
+        else if (literal instanceof Character) {
+            integer((Character) literal);
+            return "C";
+        }
+        else if (literal instanceof BigInteger) {
+            integer(((BigInteger) literal).intValue());
+            return "I";
+        }
+        else if (literal instanceof BigDecimal) {
+            code.op(0x14, 2).u2(pool.decimal(((BigDecimal) literal).doubleValue()));
+            return "D";
+        }
+        constant(pool.string((String) literal));
+        return STRING;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public String visit(Ast.Expression.Binary ast) {
+        String operator = ast.getOperator();
+        switch (operator) {
+            case "&&":
+            case "||": {
+                //either operand can decide the result, which is pushed once
+                boolean and = operator.equals("&&");
+                Label decided = new Label();
+                Label end = new Label();
+                convert(visit(ast.getLeft()), "Z");
+                code.jump(and ? 0x99 : 0x9a, decided, -1);
+                convert(visit(ast.getRight()), "Z");
+                code.jump(and ? 0x99 : 0x9a, decided, -1);
+                integer(and ? 1 : 0);
+                code.jump(0xa7, end, 0);
+                code.depth--;
+                code.place(decided);
+                integer(and ? 0 : 1);
+                code.place(end);
+                return "Z";
+            }
+            case "<":
+            case ">":
+            case "==":
+            case "!=": {
+                String left = visit(ast.getLeft());
+                String right = visit(ast.getRight());
+                Label result = new Label();
+                Label end = new Label();
+                compare(operator, left, right, result);
+                integer(0);
+                code.jump(0xa7, end, 0);
+                code.depth--;
+                code.place(result);
+                integer(1);
+                code.place(end);
+                return "Z";
+            }
+            case "^": {
+                convert(visit(ast.getLeft()), "D");
+                convert(visit(ast.getRight()), "D");
+                code.op(0xb8, -2).u2(pool.method(0x0a, "java/lang/Math", "pow", "(DD)D"));
+                if (ast.getType() == Environment.Type.INTEGER) {
+                    code.op(0x8e, -1);
+                    return "I";
+                }
+                return "D";
+            }
+        }
+        if (operator.equals("+") && ast.getType() == Environment.Type.STRING) {
+            code.op(0xbb, 1).u2(pool.type("java/lang/StringBuilder"));
+            code.op(0x59, 1);
+            code.op(0xb7, -1).u2(pool.method(0x0a, "java/lang/StringBuilder", "<init>", "()V"));
+            append(visit(ast.getLeft()));
+            append(visit(ast.getRight()));
+            code.op(0xb6, 0).u2(pool.method(0x0a, "java/lang/StringBuilder", "toString", "()" + STRING));
+            return STRING;
+        }
+        String left = visit(ast.getLeft());
+        convert(visit(ast.getRight()), left);
+        int opcode = "+-*/".indexOf(operator) * 4 + 0x60 + (left.equals("D") ? 3 : 0);
+        code.op(opcode, -size(left));
+        return left;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Access ast) {
+        String descriptor = load(ast.getVariable().getJvmName());
+        if (ast.getOffset().isPresent()) {
+            String element = descriptor.substring(1);
+            convert(visit(ast.getOffset().get()), "I");
+            code.op(arrayOpcode(element, false), size(element) - 2);
+            return element;
+        }
+        return descriptor;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Function ast) {
+        Environment.Function function = ast.getFunction();
+        String[] method = functions.get(ast.getName() + "/" + ast.getArguments().size());
+        if (method != null) {
+            code.op(0x2a, 1);
+            int arguments = 1;
+            for (int i = 0; i < ast.getArguments().size(); i++) {
+                String parameter = descriptor(function.getParameterTypes().get(i));
+                convert(visit(ast.getArguments().get(i)), parameter);
+                arguments += size(parameter);
+            }
+            String result = method[1].substring(method[1].indexOf(')') + 1);
+            code.op(0xb6, size(result) - arguments).u2(pool.method(0x0a, CLASS, method[0], method[1]));
+            return result;
+        }
+        else if (function.getJvmName().equals("System.out.println") && ast.getArguments().size() == 1) {
+            code.op(0xb2, 1).u2(pool.field("java/lang/System", "out", "Ljava/io/PrintStream;"));
+            String argument = printable(visit(ast.getArguments().get(0)));
+            code.op(0xb6, -1 - size(argument)).u2(pool.method(0x0a, "java/io/PrintStream", "println", "(" + argument + ")V"));
+            return "V";
+        }
+        throw new RuntimeException("The function " + function.getJvmName() + "/" + ast.getArguments().size() + " is not supported.");
+    }
+
+    @Override
+    public String visit(Ast.Expression.PlcList ast) {
+        String element = descriptor(ast.getType());
+        integer(ast.getValues().size());
+        switch (element) {
+            case "Z": code.op(0xbc, 0).u1(4); break;
+            case "C": code.op(0xbc, 0).u1(5); break;
+            case "D": code.op(0xbc, 0).u1(7); break;
+            case "I": code.op(0xbc, 0).u1(10); break;
+            default: code.op(0xbd, 0).u2(pool.type(element.substring(1, element.length() - 1)));
+        }
+        for (int i = 0; i < ast.getValues().size(); i++) {
+            code.op(0x59, 1);
+            integer(i);
+            convert(visit(ast.getValues().get(i)), element);
+            code.op(arrayOpcode(element, true), -2 - size(element));
+        }
+        return "[" + element;
+    }
+
+    /**
+     * Generates the statements in a new scope, as for the body of an {@code
+     * IF}, {@code SWITCH} case, or {@code WHILE}.
+     */
+    private void block(List<Ast.Statement> statements) {
+        scopes.push(new HashMap<>());
+        int start = nextLocal;
+        for (Ast.Statement statement : statements) {
+            visit(statement);
+        }
+        scopes.pop();
+        nextLocal = start;
+    }
+
+    private Local declare(String name, String descriptor) {
+        Local local = new Local(nextLocal, descriptor);
+        nextLocal += size(descriptor);
+        code.maximumLocals = Math.max(code.maximumLocals, nextLocal);
+        scopes.peek().put(name, local);
+        return local;
+    }
+
+    private Local local(String name) {
+        for (Map<String, Local> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    private String global(String name) {
+        if (!globals.containsKey(name)) {
+            throw new RuntimeException("The variable " + name + " is not defined.");
+        }
+        return globals.get(name);
+    }
+
+    /**
+     * Pushes the value of a local or global, returning its descriptor.
+     */
+    private String load(String name) {
+        Local local = local(name);
+        if (local != null) {
+            code.local(loadOpcode(local.descriptor), local.slot, size(local.descriptor));
+            return local.descriptor;
+        }
+        String descriptor = global(name);
+        code.op(0x2a, 1);
+        code.op(0xb4, size(descriptor) - 1).u2(pool.field(CLASS, name, descriptor));
+        return descriptor;
+    }
+
+    /**
+     * Jumps to the label if the comparison of the two values on the stack
+     * holds.
+     */
+    private void compare(String operator, String left, String right, Label label) {
+        if (operator.equals("==") || operator.equals("!=")) {
+            convert(right, left);
+            equal(left, label, operator.equals("=="));
+        }
+        else if (isPrimitive(left) && left.equals(right)) {
+            if (left.equals("D")) {
+                code.op(operator.equals("<") ? 0x98 : 0x97, -3);
+                code.jump(operator.equals("<") ? 0x9b : 0x9d, label, -1);
+            }
+            else {
+                code.jump(operator.equals("<") ? 0xa1 : 0xa3, label, -2);
+            }
+        }
+        else {
+            //the right operand is boxed first, since it is on top of the stack
+            convert(right, OBJECT);
+            if (isPrimitive(left)) {
+                throw new RuntimeException("Cannot compare " + left + " to " + right + ".");
+            }
+            code.op(0xb9, -1).u2(pool.method(0x0b, "java/lang/Comparable", "compareTo", "(" + OBJECT + ")I")).u1(2).u1(0);
+            code.jump(operator.equals("<") ? 0x9b : 0x9d, label, -1);
+        }
+    }
+
+    /**
+     * Jumps to the label if the two values on the stack are equal, or not
+     * equal, as {@code ==} and {@code !=} compare them in Java.
+     */
+    private void equal(String descriptor, Label label, boolean equal) {
+        if (descriptor.equals("D")) {
+            code.op(0x97, -3);
+            code.jump(equal ? 0x99 : 0x9a, label, -1);
+        }
+        else if (isPrimitive(descriptor)) {
+            code.jump(equal ? 0x9f : 0xa0, label, -2);
+        }
+        else {
+            code.jump(equal ? 0xa5 : 0xa6, label, -2);
+        }
+    }
+
+    private void append(String descriptor) {
+        String argument = printable(descriptor);
+        code.op(0xb6, -size(argument)).u2(pool.method(0x0a, "java/lang/StringBuilder", "append", "(" + argument + ")Ljava/lang/StringBuilder;"));
+    }
+
+    /**
+     * Returns the descriptor of the overload of {@code println} and {@code
+     * append} that takes a value of the descriptor.
+     */
+    private static String printable(String descriptor) {
+        return isPrimitive(descriptor) || descriptor.equals(STRING) ? descriptor : OBJECT;
+    }
+
+    /**
+     * Converts the value on the stack to the descriptor, boxing primitives
+     * assigned to objects as Java does.
+     */
+    private void convert(String from, String to) {
+        if (from.equals(to) || !isPrimitive(from)) {
+            return;
+        }
+        if (to.equals("D") && from.equals("I")) {
+            code.op(0x87, 1);
+            return;
+        }
+        if (isPrimitive(to)) {
+            throw new RuntimeException("Cannot convert " + from + " to " + to + ".");
+        }
+        String box;
+        switch (from) {
+            case "I": box = "java/lang/Integer"; break;
+            case "D": box = "java/lang/Double"; break;
+            case "Z": box = "java/lang/Boolean"; break;
+            default: box = "java/lang/Character";
+        }
+        code.op(0xb8, 1 - size(from)).u2(pool.method(0x0a, box, "valueOf", "(" + from + ")L" + box + ";"));
+    }
+
+    /**
+     * Pushes the default value of the descriptor.
+     */
+    private void push(String descriptor) {
+        if (descriptor.equals("D")) {
+            code.op(0x0e, 2);
+        }
+        else if (isPrimitive(descriptor)) {
+            code.op(0x03, 1);
+        }
+        else {
+            code.op(0x01, 1);
+        }
+    }
+
+    private void integer(int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(0x03 + value, 1);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(0x10, 1).u1(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(0x11, 1).u2(value);
+        }
+        else {
+            constant(pool.integer(value));
+        }
+    }
+
+    private void constant(int index) {
+        if (index < 256) {
+            code.op(0x12, 1).u1(index);
+        }
+        else {
+            code.op(0x13, 1).u2(index);
+        }
+    }
+
+    private void begin() {
+        code = new Code();
+    }
+
+    private void end(int access, String name, String descriptor, int locals) {
+        if (code.size > 65535) {
+            throw new RuntimeException("The method " + name + " is too large.");
+        }
+        methods.u2(access).u2(pool.utf8(name)).u2(pool.utf8(descriptor)).u2(1);
+        methods.u2(pool.utf8("Code")).u4(12 + code.size);
+        methods.u2(code.maximumDepth).u2(Math.max(locals, code.maximumLocals)).u4(code.size);
+        methods.bytes(code.bytes, code.size);
+        methods.u2(0).u2(0);
+        methodCount++;
+    }
+
+    private byte[] toClassFile() {
+        int self = pool.type(CLASS);
+        int parent = pool.type("java/lang/Object");
+        Bytes file = new Bytes();
+        file.u4(0xCAFEBABE).u2(0).u2(49);
+        file.u2(pool.count).bytes(pool.bytes.bytes, pool.bytes.size);
+        file.u2(0x0021).u2(self).u2(parent).u2(0);
+        file.u2(fieldCount).bytes(fields.bytes, fields.size);
+        file.u2(methodCount).bytes(methods.bytes, methods.size);
+        file.u2(0);
+        return Arrays.copyOf(file.bytes, file.size);
+    }
+
+    /**
+     * Returns the descriptor of the type's JVM name.
+     */
+    static String descriptor(Environment.Type type) {
+        String descriptor = DESCRIPTORS.get(type.getJvmName());
+        if (descriptor != null) {
+            return descriptor;
+        }
+        else if (type.getJvmName().contains(".")) {
+            return "L" + type.getJvmName().replace('.', '/') + ";";
+        }
+        return "Ljava/lang/" + type.getJvmName() + ";";
+    }
+
+    private static boolean isPrimitive(String descriptor) {
+        return descriptor.length() == 1 && !descriptor.equals("V");
+    }
+
+    private static int size(String descriptor) {
+        return descriptor.equals("V") ? 0 : descriptor.equals("D") ? 2 : 1;
+    }
+
+    private static int loadOpcode(String descriptor) {
+        return descriptor.equals("D") ? 0x18 : isPrimitive(descriptor) ? 0x15 : 0x19;
+    }
+
+    private static int storeOpcode(String descriptor) {
+        return descriptor.equals("D") ? 0x39 : isPrimitive(descriptor) ? 0x36 : 0x3a;
+    }
+
+    private static int returnOpcode(String descriptor) {
+        return descriptor.equals("D") ? 0xaf : isPrimitive(descriptor) ? 0xac : 0xb0;
+    }
+
+    private static int arrayOpcode(String element, boolean store) {
+        int load;
+        switch (element) {
+            case "I": load = 0x2e; break;
+            case "D": load = 0x31; break;
+            case "Z": load = 0x33; break;
+            case "C": load = 0x34; break;
+            default: load = 0x32;
+        }
+        return store ? load + 0x21 : load;
+    }
+
+    private static final class Local {
+
+        private final int slot;
+        private final String descriptor;
+
+        private Local(int slot, String descriptor) {
+            this.slot = slot;
+            this.descriptor = descriptor;
+        }
+
+    }
+
+    private static final class Label {
+
+        private int position = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+
+    }
+
+    private static class Bytes {
+
+        byte[] bytes = new byte[64];
+        int size = 0;
+
+        Bytes u1(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        Bytes u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        Bytes u4(int value) {
+            return u2(value >> 16).u2(value);
+        }
+
+        Bytes bytes(byte[] values, int length) {
+            for (int i = 0; i < length; i++) {
+                u1(values[i]);
+            }
+            return this;
+        }
+
+    }
+
+    /**
+     * The code of a method, with the depth of its operand stack.
+     */
+    private static final class Code extends Bytes {
+
+        private int depth = 0;
+        private int maximumDepth = 0;
+        private int maximumLocals = 0;
+
+        /**
+         * Adds an instruction, which changes the depth of the stack by the
+         * effect; its operands are added after it.
+         */
+        Code op(int opcode, int effect) {
+            u1(opcode);
+            depth += effect;
+            maximumDepth = Math.max(maximumDepth, depth);
+            return this;
+        }
+
+        void local(int opcode, int slot, int effect) {
+            if (slot < 256) {
+                op(opcode, effect).u1(slot);
+            }
+            else {
+                op(0xc4, 0).op(opcode, effect).u2(slot);
+            }
+        }
+
+        void jump(int opcode, Label label, int effect) {
+            int at = size;
+            op(opcode, effect);
+            if (label.position >= 0) {
+                u2(offset(label.position - at));
+            }
+            else {
+                label.jumps.add(at);
+                u2(0);
+            }
+        }
+
+        /**
+         * Checks that a jump offset fits the signed two bytes of a branch,
+         * which methods of more than 32767 bytes may exceed.
+         */
+        private static int offset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new RuntimeException("The method is too large to jump " + offset + " bytes.");
+            }
+            return offset;
+        }
+
+        void place(Label label) {
+            label.position = size;
+            for (int at : label.jumps) {
+                int offset = offset(size - at);
+                bytes[at + 1] = (byte) (offset >> 8);
+                bytes[at + 2] = (byte) offset;
+            }
+        }
+
+    }
+
+    private static final class ConstantPool {
+
+        private final Bytes bytes = new Bytes();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, entry -> {
+                byte[] encoded = modifiedUtf8(value);
+                entry.u2(encoded.length).bytes(encoded, encoded.length);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, 3, entry -> entry.u4(value));
+        }
+
+        int decimal(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            int index = entry("D" + bits, 6, entry -> entry.u4((int) (bits >> 32)).u4((int) bits));
+            return index;
+        }
+
+        int type(String name) {
+            int utf8 = utf8(name);
+            return entry("C" + name, 7, entry -> entry.u2(utf8));
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, 8, entry -> entry.u2(utf8));
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        int method(int tag, String owner, String name, String descriptor) {
+            return member(tag, owner, name, descriptor);
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            int type = type(owner);
+            int utf8Name = utf8(name);
+            int utf8Descriptor = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, 12, entry -> entry.u2(utf8Name).u2(utf8Descriptor));
+            return entry(tag + owner + "." + name + ":" + descriptor, tag, entry -> entry.u2(type).u2(nameAndType));
+        }
+
+        private int entry(String key, int tag, java.util.function.Consumer<Bytes> writer) {
+            Integer index = indices.get(key);
+            if (index == null) {
+                index = count;
+                bytes.u1(tag);
+                writer.accept(bytes);
+                //doubles take two entries
+                count += tag == 6 ? 2 : 1;
+                if (count > 65535) {
+                    throw new RuntimeException("Too many constants.");
+                }
+                indices.put(key, index);
+            }
+            return index;
+        }
+
+        /**
+         * Encodes the string as the modified UTF-8 of class files, in which
+         * the null character and characters outside the basic plane take two
+         * and six bytes.
+         */
+        private static byte[] modifiedUtf8(String value) {
+            Bytes encoded = new Bytes();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    encoded.u1(c);
+                }
+                else if (c < 0x800) {
+                    encoded.u1(0xc0 | (c >> 6)).u1(0x80 | (c & 0x3f));
+                }
+                else {
+                    encoded.u1(0xe0 | (c >> 12)).u1(0x80 | ((c >> 6) & 0x3f)).u1(0x80 | (c & 0x3f));
+                }
+            }
+            return Arrays.copyOf(encoded.bytes, encoded.size);
+        }
+
+    }
+
+    private static final class Loader extends ClassLoader {
+
+        private Loader() {
+            super(ClassGenerator.class.getClassLoader());
+        }
+
+        private Class<?> define(byte[] classFile) {
+            return defineClass(CLASS, classFile, 0, classFile.length);
+        }
+
+    }
+
+}
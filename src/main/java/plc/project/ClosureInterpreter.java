@@ -0,0 +1,660 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * An {@link Interpreter} that compiles each AST into a tree of closures once
+ * and then runs the closures, instead of dispatching on node classes and
+ * operator strings every time a node is evaluated. Programs behave exactly
+ * as with the {@link Interpreter}; every visit compiles the given node and
+ * runs it, and {@link #compile(Ast)} compiles a node to be run repeatedly.
+ *
+ * Compilation resolves everything known up front: the operator of each
+ * binary expression, the values of literals, and the bodies of functions,
+ * which are compiled once rather than on every call. Arithmetic on operands
+ * the {@link Analyzer} typed as integers or decimals skips the checks for
+ * strings and the other number type. Trees that were not analyzed, as in the
+ * interpreter's tests, are still supported through the general paths.
+ *
+ * Compiling a source or function also {@link Resolver resolves} its
+ * variables. A call of a resolved function keeps its parameters and local
+ * variables in an array, its frame, rather than in a new {@link Scope} for
+ * the call and for every block it runs, and the globals of the source are
+ * kept in an array as well, holding the same variables as the scope. Other
+ * variables, and all functions, are still looked up by name in the scope.
+ */
+public final class ClosureInterpreter extends Interpreter {
+
+    private static final Environment.PlcObject TRUE = Environment.create(true);
+    private static final Environment.PlcObject FALSE = Environment.create(false);
+
+    /**
+     * The frame of the running call of a resolved function.
+     */
+    private Environment.PlcObject[] frame;
+
+    public ClosureInterpreter(Scope parent) {
+        super(parent);
+    }
+
+    /**
+     * A compiled node, which evaluates to {@link Environment#NIL} if it is a
+     * statement.
+     */
+    @FunctionalInterface
+    public interface Closure {
+
+        Environment.PlcObject execute();
+
+    }
+
+    public Closure compile(Ast ast) {
+        Resolver resolver = null;
+        if (ast instanceof Ast.Source) {
+            resolver = Resolver.of((Ast.Source) ast);
+        }
+        else if (ast instanceof Ast.Function) {
+            resolver = Resolver.of((Ast.Function) ast);
+        }
+        return new Compiler(resolver).visit(ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast ast) {
+        return compile(ast).execute();
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Source ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Global ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Function ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Expression ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Declaration ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Assignment ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.If ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Switch ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Case ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.While ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Return ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Literal ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Group ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Binary ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Access ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Function ast) {
+        return visit((Ast) ast);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.PlcList ast) {
+        return visit((Ast) ast);
+    }
+
+    private void execute(Closure[] statements) {
+        for (Closure statement : statements) {
+            statement.execute();
+        }
+    }
+
+    /**
+     * Executes the statements in a new scope, as for the body of an {@code
+     * IF}, {@code SWITCH} case, or {@code WHILE}.
+     */
+    private void executeScoped(Closure[] statements) {
+        try {
+            scope = new Scope(scope);
+            execute(statements);
+        } finally {
+            scope = scope.getParent();
+        }
+    }
+
+    private static Environment.PlcObject bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * Casts a value to a parameterized type, such as a list of the values of
+     * the language, which can't be checked at runtime.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T unchecked(Object value) {
+        return (T) value;
+    }
+
+    /**
+     * Returns the type the analyzer gave the expression, or null if it was not
+     * analyzed.
+     */
+    private static Environment.Type typeOf(Ast.Expression ast) {
+        try {
+            return ast.getType();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private final class Compiler implements Ast.Visitor<Closure> {
+
+        private final Resolver resolver;
+
+        /** The frame of the globals of the source being compiled, if any. */
+        private Environment.Variable[] globalFrame;
+        /** Whether the statements being compiled run in a frame rather than in scopes. */
+        private boolean framed = false;
+
+        private Compiler(Resolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public Closure visit(Ast.Source ast) {
+            globalFrame = new Environment.Variable[resolver.getGlobals()];
+            Closure[] globals = compileAll(ast.getGlobals());
+            Closure[] functions = compileAll(ast.getFunctions());
+            return () -> {
+                execute(globals);
+                execute(functions);
+                return scope.lookupFunction("main", 0).invoke(new ArrayList<>());
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Global ast) {
+            String name = ast.getName();
+            boolean mutable = ast.getMutable();
+            Closure value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : null;
+            int address = address(ast);
+            Environment.Variable[] globalFrame = this.globalFrame;
+            return () -> {
+                if (value == null && !mutable) {
+                    throw new NoSuchElementException("No value present");
+                }
+                Environment.Variable variable = scope.defineVariable(name, name, Environment.Type.ANY, mutable, value != null ? value.execute() : Environment.NIL);
+                if (address != -1) {
+                    globalFrame[Resolver.slot(address)] = variable;
+                }
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Function ast) {
+            String name = ast.getName();
+            String[] parameters = ast.getParameters().toArray(new String[0]);
+            int size = resolver.getFrameSize(ast);
+            if (size != -1) {
+                return framed(name, parameters.length, size, ast.getStatements());
+            }
+            Closure[] statements = compileAll(ast.getStatements());
+            return () -> {
+                Scope globalScope = scope;
+                scope.defineFunction(name, parameters.length, arguments -> {
+                    Scope previous = scope;
+                    try {
+                        scope = new Scope(globalScope);
+                        for (int i = 0; i < arguments.size(); i++) {
+                            scope.defineVariable(parameters[i], true, arguments.get(i));
+                        }
+                        execute(statements);
+                    } catch (Return ret) {
+                        return ret.value;
+                    } finally {
+                        scope = previous;
+                    }
+                    return Environment.NIL;
+                });
+                return Environment.NIL;
+            };
+        }
+
+        /**
+         * Compiles a resolved function, whose calls run in a frame of the given
+         * size and in the scope the function is defined in, since none of its
+         * variables are defined in a scope.
+         */
+        private Closure framed(String name, int arity, int size, List<Ast.Statement> body) {
+            framed = true;
+            Closure[] statements = compileAll(body);
+            framed = false;
+            return () -> {
+                Scope globalScope = scope;
+                scope.defineFunction(name, arity, arguments -> {
+                    Scope previous = scope;
+                    Environment.PlcObject[] caller = frame;
+                    try {
+                        scope = globalScope;
+                        frame = new Environment.PlcObject[size];
+                        for (int i = 0; i < arguments.size(); i++) {
+                            frame[i] = arguments.get(i);
+                        }
+                        execute(statements);
+                    } catch (Return ret) {
+                        return ret.value;
+                    } finally {
+                        scope = previous;
+                        frame = caller;
+                    }
+                    return Environment.NIL;
+                });
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Expression ast) {
+            Closure expression = visit(ast.getExpression());
+            return () -> {
+                expression.execute();
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Declaration ast) {
+            String name = ast.getName();
+            Closure value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : null;
+            int address = address(ast);
+            if (address != -1) {
+                int slot = Resolver.slot(address);
+                return () -> {
+                    frame[slot] = value != null ? value.execute() : Environment.NIL;
+                    return Environment.NIL;
+                };
+            }
+            return () -> {
+                scope.defineVariable(name, true, value != null ? value.execute() : Environment.NIL);
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Assignment ast) {
+            if (!(ast.getReceiver().getClass().equals(Ast.Expression.Access.class))) {
+                String message = "Expected type Access, received " + ast.getReceiver().getClass().getName() + ".";
+                return () -> {
+                    throw new RuntimeException(message);
+                };
+            }
+            Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+            Closure value = visit(ast.getValue());
+            int address = address(receiver);
+            if (address != -1 && Resolver.depth(address) == Resolver.LOCAL) {
+                //locals are always mutable
+                int slot = Resolver.slot(address);
+                if (receiver.getOffset().isPresent()) {
+                    Closure offset = visit(receiver.getOffset().get());
+                    return () -> {
+                        List<Object> list = unchecked(frame[slot].getValue());
+                        BigInteger index = requireType(BigInteger.class, offset.execute());
+                        list.set(index.intValue(), value.execute().getValue());
+                        return Environment.NIL;
+                    };
+                }
+                return () -> {
+                    if (frame[slot].getValue() instanceof List) {
+                        throw new RuntimeException("List cannot be reassigned.");
+                    }
+                    frame[slot] = value.execute();
+                    return Environment.NIL;
+                };
+            }
+            Supplier<Environment.Variable> receiverVariable = variable(receiver.getName(), address);
+            if (receiver.getOffset().isPresent()) {
+                Closure offset = visit(receiver.getOffset().get());
+                return () -> {
+                    Environment.Variable variable = requireMutable(receiverVariable.get());
+                    List<Object> list = unchecked(variable.getValue().getValue());
+                    BigInteger index = requireType(BigInteger.class, offset.execute());
+                    list.set(index.intValue(), value.execute().getValue());
+                    return Environment.NIL;
+                };
+            }
+            return () -> {
+                Environment.Variable variable = requireMutable(receiverVariable.get());
+                if (variable.getValue().getValue() instanceof List) {
+                    throw new RuntimeException("List cannot be reassigned.");
+                }
+                variable.setValue(value.execute());
+                return Environment.NIL;
+            };
+        }
+
+        private Environment.Variable requireMutable(Environment.Variable variable) {
+            if (!variable.getMutable()) {
+                throw new RuntimeException("Expected mutable receiver.");
+            }
+            return variable;
+        }
+
+        /**
+         * Returns the global or other variable of the given name and address,
+         * which is not a local.
+         */
+        private Supplier<Environment.Variable> variable(String name, int address) {
+            if (address != -1) {
+                Environment.Variable[] globalFrame = this.globalFrame;
+                int slot = Resolver.slot(address);
+                return () -> globalFrame[slot];
+            }
+            return () -> scope.lookupVariable(name);
+        }
+
+        private int address(Ast node) {
+            return resolver != null ? resolver.getAddress(node) : -1;
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.If ast) {
+            Closure condition = visit(ast.getCondition());
+            Closure[] thenStatements = compileAll(ast.getThenStatements());
+            Closure[] elseStatements = compileAll(ast.getElseStatements());
+            if (framed) {
+                return () -> {
+                    execute(requireType(Boolean.class, condition.execute()) ? thenStatements : elseStatements);
+                    return Environment.NIL;
+                };
+            }
+            return () -> {
+                executeScoped(requireType(Boolean.class, condition.execute()) ? thenStatements : elseStatements);
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Switch ast) {
+            Closure condition = visit(ast.getCondition());
+            Closure[] values = new Closure[ast.getCases().size()];
+            Closure[][] statements = new Closure[values.length][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = visit(ast.getCases().get(i));
+                statements[i] = compileAll(ast.getCases().get(i).getStatements());
+            }
+            boolean scoped = !framed;
+            return () -> {
+                Environment.PlcObject value = condition.execute();
+                for (int i = 0; i < values.length; i++) {
+                    //as in the interpreter, the case value is evaluated again if it does not match
+                    if (values[i].execute().getValue().equals(value.getValue()) || values[i].execute().equals(Environment.NIL)) {
+                        if (scoped) {
+                            executeScoped(statements[i]);
+                        }
+                        else {
+                            execute(statements[i]);
+                        }
+                        break;
+                    }
+                }
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Case ast) {
+            return ast.getValue().isPresent() ? visit(ast.getValue().get()) : () -> Environment.NIL;
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.While ast) {
+            Closure condition = visit(ast.getCondition());
+            Closure[] statements = compileAll(ast.getStatements());
+            if (framed) {
+                return () -> {
+                    while (requireType(Boolean.class, condition.execute())) {
+                        execute(statements);
+                    }
+                    return Environment.NIL;
+                };
+            }
+            return () -> {
+                while (requireType(Boolean.class, condition.execute())) {
+                    executeScoped(statements);
+                }
+                return Environment.NIL;
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Statement.Return ast) {
+            Closure value = visit(ast.getValue());
+            return () -> {
+                throw new Return(value.execute());
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.Literal ast) {
+            Environment.PlcObject value = ast.getLiteral() == null ? Environment.NIL : Environment.create(ast.getLiteral());
+            return () -> value;
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.Group ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.Binary ast) {
+            String operator = ast.getOperator();
+            Closure left = visit(ast.getLeft());
+            Closure right = visit(ast.getRight());
+            switch (operator) {
+                case "&&":
+                    return () -> bool(requireType(Boolean.class, left.execute()) && requireType(Boolean.class, right.execute()));
+                case "||":
+                    return () -> bool(requireType(Boolean.class, left.execute()) || requireType(Boolean.class, right.execute()));
+                case "<":
+                case ">": {
+                    boolean less = operator.equals("<");
+                    return () -> {
+                        Environment.PlcObject lhs = left.execute();
+                        Comparable<Object> comparable = unchecked(requireType(Comparable.class, lhs));
+                        int comparison = comparable.compareTo(requireType(lhs.getValue().getClass(), right.execute()));
+                        return bool(less ? comparison < 0 : comparison > 0);
+                    };
+                }
+                case "==":
+                case "!=": {
+                    boolean equal = operator.equals("==");
+                    return () -> bool(left.execute().getValue().equals(right.execute().getValue()) == equal);
+                }
+            }
+            Environment.Type type = typeOf(ast.getLeft());
+            if (type != null && type == typeOf(ast.getRight()) && !operator.equals("^")) {
+                if (type == Environment.Type.INTEGER) {
+                    return integer(operator, left, right);
+                }
+                else if (type == Environment.Type.DECIMAL) {
+                    return decimal(operator, left, right);
+                }
+            }
+            return () -> binary(operator, left.execute(), right::execute);
+        }
+
+        private Closure integer(String operator, Closure left, Closure right) {
+            switch (operator) {
+                case "+":
+                    return () -> Environment.create(requireType(BigInteger.class, left.execute()).add(requireType(BigInteger.class, right.execute())));
+                case "-":
+                    return () -> Environment.create(requireType(BigInteger.class, left.execute()).subtract(requireType(BigInteger.class, right.execute())));
+                case "*":
+                    return () -> Environment.create(requireType(BigInteger.class, left.execute()).multiply(requireType(BigInteger.class, right.execute())));
+                default:
+                    return () -> {
+                        BigInteger lhs = requireType(BigInteger.class, left.execute());
+                        BigInteger rhs = requireType(BigInteger.class, right.execute());
+                        if (rhs.equals(BigInteger.ZERO)) {
+                            throw new RuntimeException("Can't divide by zero.");
+                        }
+                        return Environment.create(lhs.divide(rhs));
+                    };
+            }
+        }
+
+        private Closure decimal(String operator, Closure left, Closure right) {
+            switch (operator) {
+                case "+":
+                    return () -> Environment.create(requireType(BigDecimal.class, left.execute()).add(requireType(BigDecimal.class, right.execute())));
+                case "-":
+                    return () -> Environment.create(requireType(BigDecimal.class, left.execute()).subtract(requireType(BigDecimal.class, right.execute())));
+                case "*":
+                    return () -> Environment.create(requireType(BigDecimal.class, left.execute()).multiply(requireType(BigDecimal.class, right.execute())));
+                default:
+                    return () -> {
+                        BigDecimal lhs = requireType(BigDecimal.class, left.execute());
+                        BigDecimal rhs = requireType(BigDecimal.class, right.execute());
+                        if (rhs.equals(BigDecimal.ZERO)) {
+                            throw new RuntimeException("Can't divide by zero.");
+                        }
+                        return Environment.create(lhs.divide(rhs, RoundingMode.HALF_EVEN));
+                    };
+            }
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.Access ast) {
+            int address = address(ast);
+            Closure variable;
+            if (address != -1 && Resolver.depth(address) == Resolver.LOCAL) {
+                int slot = Resolver.slot(address);
+                variable = () -> frame[slot];
+            }
+            else if (address != -1) {
+                Environment.Variable[] globalFrame = this.globalFrame;
+                int slot = Resolver.slot(address);
+                variable = () -> globalFrame[slot].getValue();
+            }
+            else {
+                String name = ast.getName();
+                variable = () -> scope.lookupVariable(name).getValue();
+            }
+            if (!ast.getOffset().isPresent()) {
+                return variable;
+            }
+            Closure offset = visit(ast.getOffset().get());
+            return () -> {
+                List<Object> list = unchecked(variable.execute().getValue());
+                int index = requireType(BigInteger.class, offset.execute()).intValue();
+                if (index >= list.size() || index < 0) {
+                    throw new RuntimeException("List index out of bounds.");
+                }
+                return Environment.create(list.get(index));
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.Function ast) {
+            String name = ast.getName();
+            Closure[] arguments = compileAll(ast.getArguments());
+            return () -> {
+                List<Environment.PlcObject> values = new ArrayList<>(arguments.length);
+                for (Closure argument : arguments) {
+                    values.add(argument.execute());
+                }
+                return scope.lookupFunction(name, arguments.length).invoke(values);
+            };
+        }
+
+        @Override
+        public Closure visit(Ast.Expression.PlcList ast) {
+            Closure[] values = compileAll(ast.getValues());
+            return () -> {
+                List<Object> list = new ArrayList<>(values.length);
+                for (Closure value : values) {
+                    list.add(value.execute().getValue());
+                }
+                return Environment.create(list);
+            };
+        }
+
+        private Closure[] compileAll(List<? extends Ast> nodes) {
+            Closure[] closures = new Closure[nodes.size()];
+            for (int i = 0; i < closures.length; i++) {
+                closures[i] = visit(nodes.get(i));
+            }
+            return closures;
+        }
+
+    }
+
+    /**
+     * Unwinds to the enclosing function call, without the cost of a stack
+     * trace.
+     */
+    private static final class Return extends RuntimeException {
+
+        private final Environment.PlcObject value;
+
+        private Return(Environment.PlcObject value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+
+    }
+
+}
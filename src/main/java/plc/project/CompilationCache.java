@@ -0,0 +1,271 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent cache in front of the whole pipeline, from the {@link Lexer}
+ * to the {@link Generator}, storing the generated Java source and the analyzed
+ * AST (see {@link AstSerializer}) of each compiled program in a directory.
+ *
+ * Entries are keyed by the SHA-256 hash of the {@link #COMPILER_VERSION} and
+ * the source, so changing either one misses rather than returning stale
+ * output; entries that cannot be read are recompiled and replaced. Each entry
+ * is a single file named after its key, written to a temporary file first
+ * and then moved into place, so concurrent processes sharing a directory see
+ * either a complete entry or none.
+ *
+ * The total size of the entries is bounded: once it goes over the limit, the
+ * least recently used entries are deleted. Recency is kept in the files'
+ * modification times, so it carries over to the next process using the
+ * directory. Programs that fail to compile are not cached, and the exception
+ * is thrown as usual.
+ */
+public final class CompilationCache {
+
+    /**
+     * Identifies the output of this compiler; it must change whenever the
+     * generated code or the serialized AST would change for the same source.
+     */
+    public static final String COMPILER_VERSION = "plc-1/ast-" + AstSerializer.VERSION;
+
+    private static final String SUFFIX = ".plcc";
+
+    private final Path directory;
+    private final long maximumSize;
+
+    /**
+     * The size of each entry by key, in least to most recently used order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long clock = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Opens the cache in the given directory, creating it if needed, holding
+     * at most {@code maximumSize} bytes of entries.
+     */
+    public CompilationCache(Path directory, long maximumSize) throws IOException {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Invalid maximum size " + maximumSize + ".");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maximumSize = maximumSize;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort(Comparator.comparing(times::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long length = Files.size(file);
+            entries.put(name.substring(0, name.length() - SUFFIX.length()), length);
+            size += length;
+            clock = Math.max(clock, times.get(file).toMillis());
+        }
+        evict();
+    }
+
+    /**
+     * Returns the generated Java source and analyzed AST of the program,
+     * loading them from the cache if the same source was compiled before and
+     * compiling and storing them otherwise.
+     */
+    public synchronized Result compile(String source) throws IOException {
+        String key = key(source);
+        if (entries.containsKey(key)) {
+            Result result = load(key);
+            if (result != null) {
+                hits++;
+                touch(key);
+                return result;
+            }
+            remove(key);
+        }
+        misses++;
+        Ast.Source ast = new Parser(new Lexer(source).lexBuffer()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter java = new StringWriter();
+        new Generator(new PrintWriter(java)).visit(ast);
+        store(key, java.toString(), AstSerializer.write(ast));
+        return new Result(java.toString(), ast);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the entries in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CompilationCache{" +
+                "directory=" + directory +
+                ", entries=" + entries.size() +
+                ", size=" + size +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the compiler version and source.
+     */
+    static String key(String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * Reads an entry, which is the length of the Java source in UTF-8, the
+     * source, and the serialized AST, or returns null if it is missing or
+     * malformed.
+     */
+    private Result load(String key) {
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path(key)));
+            int length = data.getInt();
+            String java = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+            byte[] ast = new byte[data.remaining() - length];
+            data.position(data.position() + length);
+            data.get(ast);
+            return new Result(java, AstSerializer.read(ast));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void store(String key, String java, byte[] ast) throws IOException {
+        byte[] bytes = java.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data = ByteBuffer.allocate(4 + bytes.length + ast.length);
+        data.putInt(bytes.length).put(bytes).put(ast);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temporary, data.array());
+            Files.move(temporary, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            touch(key);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        Long previous = entries.put(key, (long) data.capacity());
+        size += data.capacity() - (previous != null ? previous : 0);
+        evict();
+    }
+
+    /**
+     * Marks the entry as the most recently used, both in the access order of
+     * the entries and on disk. Times are kept strictly increasing, so entries
+     * used within the same millisecond still reload in order.
+     */
+    private void touch(String key) throws IOException {
+        entries.get(key);
+        clock = Math.max(System.currentTimeMillis(), clock + 1);
+        Files.setLastModifiedTime(path(key), FileTime.fromMillis(clock));
+    }
+
+    private void remove(String key) throws IOException {
+        size -= entries.remove(key);
+        Files.deleteIfExists(path(key));
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits.
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maximumSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue();
+            evictions++;
+            Files.deleteIfExists(path(entry.getKey()));
+        }
+    }
+
+    /**
+     * The output of compiling a program: the generated Java source and the
+     * analyzed AST.
+     */
+    public static final class Result {
+
+        private final String java;
+        private final Ast.Source ast;
+
+        private Result(String java, Ast.Source ast) {
+            this.java = java;
+            this.ast = ast;
+        }
+
+        public String getJava() {
+            return java;
+        }
+
+        public Ast.Source getAst() {
+            return ast;
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+package plc.project;
+
+import java.math.BigInteger;
+
+/**
+ * Folds constant binary expressions of an analyzed AST into literals, and
+ * simplifies integer identities such as {@code x * 1} and {@code x + 0} to
+ * {@code x}, for use between the {@link Analyzer} and the {@link Interpreter}
+ * or {@link Generator}.
+ *
+ * Folding must not change what either backend computes, so constants are
+ * evaluated by the {@link Interpreter} itself, and an expression is only
+ * folded when the result means the same thing in the generated Java:
+ *
+ *  - integer arithmetic ({@code + - * /}) whose result fits in an {@code
+ *    int}; decimals are not folded since {@code double} arithmetic rounds
+ *    differently than {@link java.math.BigDecimal}, and {@code ^} is not
+ *    folded since it generates a {@code Math.pow} call,
+ *  - comparisons of integers and characters, and equality of integers,
+ *    characters, and booleans,
+ *  - {@code &&} and {@code ||}, including short circuits on a constant left
+ *    operand, which never evaluate the right one, and {@code x && TRUE} and
+ *    {@code x || FALSE}, which are {@code x},
+ *  - and string concatenation with strings, characters, integers, and
+ *    booleans.
+ *
+ * Expressions that fail at runtime, such as a division by zero, are left
+ * as they are so they still fail when executed. Groups around expressions
+ * that are no longer binary are removed, which is counted apart from folds.
+ */
+public final class ConstantFolder extends AstRewriter {
+
+    private static final BigInteger MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+    private static final BigInteger MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+
+    private final Interpreter interpreter = new Interpreter(new Scope(null));
+    private int folded = 0;
+    private int unwrapped = 0;
+
+    /**
+     * Returns the number of binary expressions replaced so far.
+     */
+    public int getFolded() {
+        return folded;
+    }
+
+    /**
+     * Returns the number of groups removed so far.
+     */
+    public int getUnwrapped() {
+        return unwrapped;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = rewrite(ast.getExpression());
+        if (!(expression instanceof Ast.Expression.Binary)) {
+            unwrapped++;
+            return expression;
+        }
+        if (expression == ast.getExpression()) {
+            return ast;
+        }
+        Ast.Expression.Group group = new Ast.Expression.Group(expression);
+        group.setType(ast.getType());
+        return group;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        Ast.Expression.Binary binary = (Ast.Expression.Binary) super.visit(ast);
+        Ast.Expression left = binary.getLeft();
+        Ast.Expression right = binary.getRight();
+        String operator = binary.getOperator();
+        if (left instanceof Ast.Expression.Literal && (operator.equals("&&") || operator.equals("||"))) {
+            //FALSE && x and TRUE || x never evaluate x; TRUE && x and FALSE || x evaluate to x
+            boolean value = (Boolean) ((Ast.Expression.Literal) left).getLiteral();
+            folded++;
+            return value == operator.equals("&&") ? right : left;
+        }
+        if (right instanceof Ast.Expression.Literal && (operator.equals("&&") || operator.equals("||"))
+                && ((Ast.Expression.Literal) right).getLiteral().equals(operator.equals("&&"))) {
+            //x && TRUE and x || FALSE evaluate to x
+            folded++;
+            return left;
+        }
+        if (left instanceof Ast.Expression.Literal && right instanceof Ast.Expression.Literal) {
+            Object result = evaluate(binary);
+            if (result != null) {
+                folded++;
+                Ast.Expression.Literal literal = new Ast.Expression.Literal(result);
+                literal.setType(binary.getType());
+                return literal;
+            }
+        }
+        else if (isInteger(binary) && isInteger(left) && isInteger(right)) {
+            if ((operator.equals("+") || operator.equals("-") || operator.equals("*") || operator.equals("/")) && isConstant(right, operator.equals("+") || operator.equals("-") ? 0 : 1)) {
+                folded++;
+                return left;
+            }
+            else if ((operator.equals("+") && isConstant(left, 0)) || (operator.equals("*") && isConstant(left, 1))) {
+                folded++;
+                return right;
+            }
+        }
+        return binary;
+    }
+
+    /**
+     * Returns the value of a binary expression of two literals, or null if it
+     * should not be folded.
+     */
+    private Object evaluate(Ast.Expression.Binary ast) {
+        Object left = ((Ast.Expression.Literal) ast.getLeft()).getLiteral();
+        Object right = ((Ast.Expression.Literal) ast.getRight()).getLiteral();
+        switch (ast.getOperator()) {
+            case "+":
+                if (!(left instanceof String || right instanceof String)) {
+                    if (!(left instanceof BigInteger)) {
+                        return null;
+                    }
+                }
+                else if (!isPrintable(left) || !isPrintable(right)) {
+                    return null;
+                }
+                break;
+            case "-":
+            case "*":
+            case "/":
+                if (!(left instanceof BigInteger)) {
+                    return null;
+                }
+                break;
+            case "<":
+            case ">":
+                if (!(left instanceof BigInteger || left instanceof Character)) {
+                    return null;
+                }
+                break;
+            case "==":
+            case "!=":
+                if (!(left instanceof BigInteger || left instanceof Character || left instanceof Boolean)
+                        || left.getClass() != right.getClass()) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+        Object result;
+        try {
+            result = interpreter.visit(ast).getValue();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (result instanceof BigInteger && (((BigInteger) result).compareTo(MIN) < 0 || ((BigInteger) result).compareTo(MAX) > 0)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the value converts to the same string in the
+     * interpreter and in Java.
+     */
+    private static boolean isPrintable(Object value) {
+        return value instanceof String || value instanceof Character || value instanceof BigInteger || value instanceof Boolean;
+    }
+
+    private static boolean isInteger(Ast.Expression ast) {
+        return ast.getType() == Environment.Type.INTEGER;
+    }
+
+    private static boolean isConstant(Ast.Expression ast, int value) {
+        return ast instanceof Ast.Expression.Literal && BigInteger.valueOf(value).equals(((Ast.Expression.Literal) ast).getLiteral());
+    }
+
+}
@@ -0,0 +1,145 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes statements of an analyzed AST that can never run, for use after
+ * the {@link Analyzer} (and best after the {@link ConstantFolder}, which
+ * turns constant conditions into literals):
+ *
+ *  - statements following a {@code RETURN} in the same block,
+ *  - {@code WHILE FALSE} loops,
+ *  - and the branch of an {@code IF} with a literal condition that is not
+ *    taken. The taken branch replaces the {@code IF} if it declares no
+ *    variables, since the {@link Interpreter} runs each branch in its own
+ *    scope; otherwise the {@code IF} is kept with the other branch emptied.
+ *
+ * {@link #getRemoved()} reports how many nodes were removed, counting every
+ * statement and expression in the removed subtrees.
+ */
+public final class DeadCodeEliminator extends AstRewriter {
+
+    private int removed = 0;
+
+    /**
+     * Returns the number of nodes removed so far.
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    @Override
+    protected List<Ast.Statement> rewriteStatements(List<Ast.Statement> statements) {
+        List<Ast.Statement> rewritten = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            if (statement instanceof Ast.Statement.While && isConstant(((Ast.Statement.While) statement).getCondition(), false)) {
+                removed += size(statement);
+                changed = true;
+                continue;
+            }
+            Ast.Statement result = (Ast.Statement) visit(statement);
+            changed |= result != statement;
+            if (result instanceof Ast.Statement.If && ((Ast.Statement.If) result).getCondition() instanceof Ast.Expression.Literal) {
+                changed |= collapse((Ast.Statement.If) result, rewritten);
+            }
+            else {
+                rewritten.add(result);
+            }
+            if (!rewritten.isEmpty() && rewritten.get(rewritten.size() - 1) instanceof Ast.Statement.Return) {
+                for (int j = i + 1; j < statements.size(); j++) {
+                    removed += size(statements.get(j));
+                    changed = true;
+                }
+                break;
+            }
+        }
+        return changed ? rewritten : statements;
+    }
+
+    /**
+     * Adds what remains of an {@code IF} with a literal condition to the
+     * statements, returning whether anything changed.
+     */
+    private boolean collapse(Ast.Statement.If ast, List<Ast.Statement> statements) {
+        boolean condition = isConstant(ast.getCondition(), true);
+        List<Ast.Statement> taken = condition ? ast.getThenStatements() : ast.getElseStatements();
+        List<Ast.Statement> skipped = condition ? ast.getElseStatements() : ast.getThenStatements();
+        if (taken.stream().noneMatch(statement -> statement instanceof Ast.Statement.Declaration)) {
+            removed += 1 + size(ast.getCondition()) + sizes(skipped);
+            statements.addAll(taken);
+            return true;
+        }
+        statements.add(ast);
+        if (skipped.isEmpty()) {
+            return false;
+        }
+        removed += sizes(skipped);
+        statements.set(statements.size() - 1, condition
+                ? new Ast.Statement.If(ast.getCondition(), taken, new ArrayList<>())
+                : new Ast.Statement.If(ast.getCondition(), new ArrayList<>(), taken));
+        return true;
+    }
+
+    private static boolean isConstant(Ast.Expression ast, boolean value) {
+        return ast instanceof Ast.Expression.Literal && Boolean.valueOf(value).equals(((Ast.Expression.Literal) ast).getLiteral());
+    }
+
+    private static int sizes(List<? extends Ast> nodes) {
+        int size = 0;
+        for (Ast node : nodes) {
+            size += size(node);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of statements and expressions in the subtree.
+     */
+    private static int size(Ast ast) {
+        if (ast instanceof Ast.Statement.Expression) {
+            return 1 + size(((Ast.Statement.Expression) ast).getExpression());
+        }
+        else if (ast instanceof Ast.Statement.Declaration) {
+            return 1 + ((Ast.Statement.Declaration) ast).getValue().map(DeadCodeEliminator::size).orElse(0);
+        }
+        else if (ast instanceof Ast.Statement.Assignment) {
+            return 1 + size(((Ast.Statement.Assignment) ast).getReceiver()) + size(((Ast.Statement.Assignment) ast).getValue());
+        }
+        else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            return 1 + size(statement.getCondition()) + sizes(statement.getThenStatements()) + sizes(statement.getElseStatements());
+        }
+        else if (ast instanceof Ast.Statement.Switch) {
+            return 1 + size(((Ast.Statement.Switch) ast).getCondition()) + sizes(((Ast.Statement.Switch) ast).getCases());
+        }
+        else if (ast instanceof Ast.Statement.Case) {
+            return 1 + ((Ast.Statement.Case) ast).getValue().map(DeadCodeEliminator::size).orElse(0) + sizes(((Ast.Statement.Case) ast).getStatements());
+        }
+        else if (ast instanceof Ast.Statement.While) {
+            return 1 + size(((Ast.Statement.While) ast).getCondition()) + sizes(((Ast.Statement.While) ast).getStatements());
+        }
+        else if (ast instanceof Ast.Statement.Return) {
+            return 1 + size(((Ast.Statement.Return) ast).getValue());
+        }
+        else if (ast instanceof Ast.Expression.Group) {
+            return 1 + size(((Ast.Expression.Group) ast).getExpression());
+        }
+        else if (ast instanceof Ast.Expression.Binary) {
+            return 1 + size(((Ast.Expression.Binary) ast).getLeft()) + size(((Ast.Expression.Binary) ast).getRight());
+        }
+        else if (ast instanceof Ast.Expression.Access) {
+            return 1 + ((Ast.Expression.Access) ast).getOffset().map(DeadCodeEliminator::size).orElse(0);
+        }
+        else if (ast instanceof Ast.Expression.Function) {
+            return 1 + sizes(((Ast.Expression.Function) ast).getArguments());
+        }
+        else if (ast instanceof Ast.Expression.PlcList) {
+            return 1 + sizes(((Ast.Expression.PlcList) ast).getValues());
+        }
+        return 1;
+    }
+
+}
@@ -0,0 +1,602 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A flat representation of an {@link Ast.Source}, for walking very large
+ * programs without chasing pointers through lists, optionals, and boxed
+ * literals. Built with {@link #of(Ast.Source)}, and walked by {@link
+ * Interpreter#visit(FlatAst)} and {@link Generator#visit(FlatAst)}.
+ *
+ * Nodes are stored in prefix order in a single {@code int} array, four ints
+ * per node: its kind, the node following its subtree (its next sibling, if
+ * any), an index into the constant pool, and an index into the binding pool.
+ * A node is referred to by its position, a plain {@code int} cursor; the
+ * first child of a node is the next position, and each following child
+ * starts where the previous one ends. The root is {@link #root()}.
+ *
+ * Children are in constructor order, with an {@link #EMPTY} node standing in
+ * for each absent optional expression and a {@link #BLOCK} node grouping each
+ * list of statements:
+ *
+ *  - {@link #SOURCE}: the globals, then the functions ({@link #globals(int)}
+ *    gives their count),
+ *  - {@link #GLOBAL}: the value; {@link #FUNCTION}: the block of statements,
+ *  - {@link #DECLARATION}: the value; {@link #ASSIGNMENT}: the receiver and
+ *    value; {@link #IF}: the condition and both blocks; {@link #SWITCH}: the
+ *    condition and cases; {@link #CASE}: the value and block; {@link #WHILE}:
+ *    the condition and block; {@link #RETURN}: the value,
+ *  - {@link #GROUP}: the expression; {@link #BINARY}: both operands; {@link
+ *    #ACCESS}: the offset; {@link #CALL}: the arguments; {@link #LIST}: the
+ *    values.
+ *
+ * The constant pool holds the names, operators, literals, and type names of
+ * each node, consecutively for nodes with several of them, with names and
+ * literals shared between nodes. The binding pool holds the annotations set
+ * by the {@link Analyzer}, if any; ASTs that have not been analyzed, as in
+ * the interpreter's tests, can be flattened too.
+ */
+public final class FlatAst {
+
+    public static final int SOURCE = 0;
+    public static final int GLOBAL = 1;
+    public static final int FUNCTION = 2;
+    public static final int BLOCK = 3;
+    public static final int EMPTY = 4;
+    public static final int EXPRESSION_STATEMENT = 5;
+    public static final int DECLARATION = 6;
+    public static final int ASSIGNMENT = 7;
+    public static final int IF = 8;
+    public static final int SWITCH = 9;
+    public static final int CASE = 10;
+    public static final int WHILE = 11;
+    public static final int RETURN = 12;
+    public static final int LITERAL = 13;
+    public static final int GROUP = 14;
+    public static final int BINARY = 15;
+    public static final int ACCESS = 16;
+    public static final int CALL = 17;
+    public static final int LIST = 18;
+
+    private static final int KIND = 0;
+    private static final int END = 1;
+    private static final int CONSTANT = 2;
+    private static final int BINDING = 3;
+    private static final int STRIDE = 4;
+
+    private final int[] nodes;
+    private final Object[] constants;
+    private final Object[] bindings;
+
+    private FlatAst(int[] nodes, Object[] constants, Object[] bindings) {
+        this.nodes = nodes;
+        this.constants = constants;
+        this.bindings = bindings;
+    }
+
+    /**
+     * Flattens the given AST, which is not modified.
+     */
+    public static FlatAst of(Ast.Source ast) {
+        Builder builder = new Builder();
+        builder.source(ast);
+        return new FlatAst(Arrays.copyOf(builder.nodes, builder.size * STRIDE),
+                builder.constants.toArray(), builder.bindings.toArray());
+    }
+
+    /**
+     * Returns the number of nodes, including {@link #EMPTY} and {@link
+     * #BLOCK} nodes.
+     */
+    public int size() {
+        return nodes.length / STRIDE;
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public int kind(int node) {
+        return nodes[node * STRIDE + KIND];
+    }
+
+    /**
+     * Returns the node following the subtree of the given node.
+     */
+    public int end(int node) {
+        return nodes[node * STRIDE + END];
+    }
+
+    /**
+     * Returns the first child of the node, or {@link #end(int)} if it has
+     * none.
+     */
+    public int first(int node) {
+        return node + 1;
+    }
+
+    /**
+     * Returns the child of the node after the given one, or {@link #end(int)}
+     * of the parent if it is the last.
+     */
+    public int next(int child) {
+        return end(child);
+    }
+
+    public int child(int node, int index) {
+        int child = first(node);
+        for (int i = 0; i < index; i++) {
+            child = next(child);
+        }
+        return child;
+    }
+
+    public int children(int node) {
+        int count = 0;
+        for (int child = first(node); child < end(node); child = next(child)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of globals of a {@link #SOURCE} node.
+     */
+    public int globals(int node) {
+        return (Integer) constant(node, 0);
+    }
+
+    /**
+     * Returns the name of a {@link #GLOBAL}, {@link #FUNCTION}, {@link
+     * #DECLARATION}, {@link #ACCESS}, or {@link #CALL} node.
+     */
+    public String name(int node) {
+        return (String) constant(node, 0);
+    }
+
+    /**
+     * Returns the operator of a {@link #BINARY} node.
+     */
+    public String operator(int node) {
+        return (String) constant(node, 0);
+    }
+
+    /**
+     * Returns the value of a {@link #LITERAL} node.
+     */
+    public Object literal(int node) {
+        return constant(node, 0);
+    }
+
+    /**
+     * Returns the type name of a {@link #GLOBAL} or {@link #DECLARATION}
+     * node, or the return type name of a {@link #FUNCTION} node, or null.
+     */
+    public String typeName(int node) {
+        return (String) constant(node, kind(node) == FUNCTION ? 3 : 1);
+    }
+
+    /**
+     * Returns whether a {@link #GLOBAL} node is mutable.
+     */
+    public boolean mutable(int node) {
+        return (Boolean) constant(node, 2);
+    }
+
+    /**
+     * Returns the parameter names of a {@link #FUNCTION} node.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> parameters(int node) {
+        return (List<String>) constant(node, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> parameterTypeNames(int node) {
+        return (List<String>) constant(node, 2);
+    }
+
+    /**
+     * Returns the type of an expression node, or null if it was not analyzed.
+     */
+    public Environment.Type type(int node) {
+        switch (kind(node)) {
+            case ACCESS: {
+                Environment.Variable variable = variable(node);
+                return variable == null ? null : variable.getType();
+            }
+            case CALL: {
+                Environment.Function function = function(node);
+                return function == null ? null : function.getReturnType();
+            }
+            default:
+                return (Environment.Type) binding(node);
+        }
+    }
+
+    /**
+     * Returns the variable of a {@link #GLOBAL}, {@link #DECLARATION}, or
+     * {@link #ACCESS} node, or null if it was not analyzed.
+     */
+    public Environment.Variable variable(int node) {
+        return (Environment.Variable) binding(node);
+    }
+
+    /**
+     * Returns the function of a {@link #FUNCTION} or {@link #CALL} node, or
+     * null if it was not analyzed.
+     */
+    public Environment.Function function(int node) {
+        return (Environment.Function) binding(node);
+    }
+
+    /**
+     * Rebuilds the {@link Ast.Source}, with any annotations.
+     */
+    public Ast.Source toAst() {
+        int functions = first(root());
+        List<Ast.Global> globals = new ArrayList<>();
+        for (int i = 0; i < globals(root()); i++) {
+            globals.add((Ast.Global) toAst(functions));
+            functions = next(functions);
+        }
+        List<Ast.Function> list = new ArrayList<>();
+        for (int function = functions; function < end(root()); function = next(function)) {
+            list.add((Ast.Function) toAst(function));
+        }
+        return new Ast.Source(globals, list);
+    }
+
+    private Ast toAst(int node) {
+        switch (kind(node)) {
+            case GLOBAL: {
+                Ast.Global ast = new Ast.Global(name(node), typeName(node), mutable(node), optional(first(node)));
+                if (variable(node) != null) {
+                    ast.setVariable(variable(node));
+                }
+                return ast;
+            }
+            case FUNCTION: {
+                Ast.Function ast = new Ast.Function(name(node), parameters(node), parameterTypeNames(node),
+                        Optional.ofNullable(typeName(node)), statements(first(node)));
+                if (function(node) != null) {
+                    ast.setFunction(function(node));
+                }
+                return ast;
+            }
+            case EXPRESSION_STATEMENT:
+                return new Ast.Statement.Expression(expression(first(node)));
+            case DECLARATION: {
+                Ast.Statement.Declaration ast = new Ast.Statement.Declaration(name(node),
+                        Optional.ofNullable(typeName(node)), optional(first(node)));
+                if (variable(node) != null) {
+                    ast.setVariable(variable(node));
+                }
+                return ast;
+            }
+            case ASSIGNMENT:
+                return new Ast.Statement.Assignment(expression(first(node)), expression(child(node, 1)));
+            case IF:
+                return new Ast.Statement.If(expression(first(node)), statements(child(node, 1)), statements(child(node, 2)));
+            case SWITCH: {
+                List<Ast.Statement.Case> cases = new ArrayList<>();
+                for (int child = next(first(node)); child < end(node); child = next(child)) {
+                    cases.add(new Ast.Statement.Case(optional(first(child)), statements(child(child, 1))));
+                }
+                return new Ast.Statement.Switch(expression(first(node)), cases);
+            }
+            case WHILE:
+                return new Ast.Statement.While(expression(first(node)), statements(child(node, 1)));
+            case RETURN:
+                return new Ast.Statement.Return(expression(first(node)));
+            case LITERAL:
+                return typed(new Ast.Expression.Literal(literal(node)), node);
+            case GROUP:
+                return typed(new Ast.Expression.Group(expression(first(node))), node);
+            case BINARY:
+                return typed(new Ast.Expression.Binary(operator(node), expression(first(node)), expression(child(node, 1))), node);
+            case ACCESS: {
+                Ast.Expression.Access ast = new Ast.Expression.Access(optional(first(node)), name(node));
+                if (variable(node) != null) {
+                    ast.setVariable(variable(node));
+                }
+                return ast;
+            }
+            case CALL: {
+                Ast.Expression.Function ast = new Ast.Expression.Function(name(node), expressions(node));
+                if (function(node) != null) {
+                    ast.setFunction(function(node));
+                }
+                return ast;
+            }
+            case LIST:
+                return typed(new Ast.Expression.PlcList(expressions(node)), node);
+            default:
+                throw new AssertionError("Unexpected node kind " + kind(node) + ".");
+        }
+    }
+
+    private Ast.Expression typed(Ast.Expression ast, int node) {
+        Environment.Type type = (Environment.Type) binding(node);
+        if (type != null) {
+            if (ast instanceof Ast.Expression.Literal) {
+                ((Ast.Expression.Literal) ast).setType(type);
+            }
+            else if (ast instanceof Ast.Expression.Group) {
+                ((Ast.Expression.Group) ast).setType(type);
+            }
+            else if (ast instanceof Ast.Expression.Binary) {
+                ((Ast.Expression.Binary) ast).setType(type);
+            }
+            else {
+                ((Ast.Expression.PlcList) ast).setType(type);
+            }
+        }
+        return ast;
+    }
+
+    private Ast.Expression expression(int node) {
+        return (Ast.Expression) toAst(node);
+    }
+
+    private Optional<Ast.Expression> optional(int node) {
+        return kind(node) == EMPTY ? Optional.empty() : Optional.of(expression(node));
+    }
+
+    private List<Ast.Expression> expressions(int node) {
+        List<Ast.Expression> expressions = new ArrayList<>();
+        for (int child = first(node); child < end(node); child = next(child)) {
+            expressions.add(expression(child));
+        }
+        return expressions;
+    }
+
+    private List<Ast.Statement> statements(int block) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int child = first(block); child < end(block); child = next(child)) {
+            statements.add((Ast.Statement) toAst(child));
+        }
+        return statements;
+    }
+
+    private Object constant(int node, int offset) {
+        return constants[nodes[node * STRIDE + CONSTANT] + offset];
+    }
+
+    private Object binding(int node) {
+        int index = nodes[node * STRIDE + BINDING];
+        return index < 0 ? null : bindings[index];
+    }
+
+    /**
+     * Appends nodes in prefix order, filling in the end of each node once its
+     * children have been appended.
+     */
+    private static final class Builder implements Ast.Visitor<Void> {
+
+        private int[] nodes = new int[STRIDE * 64];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> shared = new HashMap<>();
+        private final List<Object> bindings = new ArrayList<>();
+        private final Map<Object, Integer> bindingIndexes = new IdentityHashMap<>();
+
+        private void source(Ast.Source ast) {
+            int node = open(SOURCE, constants(ast.getGlobals().size()), null);
+            ast.getGlobals().forEach(this::visit);
+            ast.getFunctions().forEach(this::visit);
+            close(node);
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            throw new AssertionError("Nested source.");
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            int node = open(GLOBAL, constants(ast.getName(), ast.getTypeName(), ast.getMutable()), annotation(ast::getVariable));
+            optional(ast.getValue());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            int node = open(FUNCTION, constants(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(),
+                    ast.getReturnTypeName().orElse(null)), annotation(ast::getFunction));
+            block(ast.getStatements());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            int node = open(EXPRESSION_STATEMENT, -1, null);
+            visit(ast.getExpression());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            int node = open(DECLARATION, constants(ast.getName(), ast.getTypeName().orElse(null)), annotation(ast::getVariable));
+            optional(ast.getValue());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            int node = open(ASSIGNMENT, -1, null);
+            visit(ast.getReceiver());
+            visit(ast.getValue());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            int node = open(IF, -1, null);
+            visit(ast.getCondition());
+            block(ast.getThenStatements());
+            block(ast.getElseStatements());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            int node = open(SWITCH, -1, null);
+            visit(ast.getCondition());
+            ast.getCases().forEach(this::visit);
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            int node = open(CASE, -1, null);
+            optional(ast.getValue());
+            block(ast.getStatements());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            int node = open(WHILE, -1, null);
+            visit(ast.getCondition());
+            block(ast.getStatements());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            int node = open(RETURN, -1, null);
+            visit(ast.getValue());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            close(open(LITERAL, shared(ast.getLiteral()), annotation(ast::getType)));
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            int node = open(GROUP, -1, annotation(ast::getType));
+            visit(ast.getExpression());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            int node = open(BINARY, shared(ast.getOperator()), annotation(ast::getType));
+            visit(ast.getLeft());
+            visit(ast.getRight());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            int node = open(ACCESS, shared(ast.getName()), annotation(ast::getVariable));
+            optional(ast.getOffset());
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            int node = open(CALL, shared(ast.getName()), annotation(ast::getFunction));
+            ast.getArguments().forEach(this::visit);
+            close(node);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            int node = open(LIST, -1, annotation(ast::getType));
+            ast.getValues().forEach(this::visit);
+            close(node);
+            return null;
+        }
+
+        private void block(List<Ast.Statement> statements) {
+            int node = open(BLOCK, -1, null);
+            statements.forEach(this::visit);
+            close(node);
+        }
+
+        private void optional(Optional<Ast.Expression> expression) {
+            if (expression.isPresent()) {
+                visit(expression.get());
+            }
+            else {
+                close(open(EMPTY, -1, null));
+            }
+        }
+
+        private int open(int kind, int constant, Object binding) {
+            if ((size + 1) * STRIDE > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            int node = size++;
+            nodes[node * STRIDE + KIND] = kind;
+            nodes[node * STRIDE + CONSTANT] = constant;
+            nodes[node * STRIDE + BINDING] = binding == null ? -1 : bindingIndexes.computeIfAbsent(binding, b -> {
+                bindings.add(b);
+                return bindings.size() - 1;
+            });
+            return node;
+        }
+
+        private void close(int node) {
+            nodes[node * STRIDE + END] = size;
+        }
+
+        /**
+         * Adds the values to the pool consecutively, returning the first index.
+         */
+        private int constants(Object... values) {
+            int index = constants.size();
+            constants.addAll(Arrays.asList(values));
+            return index;
+        }
+
+        /**
+         * Returns the index of a value equal to the given one, adding it if
+         * needed. Literal classes are never equal to each other, and {@link
+         * java.math.BigDecimal} equality includes the scale, so sharing never
+         * changes a literal.
+         */
+        private int shared(Object value) {
+            return shared.computeIfAbsent(value == null ? Builder.class : value, k -> constants(value));
+        }
+
+        /**
+         * Returns the annotation from the getter, or null if it was not set.
+         */
+        private static Object annotation(Supplier<?> getter) {
+            try {
+                return getter.get();
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+
+    }
+
+}
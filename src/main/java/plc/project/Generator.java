@@ -343,4 +343,276 @@ public final class Generator implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Generates the same code as {@link #visit(Ast.Source)} from a flattened
+     * source, which must have been analyzed before flattening.
+     */
+    public Void visit(FlatAst ast) {
+        int root = ast.root();
+        int globals = ast.globals(root);
+        print("public class Main {");
+        newline(0);
+        newline(++indent);
+
+        int node = ast.first(root);
+        for (int i = 0; i < globals; i++, node = ast.next(node)) {
+            generate(ast, node);
+            if (i < globals - 1) {
+                newline(indent);
+            }
+            else {
+                newline(0);
+                newline(indent);
+            }
+        }
+
+        print("public static void main(String[] args) {");
+        indent += 1;
+        newline(indent);
+        print("System.exit(new Main().main());");
+        indent -= 1;
+        newline(indent);
+        print("}");
+
+        newline(0);
+        for (; node < ast.end(root); node = ast.next(node)) {
+            newline(indent);
+            generate(ast, node);
+            newline(0);
+        }
+
+        indent -= 1;
+        newline(indent);
+        print("}");
+
+        return null;
+    }
+
+    private void generate(FlatAst ast, int node) {
+        switch (ast.kind(node)) {
+            case FlatAst.GLOBAL: {
+                String typeName = ast.variable(node).getType().getJvmName();
+                String varName = ast.variable(node).getJvmName();
+                int value = ast.first(node);
+                if (ast.kind(value) == FlatAst.LIST) {
+                    print(typeName, "[] ", varName, " = ");
+                    generate(ast, value);
+                }
+                else {
+                    if (!ast.mutable(node)) {
+                        print("final ");
+                    }
+                    print(typeName, " ", varName);
+                    if (ast.kind(value) != FlatAst.EMPTY) {
+                        print(" = ");
+                        generate(ast, value);
+                    }
+                }
+                print(";");
+                break;
+            }
+            case FlatAst.FUNCTION: {
+                Environment.Function function = ast.function(node);
+                print(function.getReturnType().getJvmName(), " ", function.getJvmName(), "(");
+                List<String> parameters = ast.parameters(node);
+                for (int i = 0; i < parameters.size(); i++) {
+                    print(function.getParameterTypes().get(i).getJvmName(), " ", parameters.get(i));
+                    if (i < parameters.size() - 1) {
+                        print(", ");
+                    }
+                }
+                print(") {");
+                block(ast, ast.first(node));
+                print("}");
+                break;
+            }
+            case FlatAst.EXPRESSION_STATEMENT:
+                generate(ast, ast.first(node));
+                print(";");
+                break;
+            case FlatAst.DECLARATION: {
+                print(ast.variable(node).getType().getJvmName(), " ", ast.variable(node).getJvmName());
+                int value = ast.first(node);
+                if (ast.kind(value) != FlatAst.EMPTY) {
+                    print(" = ");
+                    generate(ast, value);
+                }
+                print(";");
+                break;
+            }
+            case FlatAst.ASSIGNMENT:
+                generate(ast, ast.first(node));
+                print(" = ");
+                generate(ast, ast.next(ast.first(node)));
+                print(";");
+                break;
+            case FlatAst.IF: {
+                int condition = ast.first(node);
+                int then = ast.next(condition);
+                int otherwise = ast.next(then);
+                print("if (");
+                generate(ast, condition);
+                print(") {");
+                statements(ast, then);
+                if (ast.first(otherwise) < ast.end(otherwise)) {
+                    print(" else {");
+                    statements(ast, otherwise);
+                }
+                break;
+            }
+            case FlatAst.SWITCH: {
+                int condition = ast.first(node);
+                print("switch (");
+                generate(ast, condition);
+                print(") {");
+                newline(++indent);
+                for (int child = ast.next(condition); child < ast.end(node); child = ast.next(child)) {
+                    generate(ast, child);
+                    if (ast.next(child) < ast.end(node)) {
+                        newline(--indent);
+                    }
+                }
+                indent -= 2;
+                newline(indent);
+                print("}");
+                break;
+            }
+            case FlatAst.CASE: {
+                int value = ast.first(node);
+                if (ast.kind(value) != FlatAst.EMPTY) {
+                    print("case ");
+                    generate(ast, value);
+                    print(":");
+                }
+                else {
+                    print("default:");
+                }
+                newline(++indent);
+                int block = ast.next(value);
+                for (int child = ast.first(block); child < ast.end(block); child = ast.next(child)) {
+                    generate(ast, child);
+                    if (ast.next(child) < ast.end(block)) {
+                        newline(indent);
+                    }
+                }
+                break;
+            }
+            case FlatAst.WHILE:
+                print("while (");
+                generate(ast, ast.first(node));
+                print(") {");
+                block(ast, ast.next(ast.first(node)));
+                print("}");
+                break;
+            case FlatAst.RETURN:
+                print("return ");
+                generate(ast, ast.first(node));
+                print(";");
+                break;
+            case FlatAst.LITERAL: {
+                Object literal = ast.literal(node);
+                if (literal instanceof String) {
+                    print("\"", literal, "\"");
+                }
+                else if (literal instanceof Character) {
+                    print("\'", literal, "\'");
+                }
+                else if (literal == null) {
+                    print("null");
+                }
+                else {
+                    print(literal);
+                }
+                break;
+            }
+            case FlatAst.GROUP:
+                print("(");
+                generate(ast, ast.first(node));
+                print(")");
+                break;
+            case FlatAst.BINARY: {
+                int left = ast.first(node);
+                if (ast.operator(node).equals("^")) {
+                    print("Math.pow(");
+                    generate(ast, left);
+                    print(", ");
+                    generate(ast, ast.next(left));
+                    print(")");
+                }
+                else {
+                    generate(ast, left);
+                    print(" ", ast.operator(node), " ");
+                    generate(ast, ast.next(left));
+                }
+                break;
+            }
+            case FlatAst.ACCESS: {
+                print(ast.variable(node).getJvmName());
+                int offset = ast.first(node);
+                if (ast.kind(offset) != FlatAst.EMPTY) {
+                    print("[");
+                    generate(ast, offset);
+                    print("]");
+                }
+                break;
+            }
+            case FlatAst.CALL:
+                print(ast.function(node).getJvmName(), "(");
+                values(ast, node);
+                print(")");
+                break;
+            case FlatAst.LIST:
+                print("{");
+                values(ast, node);
+                print("}");
+                break;
+            default:
+                throw new AssertionError("Unexpected node kind " + ast.kind(node) + ".");
+        }
+    }
+
+    /**
+     * Prints a block of statements as a function or while body, indented on
+     * their own lines if there are any.
+     */
+    private void block(FlatAst ast, int block) {
+        if (ast.first(block) < ast.end(block)) {
+            newline(++indent);
+            for (int child = ast.first(block); child < ast.end(block); child = ast.next(child)) {
+                if (child != ast.first(block)) {
+                    newline(indent);
+                }
+                generate(ast, child);
+            }
+            newline(--indent);
+        }
+    }
+
+    /**
+     * Prints a block of statements as an if or else body, followed by the
+     * closing brace.
+     */
+    private void statements(FlatAst ast, int block) {
+        indent += 1;
+        for (int child = ast.first(block); child < ast.end(block); child = ast.next(child)) {
+            newline(indent);
+            generate(ast, child);
+        }
+        indent -= 1;
+        newline(indent);
+        print("}");
+    }
+
+    /**
+     * Prints the children of the node separated by commas.
+     */
+    private void values(FlatAst ast, int node) {
+        for (int child = ast.first(node); child < ast.end(node); child = ast.next(child)) {
+            generate(ast, child);
+            if (ast.next(child) < ast.end(node)) {
+                print(", ");
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+package plc.project;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the {@link Generator}'s Java source with the {@code javax.tools}
+ * compiler of the running JDK and runs it, all in memory: the source is
+ * given to the compiler as a string, and the class files it writes are kept
+ * in byte arrays and defined by a class loader of their own, so nothing is
+ * written to or read back from disk (other than the JDK's own classes, which
+ * the compiler reads as usual).
+ *
+ * Compiled classes are cached by the SHA-256 hash of the source, keeping at
+ * most the given number of them and dropping the least recently used ones
+ * first. The compiler's file manager, which indexes the JDK, is created once
+ * and shared by every compilation. Sources that fail to compile are not
+ * cached, and throw a {@link RuntimeException} with the compiler's errors.
+ */
+public final class InMemoryCompiler {
+
+    private static final URI SOURCE = URI.create("string:///" + ClassGenerator.CLASS + JavaFileObject.Kind.SOURCE.extension);
+    private static final List<String> OPTIONS = Arrays.asList("-proc:none", "-g:none");
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager standardFileManager;
+    private final int maximumEntries;
+
+    /**
+     * The compiled class by key, in least to most recently used order.
+     */
+    private final LinkedHashMap<String, Class<?>> classes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a compiler caching at most {@code maximumEntries} classes,
+     * which requires the running Java to be a JDK.
+     */
+    public InMemoryCompiler(int maximumEntries) {
+        if (maximumEntries < 0) {
+            throw new IllegalArgumentException("Invalid maximum entries " + maximumEntries + ".");
+        }
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler is available; a JDK is required.");
+        }
+        standardFileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        this.maximumEntries = maximumEntries;
+    }
+
+    /**
+     * Returns the {@code Main} class compiled from the Java source, compiling
+     * it unless the same source was compiled before.
+     */
+    public synchronized Class<?> compile(String java) {
+        String key = key(java);
+        Class<?> cached = classes.get(key);
+        if (cached != null) {
+            hits++;
+            return cached;
+        }
+        misses++;
+        Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject source = new SimpleJavaFileObject(SOURCE, JavaFileObject.Kind.SOURCE) {
+
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return java;
+            }
+
+        };
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager) {
+
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                URI uri = URI.create("bytes:///" + className.replace('.', '/') + kind.extension);
+                return new SimpleJavaFileObject(uri, kind) {
+
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classFiles.put(className, bytes);
+                        return bytes;
+                    }
+
+                };
+            }
+
+        };
+        if (!compiler.getTask(null, fileManager, diagnostics, OPTIONS, null, Collections.singletonList(source)).call()) {
+            StringBuilder message = new StringBuilder("Compilation failed:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    message.append(System.lineSeparator()).append("line ").append(diagnostic.getLineNumber())
+                            .append(": ").append(diagnostic.getMessage(null));
+                }
+            }
+            throw new RuntimeException(message.toString());
+        }
+        Class<?> type;
+        try {
+            type = new Loader(classFiles).loadClass(ClassGenerator.CLASS);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("The source does not declare " + ClassGenerator.CLASS + ".", e);
+        }
+        classes.put(key, type);
+        while (classes.size() > maximumEntries) {
+            classes.remove(classes.keySet().iterator().next());
+            evictions++;
+        }
+        return type;
+    }
+
+    /**
+     * Compiles and runs the Java source, returning the result of {@code
+     * main()} rather than exiting with it.
+     */
+    public int run(String java) {
+        return ClassGenerator.run(compile(java));
+    }
+
+    /**
+     * Generates, compiles, and runs the analyzed source.
+     */
+    public int run(Ast.Source ast) {
+        StringWriter java = new StringWriter();
+        new Generator(new PrintWriter(java)).visit(ast);
+        return run(java.toString());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of classes in the cache.
+     */
+    public synchronized int getEntries() {
+        return classes.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InMemoryCompiler{" +
+                "entries=" + classes.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the Java source.
+     */
+    static String key(String java) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        byte[] hash = digest.digest(java.getBytes(StandardCharsets.UTF_8));
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Defines the classes of one compilation, including any nested classes
+     * of {@code Main}, ahead of classes of the same name its parent has.
+     */
+    private static final class Loader extends ClassLoader {
+
+        private final Map<String, ByteArrayOutputStream> classFiles;
+
+        private Loader(Map<String, ByteArrayOutputStream> classFiles) {
+            super(InMemoryCompiler.class.getClassLoader());
+            this.classFiles = classFiles;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                ByteArrayOutputStream classFile = classFiles.get(name);
+                if (classFile == null) {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    byte[] bytes = classFile.toByteArray();
+                    type = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+
+    }
+
+}
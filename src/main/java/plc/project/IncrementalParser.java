@@ -0,0 +1,236 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a source, its tokens, and its AST up to date across edits, reparsing
+ * only the top-level {@link Ast.Global}s and {@link Ast.Function}s an edit can
+ * have changed.
+ *
+ * Each top-level item is parsed independently of the others: it consumes
+ * exactly its own tokens, from its keyword to its closing {@code ;} or {@code
+ * END}. The parser records the token range and source span of every item, so
+ * after an edit:
+ *
+ *  - items ending before the damaged lines (see {@link Lexer#relex}) keep
+ *    their AST nodes as they are,
+ *  - parsing resumes at the first item touching the damaged lines, one item at
+ *    a time,
+ *  - and as soon as it reaches the first token of an item that starts after the
+ *    damaged lines, that item and everything after it are reused.
+ *
+ * The result is always equal to parsing the edited source from scratch with
+ * {@link Parser#parseSource()}, including the {@link ParseException} thrown
+ * when it does not parse. After a failed edit the next edit parses the whole
+ * source again.
+ */
+public final class IncrementalParser {
+
+    private String source;
+    private List<Token> tokens;
+    /** The table every version of the source is interned through, see {@link Lexer#relex}. */
+    private final SymbolTable symbols = new SymbolTable();
+    private boolean valid = false;
+
+    /**
+     * The top-level items in source order, with the index of their first
+     * token, the index one past their last token, and their span in the
+     * source.
+     */
+    private List<Ast> items = new ArrayList<>();
+    private int[] firstTokens = new int[0];
+    private int[] lastTokens = new int[0];
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+
+    private int reparsed = 0;
+
+    public IncrementalParser(String source) throws ParseException {
+        this.source = source;
+        parseAll();
+    }
+
+    public String getText() {
+        return source;
+    }
+
+    public List<Token> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the AST of the current source.
+     */
+    public Ast.Source getSource() {
+        ArrayList<Ast.Global> globals = new ArrayList<>();
+        ArrayList<Ast.Function> functions = new ArrayList<>();
+        for (Ast item : items) {
+            if (item instanceof Ast.Global) {
+                globals.add((Ast.Global) item);
+            }
+            else {
+                functions.add((Ast.Function) item);
+            }
+        }
+        return new Ast.Source(globals, functions);
+    }
+
+    /**
+     * Returns the number of top-level items parsed by the last edit (or by
+     * the constructor).
+     */
+    public int getReparsed() {
+        return reparsed;
+    }
+
+    /**
+     * Replaces {@code removedLength} characters at {@code offset} with {@code
+     * insertedText}, and returns the AST of the edited source.
+     */
+    public Ast.Source edit(int offset, int removedLength, String insertedText) throws ParseException {
+        String edited = source.substring(0, offset) + insertedText + source.substring(offset + removedLength);
+        if (!valid) {
+            source = edited;
+            parseAll();
+            return getSource();
+        }
+
+        List<Token> previous = tokens;
+        source = edited;
+        valid = false;
+        tokens = Lexer.relex(edited, previous, symbols, offset, removedLength, insertedText);
+
+        int delta = insertedText.length() - removedLength;
+        int tokenDelta = tokens.size() - previous.size();
+        int start = Lexer.previousLineBreak(edited, offset);
+        int end = Lexer.nextLineBreak(edited, offset + insertedText.length(), edited.length()) - delta;
+
+        //items wholly before the damaged lines are kept, and so are their token indexes
+        int first = 0;
+        while (first < items.size() && ends[first] <= start) {
+            first++;
+        }
+        //items wholly after the damaged lines can be reused once parsing lines up with them again
+        int reusable = first;
+        while (reusable < items.size() && starts[reusable] < end) {
+            reusable++;
+        }
+
+        Builder builder = new Builder(first);
+        int position = first == 0 ? 0 : lastTokens[first - 1];
+        boolean functions = first > 0 && items.get(first - 1) instanceof Ast.Function;
+        reparsed = 0;
+        while (position < tokens.size()) {
+            while (reusable < items.size() && firstTokens[reusable] + tokenDelta < position) {
+                reusable++;
+            }
+            if (reusable < items.size() && firstTokens[reusable] + tokenDelta == position) {
+                if (functions && items.get(reusable) instanceof Ast.Global) {
+                    throw new ParseException("Expected 'FUN'", tokens.get(position).getIndex());
+                }
+                for (int i = reusable; i < items.size(); i++) {
+                    builder.add(items.get(i), firstTokens[i] + tokenDelta, lastTokens[i] + tokenDelta, starts[i] + delta, ends[i] + delta);
+                }
+                break;
+            }
+            position = parseItem(builder, position, functions);
+            functions = builder.items.get(builder.items.size() - 1) instanceof Ast.Function;
+            reparsed++;
+        }
+        builder.finish();
+        valid = true;
+        return getSource();
+    }
+
+    private void parseAll() {
+        valid = false;
+        tokens = new Lexer(source, symbols).lex();
+        Builder builder = new Builder(0);
+        int position = 0;
+        reparsed = 0;
+        while (position < tokens.size()) {
+            position = parseItem(builder, position, !builder.items.isEmpty()
+                    && builder.items.get(builder.items.size() - 1) instanceof Ast.Function);
+            reparsed++;
+        }
+        builder.finish();
+        valid = true;
+    }
+
+    /**
+     * Parses the top-level item starting at the given token, following the
+     * {@code source} rule of {@link Parser#parseSource()}, and returns the
+     * index of the token after it.
+     */
+    private int parseItem(Builder builder, int position, boolean functions) {
+        Token token = tokens.get(position);
+        Parser parser = new Parser(tokens.subList(position, tokens.size()));
+        Ast item;
+        if (!functions && isGlobal(token.getLiteral())) {
+            item = parser.parseGlobal();
+        }
+        else if (token.getLiteral().equals("FUN")) {
+            item = parser.parseFunction();
+        }
+        else {
+            throw new ParseException("Expected 'FUN'", token.getIndex());
+        }
+        int next = position + parser.position();
+        Token last = tokens.get(next - 1);
+        builder.add(item, position, next, token.getIndex(), last.getIndex() + last.getLiteral().length());
+        return next;
+    }
+
+    private static boolean isGlobal(String literal) {
+        return literal.equals("LIST") || literal.equals("VAR") || literal.equals("VAL");
+    }
+
+    /**
+     * Accumulates the items of the edited source, starting from a prefix of the
+     * current items that is kept as is.
+     */
+    private final class Builder {
+
+        private final List<Ast> items;
+        private int[] firstTokens;
+        private int[] lastTokens;
+        private int[] starts;
+        private int[] ends;
+
+        private Builder(int keep) {
+            int capacity = Math.max(IncrementalParser.this.items.size(), 16);
+            this.items = new ArrayList<>(IncrementalParser.this.items.subList(0, keep));
+            this.firstTokens = Arrays.copyOf(IncrementalParser.this.firstTokens, capacity);
+            this.lastTokens = Arrays.copyOf(IncrementalParser.this.lastTokens, capacity);
+            this.starts = Arrays.copyOf(IncrementalParser.this.starts, capacity);
+            this.ends = Arrays.copyOf(IncrementalParser.this.ends, capacity);
+        }
+
+        private void add(Ast item, int firstToken, int lastToken, int start, int end) {
+            int i = items.size();
+            if (i == firstTokens.length) {
+                firstTokens = Arrays.copyOf(firstTokens, i * 2);
+                lastTokens = Arrays.copyOf(lastTokens, i * 2);
+                starts = Arrays.copyOf(starts, i * 2);
+                ends = Arrays.copyOf(ends, i * 2);
+            }
+            items.add(item);
+            firstTokens[i] = firstToken;
+            lastTokens[i] = lastToken;
+            starts[i] = start;
+            ends[i] = end;
+        }
+
+        private void finish() {
+            IncrementalParser.this.items = items;
+            IncrementalParser.this.firstTokens = firstTokens;
+            IncrementalParser.this.lastTokens = lastTokens;
+            IncrementalParser.this.starts = starts;
+            IncrementalParser.this.ends = ends;
+        }
+
+    }
+
+}
@@ -8,11 +8,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
-    private Scope scope = new Scope(null);
+    protected Scope scope = new Scope(null);
 
     public Interpreter(Scope parent) {
         scope = new Scope(parent);
@@ -261,8 +262,16 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Expression.Binary ast) {
-        String operator = ast.getOperator();
-        Environment.PlcObject left = visit(ast.getLeft());
+        return binary(ast.getOperator(), visit(ast.getLeft()), () -> visit(ast.getRight()));
+    }
+
+    /**
+     * Evaluates a binary expression given its left operand, shared by the
+     * {@link Ast} and {@link FlatAst} walks and the {@link
+     * ClosureInterpreter}. The right operand is only evaluated when needed,
+     * for short-circuiting.
+     */
+    protected Environment.PlcObject binary(String operator, Environment.PlcObject left, Supplier<Environment.PlcObject> rightOperand) {
         //Object leftType = left.getValue().getClass();
 
         if (operator.equals("&&") || operator.equals("||")) {
@@ -278,7 +287,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 return Environment.create(new Boolean(true));
             }
 
-            Environment.PlcObject right = visit(ast.getRight());
+            Environment.PlcObject right = rightOperand.get();
             rhs = requireType(Boolean.class, right);
             boolean result = operator.equals("&&") ? lhs && rhs : lhs || rhs;
 
@@ -287,7 +296,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             return Environment.create(new Boolean(result));
         }
 
-        Environment.PlcObject right = visit(ast.getRight());
+        Environment.PlcObject right = rightOperand.get();
         //Object rightType = right.getValue().getClass();
 
         if (operator.equals("<") || operator.equals(">")) {
@@ -509,10 +518,185 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         return Environment.create(visitedElements);
     }
 
+    /**
+     * Interprets a flattened source, with the same semantics as {@link
+     * #visit(Ast.Source)}: globals and functions are defined, then main is
+     * invoked.
+     */
+    public Environment.PlcObject visit(FlatAst ast) {
+        int root = ast.root();
+        for (int node = ast.first(root); node < ast.end(root); node = ast.next(node)) {
+            if (ast.kind(node) == FlatAst.GLOBAL) {
+                Environment.PlcObject value = Environment.NIL;
+                if (ast.kind(ast.first(node)) != FlatAst.EMPTY) {
+                    value = evaluate(ast, ast.first(node));
+                }
+                else if (!ast.mutable(node)) {
+                    throw new RuntimeException("Expected a value for immutable global " + ast.name(node) + ".");
+                }
+                scope.defineVariable(ast.name(node), ast.mutable(node), value);
+            }
+            else {
+                define(ast, node);
+            }
+        }
+        return scope.lookupFunction("main", 0).invoke(new ArrayList<Environment.PlcObject>());
+    }
+
+    private void define(FlatAst ast, int node) {
+        Scope globalScope = scope;
+        List<String> parameters = ast.parameters(node);
+        int block = ast.first(node);
+        scope.defineFunction(ast.name(node), parameters.size(), arguments -> {
+            Scope previous = scope;
+            try {
+                scope = new Scope(globalScope);
+                for (int i = 0; i < arguments.size(); i++) {
+                    scope.defineVariable(parameters.get(i), true, arguments.get(i));
+                }
+                execute(ast, block);
+            } catch (Return ret) {
+                return ret.value;
+            } finally {
+                scope = previous;
+            }
+            return Environment.NIL;
+        });
+    }
+
+    /**
+     * Executes the statements of a block in the current scope.
+     */
+    private void execute(FlatAst ast, int block) {
+        for (int node = ast.first(block); node < ast.end(block); node = ast.next(node)) {
+            switch (ast.kind(node)) {
+                case FlatAst.EXPRESSION_STATEMENT:
+                    evaluate(ast, ast.first(node));
+                    break;
+                case FlatAst.DECLARATION: {
+                    int value = ast.first(node);
+                    scope.defineVariable(ast.name(node), true, ast.kind(value) == FlatAst.EMPTY ? Environment.NIL : evaluate(ast, value));
+                    break;
+                }
+                case FlatAst.ASSIGNMENT:
+                    assign(ast, ast.first(node), ast.next(ast.first(node)));
+                    break;
+                case FlatAst.IF: {
+                    int condition = ast.first(node);
+                    int then = ast.next(condition);
+                    executeScoped(ast, requireType(Boolean.class, evaluate(ast, condition)) ? then : ast.next(then));
+                    break;
+                }
+                case FlatAst.SWITCH: {
+                    Environment.PlcObject condition = evaluate(ast, ast.first(node));
+                    for (int child = ast.next(ast.first(node)); child < ast.end(node); child = ast.next(child)) {
+                        int value = ast.first(child);
+                        //as in visit(Ast.Statement.Switch), a case value that does not match is evaluated again
+                        if (caseValue(ast, value).getValue().equals(condition.getValue()) || caseValue(ast, value).equals(Environment.NIL)) {
+                            executeScoped(ast, ast.next(value));
+                            break;
+                        }
+                    }
+                    break;
+                }
+                case FlatAst.WHILE: {
+                    int condition = ast.first(node);
+                    while (requireType(Boolean.class, evaluate(ast, condition))) {
+                        executeScoped(ast, ast.next(condition));
+                    }
+                    break;
+                }
+                case FlatAst.RETURN:
+                    throw new Return(evaluate(ast, ast.first(node)));
+                default:
+                    throw new AssertionError("Unexpected statement kind " + ast.kind(node) + ".");
+            }
+        }
+    }
+
+    private Environment.PlcObject caseValue(FlatAst ast, int value) {
+        return ast.kind(value) == FlatAst.EMPTY ? Environment.NIL : evaluate(ast, value);
+    }
+
+    private void executeScoped(FlatAst ast, int block) {
+        try {
+            scope = new Scope(scope);
+            execute(ast, block);
+        } finally {
+            scope = scope.getParent();
+        }
+    }
+
+    private void assign(FlatAst ast, int receiver, int value) {
+        if (ast.kind(receiver) != FlatAst.ACCESS) {
+            throw new RuntimeException("Expected type Access, received node kind " + ast.kind(receiver) + ".");
+        }
+        Environment.Variable receiverVar = scope.lookupVariable(ast.name(receiver));
+        if (!receiverVar.getMutable()) {
+            throw new RuntimeException("Expected mutable receiver.");
+        }
+        int offset = ast.first(receiver);
+        if (ast.kind(offset) != FlatAst.EMPTY) {
+            List<Object> list = (List<Object>) receiverVar.getValue().getValue();
+            BigInteger index = requireType(BigInteger.class, evaluate(ast, offset));
+            list.set(index.intValue(), evaluate(ast, value).getValue());
+        }
+        else {
+            if (receiverVar.getValue().getValue() instanceof List) {
+                throw new RuntimeException("List cannot be reassigned.");
+            }
+            receiverVar.setValue(evaluate(ast, value));
+        }
+    }
+
+    private Environment.PlcObject evaluate(FlatAst ast, int node) {
+        switch (ast.kind(node)) {
+            case FlatAst.LITERAL: {
+                Object literal = ast.literal(node);
+                return literal == null ? Environment.NIL : Environment.create(literal);
+            }
+            case FlatAst.GROUP:
+                return evaluate(ast, ast.first(node));
+            case FlatAst.BINARY: {
+                int left = ast.first(node);
+                return binary(ast.operator(node), evaluate(ast, left), () -> evaluate(ast, ast.next(left)));
+            }
+            case FlatAst.ACCESS: {
+                int offset = ast.first(node);
+                Environment.PlcObject value = scope.lookupVariable(ast.name(node)).getValue();
+                if (ast.kind(offset) == FlatAst.EMPTY) {
+                    return value;
+                }
+                List<Object> list = (List<Object>) value.getValue();
+                int index = requireType(BigInteger.class, evaluate(ast, offset)).intValue();
+                if (index >= list.size() || index < 0) {
+                    throw new RuntimeException("List index out of bounds.");
+                }
+                return Environment.create(list.get(index));
+            }
+            case FlatAst.CALL: {
+                List<Environment.PlcObject> arguments = new ArrayList<>();
+                for (int child = ast.first(node); child < ast.end(node); child = ast.next(child)) {
+                    arguments.add(evaluate(ast, child));
+                }
+                return scope.lookupFunction(ast.name(node), arguments.size()).invoke(arguments);
+            }
+            case FlatAst.LIST: {
+                List<Object> values = new ArrayList<>();
+                for (int child = ast.first(node); child < ast.end(node); child = ast.next(child)) {
+                    values.add(evaluate(ast, child).getValue());
+                }
+                return Environment.create(values);
+            }
+            default:
+                throw new AssertionError("Unexpected expression kind " + ast.kind(node) + ".");
+        }
+    }
+
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
-    private static <T> T requireType(Class<T> type, Environment.PlcObject object) {
+    protected static <T> T requireType(Class<T> type, Environment.PlcObject object) {
         if (type.isInstance(object.getValue())) {
             return type.cast(object.getValue());
         } else {
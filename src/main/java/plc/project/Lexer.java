@@ -1,12 +1,18 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /**
  * The lexer works through three main functions:
  *
  *  - {@link #lex()}, which repeatedly calls lexToken() and skips whitespace
+ *    ({@link #tokens()} does the same lazily, one token at a time)
  *  - {@link #lexToken()}, which lexes the next token
  *  - {@link CharStream}, which manages the state of the lexer and literals
  *
@@ -14,15 +20,97 @@ import java.util.List;
  * should throw a {@link ParseException} with an index at the character which is
  * invalid.
  *
- * The {@link #peek(String...)} and {@link #match(String...)} functions are * helpers you need to use, they will make the implementation a lot easier. */
+ * Characters are classified through a precomputed table ({@link #CLASSES})
+ * rather than regexes, so every check is an array lookup and a bit test. The
+ * regex based {@link #peek(String...)} and {@link #match(String...)} helpers
+ * are kept for callers that need ad-hoc patterns, but the lexer itself no
+ * longer uses them.
+ */
 public final class Lexer {
 
+    private static final int WHITESPACE = 1;                // [ \b\n\r\t]
+    private static final int LETTER = 1 << 1;               // [A-Za-z]
+    private static final int DIGIT = 1 << 2;                // [0-9]
+    private static final int NONZERO = 1 << 3;              // [1-9]
+    private static final int IDENTIFIER_PART = 1 << 4;      // [A-Za-z0-9_-]
+    private static final int CHARACTER_BODY = 1 << 5;       // [^'\n\r\\]
+    private static final int STRING_BODY = 1 << 6;          // [^"\n\r\\]
+
+    /**
+     * Character classes of any character outside of {@link #CLASSES}.
+     */
+    private static final int NON_ASCII = CHARACTER_BODY | STRING_BODY;
+
+    /**
+     * Bit set of character classes for each ASCII character.
+     */
+    private static final int[] CLASSES = new int[128];
+
+    static {
+        for (char c = 0; c < CLASSES.length; c++) {
+            int classes = 0;
+            if (c == ' ' || c == '\b' || c == '\n' || c == '\r' || c == '\t') {
+                classes |= WHITESPACE;
+            }
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+                classes |= LETTER | IDENTIFIER_PART;
+            }
+            if (c >= '0' && c <= '9') {
+                classes |= DIGIT | IDENTIFIER_PART;
+            }
+            if (c >= '1' && c <= '9') {
+                classes |= NONZERO;
+            }
+            if (c == '_' || c == '-') {
+                classes |= IDENTIFIER_PART;
+            }
+            if (c != '\'' && c != '\n' && c != '\r' && c != '\\') {
+                classes |= CHARACTER_BODY;
+            }
+            if (c != '"' && c != '\n' && c != '\r' && c != '\\') {
+                classes |= STRING_BODY;
+            }
+            CLASSES[c] = classes;
+        }
+    }
+
+    /**
+     * Default number of characters per chunk for {@link #lexParallel()}.
+     */
+    private static final int PARALLEL_CHUNK = 1 << 16;
+
     private final CharStream chars;
 
-    public Lexer(String input) {
+    /**
+     * Creates a lexer over any character sequence: usually a {@link String},
+     * but also a {@link MappedSource} view of a file, which is lexed without
+     * copying it into a {@link String} first. Only token literals are copied
+     * out of the input.
+     */
+    public Lexer(CharSequence input) {
         chars = new CharStream(input);
     }
 
+    /**
+     * Creates a lexer that interns identifiers and operators into the given
+     * table, so that names can be shared across several sources.
+     */
+    public Lexer(CharSequence input, SymbolTable symbols) {
+        chars = new CharStream(input, symbols);
+    }
+
+    /**
+     * Creates a lexer over {@code input[start, end)}; token indexes are still
+     * relative to the whole input.
+     */
+    private Lexer(CharSequence input, SymbolTable symbols, int start, int end) {
+        chars = new CharStream(input, symbols, start, end);
+    }
+
+    public SymbolTable getSymbols() {
+        return chars.symbols;
+    }
+
     /**
      * Repeatedly lexes the input using {@link #lexToken()}, also skipping over
      * whitespace where appropriate.
@@ -30,16 +118,208 @@ public final class Lexer {
     public List<Token> lex() {
 
         ArrayList<Token> tokenList = new ArrayList<Token>();
-        while(chars.has(0)) {
-            if (match("[ \b\n\r\t]")) {
-                chars.skip();
+        tokens().forEachRemaining(tokenList::add);
+
+        return tokenList;
+    }
+
+    /**
+     * Lexes the input in parallel on the common {@link ForkJoinPool}; see
+     * {@link #lexParallel(ForkJoinPool)}.
+     */
+    public List<Token> lexParallel() {
+        return lexParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lexes the input as {@link #lex()} does, but splits it into chunks that
+     * are lexed concurrently on the given pool and stitched back together.
+     *
+     * Chunks are split at line breaks. No token can contain a raw {@code \n}
+     * or {@code \r} (they are whitespace, and are excluded from character and
+     * string literals), so the sequential lexer is always between tokens at a
+     * line break and restarting there is exact. An error at the end of a chunk
+     * is also reported at the same index, since the line break and the end of
+     * the chunk both fail to continue the token at that position. Token
+     * indexes stay global, and if several chunks fail the error from the
+     * earliest chunk is thrown, exactly as the sequential lexer would.
+     */
+    public List<Token> lexParallel(ForkJoinPool pool) {
+        return lexParallel(pool, PARALLEL_CHUNK);
+    }
+
+    List<Token> lexParallel(ForkJoinPool pool, int chunkSize) {
+        CharSequence input = chars.input;
+        int start = chars.index;
+        int end = chars.end;
+        if (end - start < 2 * chunkSize || pool.getParallelism() < 2) {
+            return lex();
+        }
+
+        List<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        List<SymbolTable> tables = new ArrayList<>();
+        Supplier<SymbolTable> fork = chars.symbols.fork();
+        for (int chunkStart = start; chunkStart < end; ) {
+            int chunkEnd = nextLineBreak(input, Math.min(chunkStart + chunkSize, end), end);
+            SymbolTable symbols = fork.get();
+            Lexer lexer = new Lexer(input, symbols, chunkStart, chunkEnd);
+            tables.add(symbols);
+            tasks.add(pool.submit(lexer::lex));
+            chunkStart = chunkEnd;
+        }
+
+        ArrayList<Token> tokens = new ArrayList<>();
+        try {
+            for (ForkJoinTask<List<Token>> task : tasks) {
+                tokens.addAll(task.join());
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        tables.forEach(chars.symbols::merge);
+        chars.index = end;
+        chars.skip();
+        return tokens;
+    }
+
+    /**
+     * Re-lexes a source after an edit, reusing the tokens of the previous
+     * version wherever the edit cannot have changed them. {@code edited} is the
+     * source after replacing {@code removedLength} characters at {@code
+     * offset} with {@code insertedText}, and {@code previous} are the tokens of
+     * the source before the edit (which must have lexed successfully), interned
+     * through {@code symbols}. The damaged region is interned through the same
+     * table, so its names are the same instances as those of the reused tokens.
+     *
+     * Only the damaged region is lexed again: from the line break before the
+     * edit to the line break after it, which are safe restart points for the
+     * same reason as in {@link #lexParallel(ForkJoinPool)}. Tokens before the
+     * region are reused as is; tokens after it are reused when the edit does
+     * not change the length of the source and shifted otherwise. Lexing work
+     * is therefore proportional to the edited lines, not to the file; only the
+     * final copy of the token list is linear. If the damaged region no longer
+     * lexes, the same {@link ParseException} as a full {@link #lex()} of the
+     * edited source is thrown.
+     */
+    public static List<Token> relex(String edited, List<Token> previous, SymbolTable symbols, int offset, int removedLength, String insertedText) {
+        int delta = insertedText.length() - removedLength;
+        int start = previousLineBreak(edited, offset);
+        int end = nextLineBreak(edited, offset + insertedText.length(), edited.length());
+
+        int prefix = firstTokenAt(previous, start);
+        int suffix = firstTokenAt(previous, end - delta);
+        List<Token> relexed = new Lexer(edited, symbols, start, end).lex();
+
+        ArrayList<Token> tokens = new ArrayList<>(prefix + relexed.size() + previous.size() - suffix);
+        tokens.addAll(previous.subList(0, prefix));
+        tokens.addAll(relexed);
+        if (delta == 0) {
+            tokens.addAll(previous.subList(suffix, previous.size()));
+        }
+        else {
+            for (Token token : previous.subList(suffix, previous.size())) {
+                tokens.add(new Token(token.getType(), token.getLiteral(), token.getIndex() + delta, token.isInterned()));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the index of the first token starting at or after {@code index}.
+     */
+    private static int firstTokenAt(List<Token> tokens, int index) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.get(middle).getIndex() < index) {
+                low = middle + 1;
             }
             else {
-                tokenList.add(lexToken());
+                high = middle;
             }
         }
+        return low;
+    }
 
-        return tokenList;
+    /**
+     * Returns the index of the last line break before {@code before}, or 0 if
+     * there is none.
+     */
+    static int previousLineBreak(CharSequence input, int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            char c = input.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index of the first line break at or after {@code from}, or
+     * {@code end} if there is none. This is a safe point to split the input;
+     * see {@link #lexParallel(ForkJoinPool)}.
+     */
+    static int nextLineBreak(CharSequence input, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns a pull-based view of {@link #lex()}: each call to {@code next}
+     * skips whitespace and lexes exactly one token, so a consumer such as the
+     * {@link Parser} can interleave lexing with its own work and never holds
+     * more tokens than it needs. A {@link ParseException} is thrown from
+     * {@code hasNext}/{@code next} when the invalid input is reached.
+     *
+     * The iterator shares this lexer's char stream, so only one should be
+     * used per lexer.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                while (matchClass(WHITESPACE)) {
+                    chars.skip();
+                }
+                return chars.has(0);
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return lexToken();
+            }
+
+        };
+    }
+
+    /**
+     * Lexes the whole input into a compact {@link TokenBuffer} instead of a
+     * list of {@link Token} objects. Only token types, offsets, and lengths
+     * are stored; literals are read back from the input on demand.
+     */
+    public TokenBuffer lexBuffer() {
+        TokenBuffer buffer = new TokenBuffer(chars.input, chars.symbols);
+        while (chars.has(0)) {
+            if (matchClass(WHITESPACE)) {
+                chars.skip();
+            }
+            else {
+                chars.emit(scanToken(), buffer);
+            }
+        }
+        return buffer;
     }
 
     /**
@@ -51,86 +331,118 @@ public final class Lexer {
      * by {@link #lex()}
      */
     public Token lexToken() {
-        if (peek("@|[A-Za-z]")) {
-            return lexIdentifier();
+        return chars.emit(scanToken());
+    }
+
+    public Token lexIdentifier() {
+        return chars.emit(scanIdentifier());
+    }
+
+    public Token lexNumber() {
+        return chars.emit(scanNumber());
+    }
+
+    public Token lexCharacter() {
+        return chars.emit(scanCharacter());
+    }
+
+    public Token lexString() {
+        return chars.emit(scanString());
+    }
+
+    public Token lexOperator() {
+        return chars.emit(scanOperator());
+    }
+
+    /**
+     * The scan methods below implement the lex methods above without creating
+     * a {@link Token}: each advances the char stream over one token and
+     * returns its type, leaving {@link CharStream} to emit it either as a
+     * {@link Token} or into a {@link TokenBuffer}.
+     */
+    private Token.Type scanToken() {
+        if (peekChar(0, '@') || peekClass(0, LETTER)) {
+            return scanIdentifier();
         }
-        else if (peek("[0-9]") || peek("-", "[1-9]") || peek("-", "0", "\\.", "[0-9]")) {
-            return lexNumber();
+        else if (peekClass(0, DIGIT)
+                || (peekChar(0, '-') && peekClass(1, NONZERO))
+                || (peekChar(0, '-') && peekChar(1, '0') && peekChar(2, '.') && peekClass(3, DIGIT))) {
+            return scanNumber();
         }
-        else if (peek("\'")) {
-            return lexCharacter();
+        else if (peekChar(0, '\'')) {
+            return scanCharacter();
         }
-        else if (peek("\"")) {
-            return lexString();
+        else if (peekChar(0, '"')) {
+            return scanString();
         }
         else {
-            return lexOperator();
+            return scanOperator();
         }
     }
 
-    public Token lexIdentifier() {
-        if (match("[A-Za-z]") || match("@", "[A-Za-z0-9_-]")) {
-            while (match("[A-Za-z0-9_-]"));
+    private Token.Type scanIdentifier() {
+        if (matchClass(LETTER) || (peekChar(0, '@') && peekClass(1, IDENTIFIER_PART) && advance(2))) {
+            while (matchClass(IDENTIFIER_PART));
         }
 
-        return chars.emit(Token.Type.IDENTIFIER);
+        return Token.Type.IDENTIFIER;
     }
 
-    public Token lexNumber() {
-        if (match("-")) {   //handles - int/dec
-            if (match("0", "\\.")) {  //case where peek("-", "0", ".", "[0-9]") returns T
-                while (match("[0-9]"));
-                return chars.emit(Token.Type.DECIMAL);
+    private Token.Type scanNumber() {
+        if (matchChar('-')) {   //handles - int/dec
+            if (peekChar(0, '0') && peekChar(1, '.') && advance(2)) {  //case where "-0." followed by a digit
+                while (matchClass(DIGIT));
+                return Token.Type.DECIMAL;
             }
-            else if (match("[1-9]")) {  //case where peek("-", "[1-9]") returns T
-                while (match("[0-9]"));
-
-                if (match("\\.", "[0-9]")) {  //need to check if decimal can be valid
-                    while (match("[0-9]"));
-                    return chars.emit(Token.Type.DECIMAL);
-                }
-                else {
-                    return chars.emit(Token.Type.INTEGER);
-                }
+            else if (matchClass(NONZERO)) {  //case where "-" followed by [1-9]
+                return scanNumberTail();
             }
         }
-        else if (match("[1-9]")) {  //case where peek("[1-9]") returns T; handles + int/dec
-            while (match("[0-9]"));
-
-            if (match("\\.", "[0-9]")) {  //need to check if decimal can be valid
-                while (match("[0-9]"));
-                return chars.emit(Token.Type.DECIMAL);
-            }
-            else {
-                return chars.emit(Token.Type.INTEGER);
-            }
+        else if (matchClass(NONZERO)) {  //handles + int/dec
+            return scanNumberTail();
         }
-        else {  //case where peek("0") returns T
-            if (match("0", "\\.", "[0-9]")) {  //need to check if decimal can be valid
-                while (match("[0-9]"));
-                return chars.emit(Token.Type.DECIMAL);
+        else {  //leading 0, only valid as 0 or 0.[0-9]+
+            if (peekChar(0, '0') && peekChar(1, '.') && peekClass(2, DIGIT) && advance(3)) {
+                while (matchClass(DIGIT));
+                return Token.Type.DECIMAL;
             }
         }
 
-        //last case: just have 0 bc java stupid
+        //last case: a lone 0
         chars.advance();
-        return chars.emit(Token.Type.INTEGER);
+        return Token.Type.INTEGER;
     }
 
-    public Token lexCharacter() {
-        if (match("\'")) {
-            if (match("[^\'\n\r\\\\]")) {
-                if (match("\'")) {
-                    return chars.emit(Token.Type.CHARACTER);
+    /**
+     * Lexes the remaining digits of a number whose leading [1-9] has already
+     * been matched, including an optional fractional part.
+     */
+    private Token.Type scanNumberTail() {
+        while (matchClass(DIGIT));
+
+        if (peekChar(0, '.') && peekClass(1, DIGIT) && advance(2)) {  //need to check if decimal can be valid
+            while (matchClass(DIGIT));
+            return Token.Type.DECIMAL;
+        }
+        else {
+            return Token.Type.INTEGER;
+        }
+    }
+
+    private Token.Type scanCharacter() {
+        if (matchChar('\'')) {
+            if (matchClass(CHARACTER_BODY)) {
+                if (matchChar('\'')) {
+                    return Token.Type.CHARACTER;
                 }
                 else {
                     throw new ParseException("Unterminated character at index: ", chars.index);
                 }
             }
-            else if (peek("\\\\")) {
+            else if (peekChar(0, '\\')) {
                 lexEscape();
-                if (match("\'")) {
-                    return chars.emit(Token.Type.CHARACTER);
+                if (matchChar('\'')) {
+                    return Token.Type.CHARACTER;
                 }
                 else {
                     throw new ParseException("Unterminated character at index: ", chars.index);
@@ -141,15 +453,14 @@ public final class Lexer {
         throw new ParseException("Invalid character at index: ", chars.index);
     }
 
-    //problem: length is too big for unterminated strings
-    public Token lexString() {
-        if (match("\"")) {
-            while(match("[^\"\n\r\\\\]") || peek("\\\\")) {
+    private Token.Type scanString() {
+        if (matchChar('"')) {
+            while (matchClass(STRING_BODY) || peekChar(0, '\\')) {
                 lexEscape();
-            };
+            }
 
-            if (match("\"")) {
-                return chars.emit(Token.Type.STRING);
+            if (matchChar('"')) {
+                return Token.Type.STRING;
             }
         }
 
@@ -158,25 +469,82 @@ public final class Lexer {
 
     //call inside lexString and lexChar
     //don't call in lexToken
-    //matching on \\n
     //ex: "\a" //error on index of 'a'
     public void lexEscape() {
-        //only peek in else if in lexChar, then call lexEscape
-        if (match("\\\\")) {
-            if (!match( "[bnrt\'\"\\\\]")) {
+        if (matchChar('\\')) {
+            if (!chars.has(0) || Literals.escape(chars.get(0)) == 0) {
                 throw new ParseException("Invalid escape sequence at index: ", chars.index);
             }
+            chars.advance();
         }
     }
 
-    public Token lexOperator() {
-        if (match("[!=]", "=") || match("&", "&") || match("|", "|")) {
-            return chars.emit(Token.Type.OPERATOR);
+    private Token.Type scanOperator() {
+        if (((peekChar(0, '!') || peekChar(0, '=')) && peekChar(1, '='))
+                || (peekChar(0, '&') && peekChar(1, '&'))
+                || (peekChar(0, '|') && peekChar(1, '|'))) {
+            advance(2);
         }
         else {
             chars.advance();
-            return chars.emit(Token.Type.OPERATOR);
         }
+        return Token.Type.OPERATOR;
+    }
+
+    /**
+     * Returns true if the character at the given offset belongs to any of the
+     * given character classes. Characters outside of ASCII are only members of
+     * {@link #CHARACTER_BODY} and {@link #STRING_BODY}, mirroring the negated
+     * regex classes the grammar uses for literals.
+     */
+    private boolean peekClass(int offset, int charClass) {
+        if (!chars.has(offset)) {
+            return false;
+        }
+        char c = chars.get(offset);
+        return ((c < CLASSES.length ? CLASSES[c] : NON_ASCII) & charClass) != 0;
+    }
+
+    /**
+     * Returns true if the character at the given offset is exactly {@code c}.
+     */
+    private boolean peekChar(int offset, char c) {
+        return chars.has(offset) && chars.get(offset) == c;
+    }
+
+    /**
+     * As {@link #peekClass(int, int)} on the next character, advancing past it
+     * if it matches.
+     */
+    private boolean matchClass(int charClass) {
+        boolean peek = peekClass(0, charClass);
+        if (peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * As {@link #peekChar(int, char)} on the next character, advancing past it
+     * if it matches.
+     */
+    private boolean matchChar(char c) {
+        boolean peek = peekChar(0, c);
+        if (peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * Advances the char stream by {@code count} characters. Always returns
+     * true so it can complete a chain of peeks, as in {@code peek && advance}.
+     */
+    private boolean advance(int count) {
+        for (int i = 0; i < count; i++) {
+            chars.advance();
+        }
+        return true;
     }
 
     /**
@@ -184,7 +552,7 @@ public final class Lexer {
      * which should be a regex. For example, {@code peek("a", "b", "c")} would
      * return true if the next characters are {@code 'a', 'b', 'c'}.
      */
-    public boolean peek(String... patterns) { //TODO
+    public boolean peek(String... patterns) {
         for (int i = 0; i < patterns.length; i++) {
             if (!chars.has(i) || !String.valueOf(chars.get(i)).matches(patterns[i])) {
                 return false;
@@ -197,9 +565,9 @@ public final class Lexer {
     /**
      * Returns true in the same way as {@link #peek(String...)}, but also
      * advances the character stream past all matched characters if peek returns
-     * true. Hint - it's easiest to have this method simply call peek.
+     * true.
      */
-    public boolean match(String... patterns) { //TODO
+    public boolean match(String... patterns) {
         boolean peek = peek(patterns);
         if (peek) {
             for (int i =0; i < patterns.length; i++) {
@@ -210,8 +578,9 @@ public final class Lexer {
     }
 
     /**
-     * A helper class maintaining the input string, current index of the char
-     * stream, and the current length of the token being matched.
+     * A helper class maintaining the input characters, current index of the char
+     * stream, and the current length of the token being matched. Identifier
+     * and operator literals are interned through its {@link SymbolTable}.
      *
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
@@ -219,16 +588,32 @@ public final class Lexer {
      */
     public static final class CharStream {
 
-        private final String input;
-        private int index = 0;
+        private final CharSequence input;
+        private final SymbolTable symbols;
+        private final int end;
+        private int index;
         private int length = 0;
 
-        public CharStream(String input) {
+        public CharStream(CharSequence input) {
+            this(input, new SymbolTable());
+        }
+
+        public CharStream(CharSequence input, SymbolTable symbols) {
+            this(input, symbols, 0, input.length());
+        }
+
+        /**
+         * Creates a char stream over {@code input[start, end)}.
+         */
+        public CharStream(CharSequence input, SymbolTable symbols, int start, int end) {
             this.input = input;
+            this.symbols = symbols;
+            this.index = start;
+            this.end = end;
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            return index + offset < end;
         }
 
         public char get(int offset) {
@@ -247,7 +632,18 @@ public final class Lexer {
         public Token emit(Token.Type type) {
             int start = index - length;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+                return new Token(type, symbols.intern(input, start, index), start, true);
+            }
+            return new Token(type, input.subSequence(start, index).toString(), start);
+        }
+
+        /**
+         * Emits the current token into the buffer without copying its literal.
+         */
+        public void emit(Token.Type type, TokenBuffer buffer) {
+            buffer.add(type, index - length, length);
+            skip();
         }
 
     }
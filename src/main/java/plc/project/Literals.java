@@ -0,0 +1,150 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Decodes literals, shared by the {@link Lexer}, which validates escapes with
+ * {@link #escape(char)}, and the {@link Parser}, which turns literal tokens
+ * into their values.
+ *
+ * Decoding reads the quoted literal straight out of the characters it was
+ * lexed from, in a single pass. A literal without escapes is copied once into
+ * its final {@link String}; a literal with escapes is decoded into a scratch
+ * array sized from the literal and then copied once into its final {@link
+ * String}. Characters need no allocation beyond {@link Character#valueOf}.
+ *
+ * The input must be a literal accepted by the lexer; the grammar guarantees
+ * that every backslash is followed by one of the characters of {@code
+ * [bnrt'"\\]}.
+ */
+public final class Literals {
+
+    /**
+     * The character each escape letter decodes to, or 0 if it is not a valid
+     * escape.
+     */
+    private static final char[] ESCAPES = new char[128];
+
+    static {
+        ESCAPES['b'] = '\b';
+        ESCAPES['n'] = '\n';
+        ESCAPES['r'] = '\r';
+        ESCAPES['t'] = '\t';
+        ESCAPES['\''] = '\'';
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+    }
+
+    /**
+     * Numbers with at most this many digits fit in a long.
+     */
+    private static final int LONG_DIGITS = 18;
+
+    private Literals() {}
+
+    /**
+     * Returns the character the escape {@code \c} decodes to, or 0 if {@code
+     * \c} is not a valid escape.
+     */
+    public static char escape(char c) {
+        return c < ESCAPES.length ? ESCAPES[c] : 0;
+    }
+
+    /**
+     * Decodes the character literal at {@code source[start, end)}, including
+     * its surrounding single quotes.
+     */
+    public static Character decodeCharacter(CharSequence source, int start, int end) {
+        char c = source.charAt(start + 1);
+        return c == '\\' ? escape(source.charAt(start + 2)) : c;
+    }
+
+    /**
+     * Decodes the string literal at {@code source[start, end)}, including its
+     * surrounding double quotes.
+     */
+    public static String decodeString(CharSequence source, int start, int end) {
+        int first = start + 1;
+        int last = end - 1;
+        int backslash = indexOfBackslash(source, first, last);
+        if (backslash == last) {
+            return source.subSequence(first, last).toString();
+        }
+
+        char[] decoded = new char[last - first];
+        int length = 0;
+        for (int i = first; i < backslash; i++) {
+            decoded[length++] = source.charAt(i);
+        }
+        for (int i = backslash; i < last; i++) {
+            char c = source.charAt(i);
+            decoded[length++] = c == '\\' ? escape(source.charAt(++i)) : c;
+        }
+        return new String(decoded, 0, length);
+    }
+
+    /**
+     * Decodes the integer literal at {@code source[start, end)}. Literals
+     * that fit in a long are accumulated directly from the source, so only
+     * the resulting {@link BigInteger} is allocated.
+     */
+    public static BigInteger decodeInteger(CharSequence source, int start, int end) {
+        boolean negative = source.charAt(start) == '-';
+        int first = negative ? start + 1 : start;
+        if (end - first > LONG_DIGITS) {
+            return new BigInteger(source.subSequence(start, end).toString());
+        }
+        long value = digits(source, first, end, 0);
+        return BigInteger.valueOf(negative ? -value : value);
+    }
+
+    /**
+     * Decodes the decimal literal at {@code source[start, end)}, keeping its
+     * scale as {@link BigDecimal#BigDecimal(String)} does. Literals whose
+     * digits fit in a long are accumulated directly from the source.
+     */
+    public static BigDecimal decodeDecimal(CharSequence source, int start, int end) {
+        boolean negative = source.charAt(start) == '-';
+        int first = negative ? start + 1 : start;
+        if (end - first - 1 > LONG_DIGITS) {
+            return new BigDecimal(source.subSequence(start, end).toString());
+        }
+        int point = first;
+        while (source.charAt(point) != '.') {
+            point++;
+        }
+        long unscaled = digits(source, point + 1, end, digits(source, first, point, 0));
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, end - point - 1);
+    }
+
+    private static long digits(CharSequence source, int start, int end, long value) {
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (source.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the index of the first backslash in {@code source[start, end)},
+     * or {@code end} if there is none. The scan is bounded by {@code end}, as
+     * the source may be a whole file.
+     */
+    private static int indexOfBackslash(CharSequence source, int start, int end) {
+        if (source instanceof String) {
+            String string = (String) source;
+            for (int index = start; index < end; index++) {
+                if (string.charAt(index) == '\\') {
+                    return index;
+                }
+            }
+            return end;
+        }
+        int index = start;
+        while (index < end && source.charAt(index) != '\\') {
+            index++;
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,251 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only {@link CharSequence} view of an ASCII or UTF-8 source file,
+ * backed by a memory mapping rather than a heap copy of its text, for use with
+ * {@link Lexer#Lexer(CharSequence)}.
+ *
+ * Opening a file makes one pass over its bytes to count characters. Pure
+ * ASCII files are then read directly, one byte per character. Otherwise, the
+ * pass also records a checkpoint every {@link #BLOCK} characters, and {@link
+ * #charAt(int)} decodes the block around the requested index on demand,
+ * keeping only the last decoded block. The lexer reads almost sequentially,
+ * so each block is decoded about once per pass.
+ *
+ * Malformed UTF-8 decodes to one {@code U+FFFD} per maximal invalid
+ * subsequence (a lead byte and the continuation bytes valid after it, a
+ * whole encoded surrogate, or a single byte that can't start a sequence),
+ * exactly as with the JDK's UTF-8 decoder, and characters outside the BMP
+ * decode to surrogate pairs, as with {@link String}. Indexes, and therefore
+ * {@link Token#getIndex()}, count UTF-16 chars, not bytes, and match those
+ * of the decoded string. Files must be under 2 GB.
+ */
+public final class MappedSource implements CharSequence {
+
+    /**
+     * Approximate number of characters between checkpoints. Blocks only end
+     * on code point boundaries, so a block may be one char longer.
+     */
+    static final int BLOCK = 1 << 12;
+
+    private final ByteBuffer bytes;
+    private final int length;
+
+    /**
+     * The char and byte offsets of each block, with one extra entry for the
+     * end of the file, or null if the file is pure ASCII.
+     */
+    private final int[] charStarts;
+    private final int[] byteStarts;
+
+    /**
+     * The last decoded block. It is immutable and replaced as a whole, so
+     * concurrent readers (see {@link Lexer#lexParallel()}) at worst decode a
+     * block twice.
+     */
+    private Block block = new Block(0, new char[0]);
+
+    /**
+     * Maps the given file and returns a view of its text.
+     */
+    public static MappedSource open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file " + path + " is too large to map (" + channel.size() + " bytes).");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedSource(buffer);
+        }
+    }
+
+    /**
+     * Creates a view of the bytes from the buffer's position to its limit,
+     * which must be ASCII or UTF-8 and must not change afterwards.
+     */
+    public MappedSource(ByteBuffer bytes) {
+        this.bytes = bytes.slice();
+        int size = this.bytes.limit();
+        int ascii = 0;
+        while (ascii < size && this.bytes.get(ascii) >= 0) {
+            ascii++;
+        }
+        if (ascii == size) {
+            this.length = size;
+            this.charStarts = null;
+            this.byteStarts = null;
+            return;
+        }
+
+        int[] charStarts = new int[size / BLOCK + 2];
+        int[] byteStarts = new int[size / BLOCK + 2];
+        int blocks = 1;
+        int chars = 0;
+        int position = 0;
+        while (position < size) {
+            if (chars - charStarts[blocks - 1] >= BLOCK) {
+                if (blocks + 2 > charStarts.length) {
+                    charStarts = Arrays.copyOf(charStarts, blocks * 2);
+                    byteStarts = Arrays.copyOf(byteStarts, blocks * 2);
+                }
+                charStarts[blocks] = chars;
+                byteStarts[blocks] = position;
+                blocks++;
+            }
+            int bytesRead = sequenceLength(position);
+            chars += bytesRead == 4 ? 2 : 1;
+            position += Math.abs(bytesRead);
+        }
+        charStarts[blocks] = chars;
+        byteStarts[blocks] = size;
+        this.length = chars;
+        this.charStarts = Arrays.copyOf(charStarts, blocks + 1);
+        this.byteStarts = Arrays.copyOf(byteStarts, blocks + 1);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for length " + length + ".");
+        }
+        if (charStarts == null) {
+            return (char) bytes.get(index);
+        }
+        Block block = this.block;
+        if (index < block.start || index >= block.start + block.chars.length) {
+            block = decode(index);
+            this.block = block;
+        }
+        return block.chars[index - block.start];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is out of bounds for length " + length + ".");
+        }
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the whole text as a {@link String}, which is the full heap copy
+     * this class otherwise avoids.
+     */
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Decodes the block containing the given char index.
+     */
+    private Block decode(int index) {
+        int found = Arrays.binarySearch(charStarts, index);
+        int block = found >= 0 ? found : -found - 2;
+        char[] chars = new char[charStarts[block + 1] - charStarts[block]];
+        int position = byteStarts[block];
+        for (int i = 0; i < chars.length; ) {
+            int bytesRead = sequenceLength(position);
+            int codePoint = bytesRead < 0 ? 0xFFFD : codePoint(position, bytesRead);
+            if (bytesRead == 4) {
+                chars[i++] = Character.highSurrogate(codePoint);
+                chars[i++] = Character.lowSurrogate(codePoint);
+            }
+            else {
+                chars[i++] = (char) codePoint;
+            }
+            position += Math.abs(bytesRead);
+        }
+        return new Block(charStarts[block], chars);
+    }
+
+    /**
+     * Returns the number of bytes of the UTF-8 sequence at the given position,
+     * or, if it is malformed (including overlong forms and surrogates), the
+     * negated number of bytes of its maximal invalid subsequence, which
+     * decodes to one replacement character as in the JDK's decoder.
+     */
+    private int sequenceLength(int position) {
+        int lead = bytes.get(position) & 0xFF;
+        int length;
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead < 0x80) {
+            return 1;
+        }
+        else if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        }
+        else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            min = lead == 0xE0 ? 0xA0 : 0x80;
+        }
+        else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            min = lead == 0xF0 ? 0x90 : 0x80;
+            max = lead == 0xF4 ? 0x8F : 0xBF;
+        }
+        else {
+            return -1;
+        }
+        for (int i = 1; i < length; i++) {
+            if (position + i >= bytes.limit()) {
+                return -i;
+            }
+            int next = bytes.get(position + i) & 0xFF;
+            if (next < (i == 1 ? min : 0x80) || next > (i == 1 ? max : 0xBF)) {
+                return -i;
+            }
+        }
+        if (lead == 0xED && (bytes.get(position + 1) & 0xFF) >= 0xA0) {
+            //an encoded surrogate is malformed as a whole
+            return -3;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the code point of the sequence at the given position, given its
+     * length from {@link #sequenceLength(int)}.
+     */
+    private int codePoint(int position, int length) {
+        int lead = bytes.get(position) & 0xFF;
+        if (length == 1) {
+            return lead;
+        }
+        int codePoint = lead & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (bytes.get(position + i) & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private static final class Block {
+
+        private final int start;
+        private final char[] chars;
+
+        private Block(int start, char[] chars) {
+            this.start = start;
+            this.chars = chars;
+        }
+
+    }
+
+}
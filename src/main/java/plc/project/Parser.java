@@ -5,9 +5,12 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -24,16 +27,70 @@ import java.util.ArrayList;
  */
 public final class Parser {
 
+    /**
+     * Precedence levels of the binary operators, from loosest to tightest.
+     */
+    private static final int LOGICAL = 0;
+    private static final int COMPARISON = 1;
+    private static final int ADDITIVE = 2;
+    private static final int MULTIPLICATIVE = 3;
+
+    /**
+     * Default number of functions per task for {@link #parseParallel(List)}.
+     */
+    private static final int PARALLEL_BATCH = 32;
+
     private final TokenStream tokens;
 
+    /**
+     * The errors collected by {@link #parseSource(List)}, or null when the
+     * parser throws on the first error.
+     */
+    private List<ParseException> errors = null;
+
+    /**
+     * The table recording the source span of every node, or null if spans
+     * are not tracked. See {@link #recordSpans(SourceSpans)}.
+     */
+    private SourceSpans spans = null;
+
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this(tokens.iterator());
+    }
+
+    /**
+     * Creates a parser that pulls tokens on demand, such as from {@link
+     * Lexer#tokens()}, so lexing and parsing interleave and only a small window
+     * of tokens is live at any time.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new WindowTokenStream(tokens);
+    }
+
+    /**
+     * Creates a parser that reads directly from a {@link TokenBuffer}. Token
+     * types and keywords are compared in place, and literals are only copied
+     * out of the source when they become part of the AST.
+     */
+    public Parser(TokenBuffer tokens) {
+        this.tokens = new BufferTokenStream(tokens);
+    }
+
+    /**
+     * Records the source span of every node this parser creates into the
+     * given table: from the start of its first token to the end of its last
+     * one, as indexes into the source. Globals include their trailing
+     * {@code ;}.
+     */
+    public void recordSpans(SourceSpans spans) {
+        this.spans = spans;
     }
 
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        int start = start();
         ArrayList<Ast.Global> globals = new ArrayList<Ast.Global>();
         ArrayList<Ast.Function> functions = new ArrayList<Ast.Function>();
 
@@ -51,14 +108,147 @@ public final class Parser {
             throw new ParseException("Expected 'FUN'", errorIndex());
         }
 
+        return span(new Ast.Source(globals, functions), start);
+    }
+
+    /**
+     * Parses the tokens as {@link #parseSource()} does, parsing functions in
+     * parallel on the common {@link ForkJoinPool}; see {@link
+     * #parseParallel(List, ForkJoinPool)}.
+     */
+    public static Ast.Source parseParallel(List<Token> tokens) {
+        return parseParallel(tokens, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the tokens as {@link #parseSource()} does, but parses the
+     * functions in batches on the given pool.
+     *
+     * Globals are parsed first, sequentially. The remaining tokens are then
+     * pre-scanned for function boundaries: a function ends with {@code END},
+     * so every {@code FUN} at the start or right after an {@code END} is
+     * assumed to start a function. Each function is parsed on its own and must
+     * consume exactly the tokens up to the next boundary. If any of them fails
+     * or does not (for instance, because a {@code FUN} identifier follows an
+     * inner {@code END}), the whole source is parsed again sequentially, so
+     * the result and any {@link ParseException} are always those of {@link
+     * #parseSource()}.
+     */
+    public static Ast.Source parseParallel(List<Token> tokens, ForkJoinPool pool) {
+        return parseParallel(tokens, pool, PARALLEL_BATCH);
+    }
+
+    static Ast.Source parseParallel(List<Token> tokens, ForkJoinPool pool, int batchSize) {
+        if (pool.getParallelism() < 2) {
+            return new Parser(tokens).parseSource();
+        }
+        ArrayList<Ast.Global> globals = new ArrayList<Ast.Global>();
+        List<Integer> starts = new ArrayList<>();
+        try {
+            Parser parser = new Parser(tokens);
+            while (parser.peek("LIST") || parser.peek("VAR") || parser.peek("VAL")) {
+                globals.add(parser.parseGlobal());
+            }
+            for (int i = parser.position(); i < tokens.size(); i++) {
+                if (tokens.get(i).getLiteral().equals("FUN")
+                        && (i == parser.position() || tokens.get(i - 1).getLiteral().equals("END"))) {
+                    starts.add(i);
+                }
+            }
+            if (starts.isEmpty() || starts.get(0) != parser.position()) {
+                return new Parser(tokens).parseSource();
+            }
+        } catch (ParseException e) {
+            return new Parser(tokens).parseSource();
+        }
+        starts.add(tokens.size());
+
+        List<ForkJoinTask<List<Ast.Function>>> tasks = new ArrayList<>();
+        for (int batch = 0; batch < starts.size() - 1; batch += batchSize) {
+            List<Integer> bounds = starts.subList(batch, Math.min(batch + batchSize, starts.size() - 1) + 1);
+            tasks.add(pool.submit(() -> parseFunctions(tokens, bounds)));
+        }
+        ArrayList<Ast.Function> functions = new ArrayList<Ast.Function>();
+        try {
+            for (ForkJoinTask<List<Ast.Function>> task : tasks) {
+                List<Ast.Function> batch = task.join();
+                if (batch == null) {
+                    tasks.forEach(t -> t.cancel(false));
+                    return new Parser(tokens).parseSource();
+                }
+                functions.addAll(batch);
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(false));
+            return new Parser(tokens).parseSource();
+        }
         return new Ast.Source(globals, functions);
     }
 
+    /**
+     * Parses the functions starting at each of the given token indexes and
+     * ending at the next one, or returns null if one of them does not end
+     * exactly there.
+     */
+    private static List<Ast.Function> parseFunctions(List<Token> tokens, List<Integer> bounds) {
+        List<Ast.Function> functions = new ArrayList<>(bounds.size() - 1);
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            Parser parser = new Parser(tokens.subList(bounds.get(i), bounds.get(i + 1)));
+            functions.add(parser.parseFunction());
+            if (parser.position() != bounds.get(i + 1) - bounds.get(i)) {
+                return null;
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * Parses the {@code source} rule like {@link #parseSource()}, but instead
+     * of stopping at the first syntax error, adds every error to {@code errors}
+     * and returns whatever could be parsed around them.
+     *
+     * After an error the parser skips ahead to a synchronization point: past
+     * the next {@code ;}, or up to the next {@code END}, {@code FUN}, or other
+     * keyword ending the current block. A statement with an error is left out
+     * of its block, and a global or function whose own header or {@code END}
+     * is broken is left out of the source. If there are no errors, the result
+     * is the same as {@link #parseSource()}.
+     */
+    public Ast.Source parseSource(List<ParseException> errors) {
+        int start = start();
+        ArrayList<Ast.Global> globals = new ArrayList<Ast.Global>();
+        ArrayList<Ast.Function> functions = new ArrayList<Ast.Function>();
+        this.errors = errors;
+
+        boolean function = false;
+        while (tokens.has(0)) {
+            int position = tokens.position();
+            try {
+                if (!function && (peek("LIST") || peek("VAR") || peek("VAL"))) {
+                    globals.add(parseGlobal());
+                }
+                else if (peek("FUN")) {
+                    function = true;
+                    functions.add(parseFunction());
+                }
+                else {
+                    throw new ParseException("Expected 'FUN'", errorIndex());
+                }
+            } catch (ParseException e) {
+                errors.add(e);
+                synchronize(position, true);
+            }
+        }
+
+        return span(new Ast.Source(globals, functions), start);
+    }
+
     /**
      * Parses the {@code field} rule. This method should only be called if the
      * next tokens start a field, aka {@code LET}.
      */
     public Ast.Global parseGlobal() throws ParseException {
+        int start = start();
         Ast.Global global;
 
         //improvement: match
@@ -76,7 +266,7 @@ public final class Parser {
             throw new ParseException("Expected semicolon", errorIndex());
         }
 
-        return global;
+        return span(global, start);
     }
 
     /**
@@ -84,6 +274,7 @@ public final class Parser {
      * next token declares a list, aka {@code LIST}.
      */
     public Ast.Global parseList() throws ParseException {
+        int start = start();
         String name, type;
         ArrayList<Ast.Expression> elements = new ArrayList<Ast.Expression>();
 
@@ -94,7 +285,7 @@ public final class Parser {
         if (!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        name = tokens.get(-1).getLiteral();
+        name = tokens.literal(-1);
 
         //type is required for global declarations
         type = parseType();
@@ -102,6 +293,7 @@ public final class Parser {
         if (!match("=")) {
             throw new ParseException("Expected assignment operator", errorIndex());
         }
+        int listStart = start();
         if (!match("[")) {
             throw new ParseException("Expected opening bracket", errorIndex());
         }
@@ -116,7 +308,8 @@ public final class Parser {
             throw new ParseException("Expected closing bracket", errorIndex());
         }
 
-        return new Ast.Global(name, type, true, Optional.of(new Ast.Expression.PlcList(elements)));
+        Ast.Expression.PlcList list = span(new Ast.Expression.PlcList(elements), listStart);
+        return span(new Ast.Global(name, type, true, Optional.of(list)), start);
     }
 
     /**
@@ -124,6 +317,7 @@ public final class Parser {
      * next token declares a mutable global variable, aka {@code VAR}.
      */
     public Ast.Global parseMutable() throws ParseException {
+        int start = start();
         String name, type;
         Optional<Ast.Expression> value = Optional.empty();
 
@@ -132,7 +326,7 @@ public final class Parser {
         if(!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        name = tokens.get(-1).getLiteral();
+        name = tokens.literal(-1);
 
         type = parseType();
 
@@ -140,7 +334,7 @@ public final class Parser {
             value = Optional.of(parseExpression());
         }
 
-        return new Ast.Global(name, type, true, value);
+        return span(new Ast.Global(name, type, true, value), start);
     }
 
     /**
@@ -148,6 +342,7 @@ public final class Parser {
      * next token declares an immutable global variable, aka {@code VAL}.
      */
     public Ast.Global parseImmutable() throws ParseException {
+        int start = start();
         String name, type;
         Optional<Ast.Expression> value;
 
@@ -156,7 +351,7 @@ public final class Parser {
         if(!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        name = tokens.get(-1).getLiteral();
+        name = tokens.literal(-1);
 
         type = parseType();
 
@@ -166,7 +361,7 @@ public final class Parser {
         }
         value = Optional.of(parseExpression());
 
-        return new Ast.Global(name, type, false, value);
+        return span(new Ast.Global(name, type, false, value), start);
 
     }
 
@@ -175,6 +370,7 @@ public final class Parser {
      * next tokens start a method, aka {@code DEF}.
      */
     public Ast.Function parseFunction() throws ParseException {
+        int start = start();
         String name;
         ArrayList<String> parameters = new ArrayList<String>();
         ArrayList<String> parameterTypes = new ArrayList<String>();
@@ -186,7 +382,7 @@ public final class Parser {
         if (!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        name = tokens.get(-1).getLiteral();
+        name = tokens.literal(-1);
 
         if (!match("(")) {
             throw new ParseException("Expected opening parenthesis'", errorIndex());
@@ -195,7 +391,7 @@ public final class Parser {
         //handles variable amount of parameters
         if (match(Token.Type.IDENTIFIER)) {
             do {
-                parameters.add(tokens.get(-1).getLiteral());
+                parameters.add(tokens.literal(-1));
                 parameterTypes.add(parseType());
             }
             while(match(",", Token.Type.IDENTIFIER));
@@ -209,7 +405,7 @@ public final class Parser {
             if (!match(Token.Type.IDENTIFIER)) {
                 throw new ParseException("Expected identifier", errorIndex());
             }
-            returnType = Optional.of(tokens.get(-1).getLiteral());
+            returnType = Optional.of(tokens.literal(-1));
         }
         if (!match("DO")) {
             throw new ParseException("Expected 'DO'", errorIndex());
@@ -222,7 +418,7 @@ public final class Parser {
             throw new ParseException("Expected 'END'", errorIndex());
         }
 
-        return new Ast.Function(name, parameters, parameterTypes, returnType, statements);
+        return span(new Ast.Function(name, parameters, parameterTypes, returnType, statements), start);
     }
 
     /**
@@ -234,7 +430,22 @@ public final class Parser {
 
         //as long as we have statements, continue parsing statements until we reach an identifier signifying the ending of a block
         while (tokens.has(0) && !peek("END") && !peek("ELSE") && !peek("CASE") && !peek("DEFAULT")) {
-            statements.add(parseStatement());
+            if (errors == null) {
+                statements.add(parseStatement());
+            }
+            else if (peek("FUN")) {
+                //when recovering, a function cannot start inside a block, so the enclosing one is missing its END
+                break;
+            }
+            else {
+                int start = tokens.position();
+                try {
+                    statements.add(parseStatement());
+                } catch (ParseException e) {
+                    errors.add(e);
+                    synchronize(start, false);
+                }
+            }
         }
 
         return statements;
@@ -246,6 +457,7 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Statement parseStatement() throws ParseException {
+        int start = start();
 
         if (peek("LET")) {
             return parseDeclarationStatement();
@@ -272,14 +484,14 @@ public final class Parser {
                     throw new ParseException("Expected semicolon", errorIndex());
                 }
 
-                return new Ast.Statement.Assignment(receiver, value);
+                return span(new Ast.Statement.Assignment(receiver, value), start);
             }
             else {  //function calls
                 if (!match(";")) {
                     throw new ParseException("Expected semicolon", errorIndex());
                 }
 
-                return new Ast.Statement.Expression(receiver);
+                return span(new Ast.Statement.Expression(receiver), start);
             }
         }
     }
@@ -290,6 +502,7 @@ public final class Parser {
      * statement, aka {@code LET}.
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
+        int start = start();
         String name;
         Optional<String> type = Optional.empty();
         Optional<Ast.Expression> value = Optional.empty();
@@ -299,14 +512,14 @@ public final class Parser {
         if (!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        name = tokens.get(-1).getLiteral();
+        name = tokens.literal(-1);
 
         //in local declaration, type is optional
         if (match(":")) {
             if (!match(Token.Type.IDENTIFIER)) {
                 throw new ParseException("Expected identifier that is a name of a type", errorIndex());
             }
-            type = Optional.of(tokens.get(-1).getLiteral());
+            type = Optional.of(tokens.literal(-1));
         }
 
         if (match("=")) {
@@ -316,7 +529,7 @@ public final class Parser {
             throw new ParseException("Expected semicolon", errorIndex());
         }
 
-        return new Ast.Statement.Declaration(name, type, value);
+        return span(new Ast.Statement.Declaration(name, type, value), start);
     }
 
     /**
@@ -325,6 +538,7 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
+        int start = start();
         //'IF' expression 'DO' block ('ELSE' block)? 'END'
         Ast.Expression condition;
         List<Ast.Statement> thenStatements;
@@ -344,7 +558,7 @@ public final class Parser {
                 else{
                     //instantiate elseStatements as empty list since there is no ELSE attached to the IF statement
                     elseStatements = new ArrayList<Ast.Statement>();
-                    return new Ast.Statement.If(condition, thenStatements, elseStatements);
+                    return span(new Ast.Statement.If(condition, thenStatements, elseStatements), start);
                 }
             }
             else{
@@ -353,7 +567,7 @@ public final class Parser {
                     throw new ParseException("Expected 'END'", errorIndex());
                 }
                 else{
-                    return new Ast.Statement.If(condition, thenStatements, elseStatements);
+                    return span(new Ast.Statement.If(condition, thenStatements, elseStatements), start);
                 }
             }
         }
@@ -365,6 +579,7 @@ public final class Parser {
      * {@code SWITCH}.
      */
     public Ast.Statement.Switch parseSwitchStatement() throws ParseException {
+        int start = start();
         Ast.Expression condition;
         ArrayList<Ast.Statement.Case> cases = new ArrayList<Ast.Statement.Case>();
 
@@ -375,7 +590,7 @@ public final class Parser {
             cases.add(parseCaseStatement());
         }
 
-        if(!match("DEFAULT")) {
+        if(!peek("DEFAULT")) {
             throw new ParseException("Expected 'DEFAULT'", errorIndex());
         }
         cases.add(parseCaseStatement());
@@ -384,7 +599,7 @@ public final class Parser {
             throw new ParseException("Expected 'END'", errorIndex());
         }
 
-        return new Ast.Statement.Switch(condition, cases);
+        return span(new Ast.Statement.Switch(condition, cases), start);
     }
 
     /**
@@ -393,6 +608,7 @@ public final class Parser {
      * default block of a switch statement, aka {@code CASE} or {@code DEFAULT}.
      */
     public Ast.Statement.Case parseCaseStatement() throws ParseException {
+        int start = start();
         Optional<Ast.Expression> value = Optional.empty();
         List<Ast.Statement> statements;
 
@@ -403,10 +619,13 @@ public final class Parser {
                 throw new ParseException("Expected colon", errorIndex());
             }
         }
+        else if (!match("DEFAULT")) {
+            throw new ParseException("Expected 'DEFAULT'", errorIndex());
+        }
 
         statements = parseBlock();
 
-        return new Ast.Statement.Case(value, statements);
+        return span(new Ast.Statement.Case(value, statements), start);
     }
 
     /**
@@ -415,6 +634,7 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
+        int start = start();
         Ast.Expression condition;
         List<Ast.Statement> statements;
 
@@ -430,7 +650,7 @@ public final class Parser {
                 throw new ParseException("Expected 'END'", errorIndex());
             }
             else{
-                return new Ast.Statement.While(condition, statements);
+                return span(new Ast.Statement.While(condition, statements), start);
             }
         }
     }
@@ -441,6 +661,7 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
+        int start = start();
 
         match("RETURN");
         Ast.Expression value = parseExpression();
@@ -449,7 +670,7 @@ public final class Parser {
             throw new ParseException("Expected semicolon", errorIndex());
         }
 
-        return new Ast.Statement.Return(value);
+        return span(new Ast.Statement.Return(value), start);
     }
 
     /**
@@ -463,72 +684,84 @@ public final class Parser {
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expression parseLogicalExpression() throws ParseException {
-        String operator = "";
-        Ast.Expression left = parseComparisonExpression();
-        Ast.Expression right;
-
-        while (match("&&") || match("||")) {
-            operator = tokens.get(-1).getLiteral();
-            right = parseComparisonExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(LOGICAL);
     }
 
-    //when you have things of the same priority, move right to left
-
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseComparisonExpression() throws ParseException {
-        String operator = "";
-        Ast.Expression left = parseAdditiveExpression();
-        Ast.Expression right;
-
-        while (match("<") || match(">") || match("==") || match("!=")) {
-            operator = tokens.get(-1).getLiteral();
-            right = parseAdditiveExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(COMPARISON);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        String operator = "";
-        Ast.Expression left = parseMultiplicativeExpression();
-        Ast.Expression right;
-
-        while (match("+") || match("-")) {
-            operator = tokens.get(-1).getLiteral();
-            right = parseMultiplicativeExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
-        String operator = "";
-        Ast.Expression left = parsePrimaryExpression();
-        Ast.Expression right;
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
 
-        while (match("*") || match("/") || match("^")) {
-            operator = tokens.get(-1).getLiteral();
-            right = parsePrimaryExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
+    /**
+     * Parses a chain of binary operators of at least the given precedence by
+     * precedence climbing, which produces the same trees as a recursive
+     * descent through the four rules above.
+     *
+     * Operators of equal precedence are left associative, so a chain of them
+     * is consumed by the loop rather than by recursion; the parser only
+     * recurses when the precedence increases. The depth is therefore bounded
+     * by the number of precedence levels (plus any grouping), however long the
+     * chain, and an operand costs one call instead of one per level.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException {
+        int start = start();
+        Ast.Expression left = parsePrimaryExpression();
+        int precedence = binaryPrecedence();
+        while (precedence >= minimum) {
+            String operator = tokens.literal(0);
+            tokens.advance();
+            Ast.Expression right = parseBinaryExpression(precedence + 1);
+            left = span(new Ast.Expression.Binary(operator, left, right), start);
+            precedence = binaryPrecedence();
         }
-
         return left;
     }
 
+    /**
+     * Returns the precedence of the binary operator at the current token, or
+     * -1 if it is not a binary operator.
+     */
+    private int binaryPrecedence() {
+        if (!tokens.has(0) || tokens.type(0) != Token.Type.OPERATOR) {
+            return -1;
+        }
+        switch (tokens.literal(0)) {
+            case "&&":
+            case "||":
+                return LOGICAL;
+            case "<":
+            case ">":
+            case "==":
+            case "!=":
+                return COMPARISON;
+            case "+":
+            case "-":
+                return ADDITIVE;
+            case "*":
+            case "/":
+            case "^":
+                return MULTIPLICATIVE;
+            default:
+                return -1;
+        }
+    }
+
     /**
      * Parses the {@code primary-expression} rule. This is the top-level rule
      * for expressions and includes literal values, grouping, variables, and
@@ -536,90 +769,40 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expression parsePrimaryExpression() throws ParseException {
+        int start = start();
 
         if (match("NIL")){
-            return new Ast.Expression.Literal(null);
+            return span(new Ast.Expression.Literal(null), start);
         }
         //if there is a boolean literal
         //have a 'TRUE' identifier, produce boolean true value
         else if (match("TRUE")) {
-            return new Ast.Expression.Literal(new Boolean(true));
+            return span(new Ast.Expression.Literal(new Boolean(true)), start);
         }
         else if (match("FALSE")) {
-            return new Ast.Expression.Literal(new Boolean(false));
+            return span(new Ast.Expression.Literal(new Boolean(false)), start);
         }
         else if (match(Token.Type.INTEGER)){
-            return new Ast.Expression.Literal(new BigInteger(tokens.get(-1).getLiteral()));
+            return span(new Ast.Expression.Literal(Literals.decodeInteger(
+                    tokens.text(-1), tokens.textStart(-1), tokens.textStart(-1) + tokens.length(-1))), start);
         }
         else if (match(Token.Type.DECIMAL)){
-            return new Ast.Expression.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
+            return span(new Ast.Expression.Literal(Literals.decodeDecimal(
+                    tokens.text(-1), tokens.textStart(-1), tokens.textStart(-1) + tokens.length(-1))), start);
         }
         /*
-         Character values are represented with the Character class.
-         You will need to remove the surrounding single quotes (') from the literal
-         returned by the Lexer and replace any escape characters (hint, see String#replace).
-         '\' 'n' different from \n
-         "'\\n'" -> "'\n'"
-         '\n' -> 'newline char'
-
-         "''"
-         "'c'" -> "c"
-         "'\n'" -> "
-          "
-
-          //"'\\n'"
-
-         NonJava: \n
-         Java: '\\n'
+         Character and string values are represented with the Character and
+         String classes, without their surrounding quotes and with escapes
+         decoded. Both are decoded in a single pass straight from the source
+         characters, see Literals.
          */
-        else if(match(Token.Type.CHARACTER)){
-            String character = tokens.get(-1).getLiteral();
-            character = character.substring(1, character.length()-1);
-            //CharacterIterator iterator = new StringCharacterIterator(character);
-            //'a'
-            //escape characters
-            if(character.equals("\\b")){
-                return new Ast.Expression.Literal(new Character('\b'));
-            }
-            else if(character.equals("\\n")){
-                return new Ast.Expression.Literal(new Character('\n'));
-            }
-            else if(character.equals("\\r")){
-                return new Ast.Expression.Literal(new Character('\r'));
-            }
-            else if(character.equals("\\t")){
-                return new Ast.Expression.Literal(new Character('\t'));
-            }
-            else if(character.equals("\\\'")){
-                return new Ast.Expression.Literal(new Character('\''));
-            }
-            else if(character.equals("\\\"")){
-                return new Ast.Expression.Literal(new Character('\"'));
-            }
-            else if(character.equals("\\\\")){
-                return new Ast.Expression.Literal(new Character('\\'));
-            }
-
-            //other characters
-            else{
-                return new Ast.Expression.Literal(new Character(character.charAt(0)));
-            }
+        else if (match(Token.Type.CHARACTER)) {
+            return span(new Ast.Expression.Literal(Literals.decodeCharacter(
+                    tokens.text(-1), tokens.textStart(-1), tokens.textStart(-1) + tokens.length(-1))), start);
         }
-
-        //"Hello,\\nWorld!"
-        //replace any escape characters (hint, see String#replace).
-        else if (match(Token.Type.STRING)){
-            String inputString = tokens.get(-1).getLiteral();
-            inputString = inputString.substring(1, inputString.length()-1);
-            inputString = inputString.replace("\\b", "\b");
-            inputString = inputString.replace("\\n", "\n");
-            inputString = inputString.replace("\\r", "\r");
-            inputString = inputString.replace("\\t", "\t");
-            inputString = inputString.replace("\\\'", "\'");
-            inputString = inputString.replace("\\\"", "\"");
-            inputString = inputString.replace("\\\\", "\\");
-
-            return new Ast.Expression.Literal(inputString);
+        else if (match(Token.Type.STRING)) {
+            return span(new Ast.Expression.Literal(Literals.decodeString(
+                    tokens.text(-1), tokens.textStart(-1), tokens.textStart(-1) + tokens.length(-1))), start);
         }
 
         else if (match("(")) {  //grouped expressions
@@ -628,10 +811,10 @@ public final class Parser {
                 throw new ParseException("Expected closing parenthesis", errorIndex());
             }
 
-            return new Ast.Expression.Group(expression);
+            return span(new Ast.Expression.Group(expression), start);
         }
         else if (match(Token.Type.IDENTIFIER)) {
-            String name = tokens.get(-1).getLiteral();
+            String name = tokens.literal(-1);
 
             if (match("(")) {   //function calls
                 ArrayList<Ast.Expression> parameters = new ArrayList<Ast.Expression>();
@@ -648,7 +831,7 @@ public final class Parser {
                     throw new ParseException("Expected closing parenthesis", errorIndex());
                 }
 
-                return new Ast.Expression.Function(name, parameters);
+                return span(new Ast.Expression.Function(name, parameters), start);
             }
             else if(match("[")) {   //list index access
                 Ast.Expression expression = parseExpression();
@@ -656,10 +839,10 @@ public final class Parser {
                     throw new ParseException("Expected closing bracket", errorIndex());
                 }
 
-                return new Ast.Expression.Access(Optional.of(expression), name);
+                return span(new Ast.Expression.Access(Optional.of(expression), name), start);
             }
             else {
-                return new Ast.Expression.Access(Optional.empty(), name);
+                return span(new Ast.Expression.Access(Optional.empty(), name), start);
             }
         }
         else {
@@ -676,6 +859,9 @@ public final class Parser {
      *
      * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
      * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     *
+     * Tokens interned by the lexer are compared by reference, so every string
+     * pattern must be listed in {@link SymbolTable#RESERVED}.
      */
     private boolean peek(Object... patterns) {
         for (int i = 0; i < patterns.length; i++) {
@@ -683,12 +869,12 @@ public final class Parser {
                 return false;
             }
             else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType()) {
+                if (patterns[i] != tokens.type(i)) {
                     return false;
                 }
             }
             else if (patterns[i] instanceof String) {
-                if (!(patterns[i].equals(tokens.get(i).getLiteral()))) {
+                if (!tokens.literalEquals(i, (String) patterns[i])) {
                     return false;
                 }
             }
@@ -713,13 +899,115 @@ public final class Parser {
         return peek;
     }
 
+    /*
+     * Fixed-arity overloads of peek and match for the patterns the parser
+     * actually uses. Java prefers them over the varargs versions, so every
+     * call site resolves to one of these and parsing allocates no pattern
+     * arrays and performs no instanceof checks. The varargs versions remain
+     * for any other combination.
+     */
+
+    private boolean peek(String literal) {
+        return tokens.has(0) && tokens.literalEquals(0, literal);
+    }
+
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.type(0) == type;
+    }
+
+    private boolean peek(String literal, Token.Type type) {
+        return peek(literal) && tokens.has(1) && tokens.type(1) == type;
+    }
+
+    private boolean match(String literal) {
+        if (peek(literal)) {
+            tokens.advance();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean match(Token.Type type) {
+        if (peek(type)) {
+            tokens.advance();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean match(String literal, Token.Type type) {
+        if (peek(literal, type)) {
+            tokens.advance();
+            tokens.advance();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips to the next synchronization point after an error in an item that
+     * started at the given position: past the next {@code ;}, or up to the
+     * next {@code FUN} or keyword ending a block, which the caller handles. At
+     * the top level, where no block is open, an {@code END} is skipped as
+     * well. At least one token is always consumed if the item consumed none,
+     * so that recovery makes progress.
+     */
+    private void synchronize(int start, boolean topLevel) {
+        if (tokens.position() == start && tokens.has(0) && !peek("FUN") && !isBlockEnd()) {
+            tokens.advance();
+        }
+        while (tokens.has(0) && !peek("FUN")) {
+            if (match(";") || (topLevel && match("END"))) {
+                return;
+            }
+            if (!topLevel && isBlockEnd()) {
+                return;
+            }
+            if (topLevel && (peek("LIST") || peek("VAR") || peek("VAL"))) {
+                return;
+            }
+            tokens.advance();
+        }
+    }
+
+    private boolean isBlockEnd() {
+        return peek("END") || peek("ELSE") || peek("CASE") || peek("DEFAULT");
+    }
+
+    /**
+     * Returns the start of the current token, to be passed to {@link
+     * #span(Ast, int)} once the node starting there has been parsed.
+     */
+    private int start() {
+        return spans == null || !tokens.has(0) ? 0 : tokens.index(0);
+    }
+
+    /**
+     * Records the span of the node from the given start to the end of the
+     * last token consumed, if spans are tracked, and returns the node.
+     */
+    private <T extends Ast> T span(T node, int start) {
+        if (spans != null) {
+            int end = tokens.position() == 0 ? start : tokens.index(-1) + tokens.length(-1);
+            spans.put(node, start, end);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the number of tokens consumed so far.
+     */
+    int position() {
+        return tokens.position();
+    }
+
     private int errorIndex() {
         int index;
         if (tokens.has(0)) {
-            index = tokens.get(0).getIndex();
+            index = tokens.index(0);
         }
         else {
-            index = tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length();
+            index = tokens.index(-1) + tokens.length(-1);
         }
 
         return index;
@@ -732,39 +1020,221 @@ public final class Parser {
         if (!match(Token.Type.IDENTIFIER)) {
             throw new ParseException("Expected identifier", errorIndex());
         }
-        return tokens.get(-1).getLiteral();
+        return tokens.literal(-1);
     }
 
-    private static final class TokenStream {
+    /**
+     * The parser's view of its tokens, relative to the current position. It is
+     * deliberately narrow so that it can be backed either by {@link Token}
+     * objects or by a {@link TokenBuffer} without materializing tokens.
+     */
+    private static abstract class TokenStream {
 
-        private final List<Token> tokens;
-        private int index = 0;
+        /**
+         * Returns true if there is a token at index + offset.
+         */
+        public abstract boolean has(int offset);
 
-        private TokenStream(List<Token> tokens) {
-            this.tokens = tokens;
-        }
+        /**
+         * Advances to the next token, incrementing the index.
+         */
+        public abstract void advance();
+
+        public abstract Token.Type type(int offset);
+
+        public abstract String literal(int offset);
+
+        public abstract boolean literalEquals(int offset, String literal);
 
         /**
-         * Returns true if there is a token at index + offset.
+         * Returns the source index of the token at index + offset.
+         */
+        public abstract int index(int offset);
+
+        public abstract int length(int offset);
+
+        /**
+         * Returns the characters the token at index + offset can be read from,
+         * at {@code [textStart(offset), textStart(offset) + length(offset))},
+         * so literals can be decoded without copying them out first.
          */
+        public abstract CharSequence text(int offset);
+
+        public abstract int textStart(int offset);
+
+        /**
+         * Returns the number of tokens advanced over.
+         */
+        public abstract int position();
+
+    }
+
+    /**
+     * A bounded window over a token iterator. Tokens are pulled lazily as the
+     * parser looks ahead and are dropped once they fall behind the window, so
+     * the parser never needs the whole token list in memory.
+     */
+    private static final class WindowTokenStream extends TokenStream {
+
+        /**
+         * Size of the window, which must be a power of two. The parser looks at
+         * most one token behind ({@code get(-1)}) and two ahead ({@code
+         * peek(",", Token.Type.IDENTIFIER)}).
+         */
+        private static final int WINDOW = 4;
+        private static final int LOOKBEHIND = 1;
+
+        private final Iterator<Token> source;
+        private final Token[] window = new Token[WINDOW];
+        private int index = 0;
+        private int fetched = 0;
+
+        private WindowTokenStream(Iterator<Token> source) {
+            this.source = source;
+        }
+
+        @Override
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            requireWindow(offset);
+            int target = index + offset;
+            while (fetched <= target && source.hasNext()) {
+                window[fetched & (WINDOW - 1)] = source.next();
+                fetched++;
+            }
+            return target < fetched;
+        }
+
+        @Override
+        public void advance() {
+            index++;
+        }
+
+        @Override
+        public Token.Type type(int offset) {
+            return get(offset).getType();
+        }
+
+        @Override
+        public String literal(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public boolean literalEquals(int offset, String literal) {
+            Token token = get(offset);
+            if (token.isInterned()) {
+                //keywords and operators were classified by the lexer, see SymbolTable#RESERVED
+                return token.getLiteral() == literal;
+            }
+            return literal.equals(token.getLiteral());
+        }
+
+        @Override
+        public int index(int offset) {
+            return get(offset).getIndex();
+        }
+
+        @Override
+        public int length(int offset) {
+            return get(offset).getLiteral().length();
+        }
+
+        @Override
+        public CharSequence text(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public int textStart(int offset) {
+            return 0;
+        }
+
+        @Override
+        public int position() {
+            return index;
         }
 
         /**
          * Gets the token at index + offset.
          */
-        public Token get(int offset) {
-            return tokens.get(index + offset);
+        private Token get(int offset) {
+            if (index + offset < 0 || !has(offset)) {
+                throw new IndexOutOfBoundsException("No token at " + (index + offset) + ".");
+            }
+            return window[(index + offset) & (WINDOW - 1)];
         }
 
-        /**
-         * Advances to the next token, incrementing the index.
-         */
+        private void requireWindow(int offset) {
+            if (offset < -LOOKBEHIND || offset >= WINDOW - LOOKBEHIND) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside of the token window.");
+            }
+        }
+
+    }
+
+    /**
+     * A token stream reading directly from the parallel arrays of a {@link
+     * TokenBuffer}.
+     */
+    private static final class BufferTokenStream extends TokenStream {
+
+        private final TokenBuffer tokens;
+        private int index = 0;
+
+        private BufferTokenStream(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < tokens.size();
+        }
+
+        @Override
         public void advance() {
             index++;
         }
 
+        @Override
+        public Token.Type type(int offset) {
+            return tokens.getType(index + offset);
+        }
+
+        @Override
+        public String literal(int offset) {
+            return tokens.getLiteral(index + offset);
+        }
+
+        @Override
+        public boolean literalEquals(int offset, String literal) {
+            return tokens.literalEquals(index + offset, literal);
+        }
+
+        @Override
+        public int index(int offset) {
+            return tokens.getStart(index + offset);
+        }
+
+        @Override
+        public int length(int offset) {
+            return tokens.getLength(index + offset);
+        }
+
+        @Override
+        public CharSequence text(int offset) {
+            return tokens.getSource();
+        }
+
+        @Override
+        public int textStart(int offset) {
+            return tokens.getStart(index + offset);
+        }
+
+        @Override
+        public int position() {
+            return index;
+        }
+
     }
 
 }
@@ -0,0 +1,287 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the variables of a source or function to addresses, so they can be
+ * kept in arrays and accessed by index rather than looked up by name through
+ * a chain of {@link Scope}s, as the {@link ClosureInterpreter} does. Built
+ * with {@link #of(Ast.Source)} or {@link #of(Ast.Function)}.
+ *
+ * An address is a depth and a slot, packed into an {@code int} by {@link
+ * #pack(int, int)}. Depth {@link #LOCAL} is the frame of a call: the
+ * parameters of the function, numbered from 0, followed by the variables
+ * declared in its body. A block, which is the body of an {@code IF}, {@code
+ * SWITCH} case, or {@code WHILE}, numbers its variables after those of the
+ * blocks enclosing it and releases them when it ends, so a frame only has as
+ * many slots as there are variables in scope at once. Depth {@link #GLOBAL}
+ * is the frame of the globals, numbered in the order they are declared.
+ *
+ * {@link Ast.Global}s, {@link Ast.Statement.Declaration}s, and {@link
+ * Ast.Expression.Access}es have the address of the variable they declare or
+ * access. Variables the source does not declare, such as those of the scope
+ * it runs in, have none and are looked up by name as before. Neither do any
+ * of the variables of a function that declares a variable twice in a block or
+ * has two parameters of the same name, since the {@link Interpreter} only
+ * fails on those when it runs them.
+ *
+ * Like {@link SourceSpans}, addresses are kept in a side table keyed by node
+ * identity, leaving the AST unchanged.
+ */
+public final class Resolver {
+
+    public static final int LOCAL = 0;
+    public static final int GLOBAL = 1;
+
+    private final Map<Ast, Integer> addresses = new IdentityHashMap<>();
+    private final Map<Ast.Function, Integer> frameSizes = new IdentityHashMap<>();
+    private int globals = 0;
+
+    private Resolver() {}
+
+    public static Resolver of(Ast.Source ast) {
+        Resolver resolver = new Resolver();
+        resolver.new Walker().visit(ast);
+        return resolver;
+    }
+
+    public static Resolver of(Ast.Function ast) {
+        Resolver resolver = new Resolver();
+        resolver.new Walker().visit(ast);
+        return resolver;
+    }
+
+    /**
+     * Returns the address of the global, declaration, or access, or -1 if it
+     * has none. See {@link #depth(int)} and {@link #slot(int)}.
+     */
+    public int getAddress(Ast node) {
+        Integer address = addresses.get(node);
+        return address != null ? address : -1;
+    }
+
+    /**
+     * Returns the number of slots of the frame of a call of the function, or
+     * -1 if its variables were not resolved.
+     */
+    public int getFrameSize(Ast.Function ast) {
+        Integer size = frameSizes.get(ast);
+        return size != null ? size : -1;
+    }
+
+    /**
+     * Returns the number of slots of the frame of the globals.
+     */
+    public int getGlobals() {
+        return globals;
+    }
+
+    public static int pack(int depth, int slot) {
+        return depth << 24 | slot;
+    }
+
+    public static int depth(int address) {
+        return address >>> 24;
+    }
+
+    public static int slot(int address) {
+        return address & 0xFFFFFF;
+    }
+
+    private final class Walker implements Ast.Visitor<Void> {
+
+        private final Map<String, Integer> globalSlots = new HashMap<>();
+
+        /** The variables of each enclosing block of the current function, innermost first. */
+        private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+        /** The nodes given an address in the current function, removed if it can't be resolved. */
+        private final List<Ast> resolved = new ArrayList<>();
+        private int next = 0;
+        private int size = 0;
+        private boolean valid = true;
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            for (Ast.Global global : ast.getGlobals()) {
+                visit(global);
+            }
+            for (Ast.Function function : ast.getFunctions()) {
+                visit(function);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            //the initializer only sees the globals declared before it
+            ast.getValue().ifPresent(this::visit);
+            int slot = globals++;
+            globalSlots.put(ast.getName(), slot);
+            addresses.put(ast, pack(GLOBAL, slot));
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            scopes.push(new HashMap<>());
+            next = 0;
+            size = 0;
+            valid = true;
+            resolved.clear();
+            for (String parameter : ast.getParameters()) {
+                declare(parameter);
+            }
+            for (Ast.Statement statement : ast.getStatements()) {
+                visit(statement);
+            }
+            scopes.clear();
+            if (valid) {
+                frameSizes.put(ast, size);
+            }
+            else {
+                resolved.forEach(addresses::remove);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            ast.getValue().ifPresent(this::visit);
+            record(ast, pack(LOCAL, declare(ast.getName())));
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            visit(ast.getReceiver());
+            return visit(ast.getValue());
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            visit(ast.getCondition());
+            block(ast.getThenStatements());
+            block(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            visit(ast.getCondition());
+            for (Ast.Statement.Case statement : ast.getCases()) {
+                visit(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            ast.getValue().ifPresent(this::visit);
+            block(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            visit(ast.getCondition());
+            block(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            return visit(ast.getValue());
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            visit(ast.getLeft());
+            return visit(ast.getRight());
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            ast.getOffset().ifPresent(this::visit);
+            for (Map<String, Integer> scope : scopes) {
+                if (scope.containsKey(ast.getName())) {
+                    record(ast, pack(LOCAL, scope.get(ast.getName())));
+                    return null;
+                }
+            }
+            if (globalSlots.containsKey(ast.getName())) {
+                record(ast, pack(GLOBAL, globalSlots.get(ast.getName())));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            for (Ast.Expression argument : ast.getArguments()) {
+                visit(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            for (Ast.Expression value : ast.getValues()) {
+                visit(value);
+            }
+            return null;
+        }
+
+        private void block(List<Ast.Statement> statements) {
+            scopes.push(new HashMap<>());
+            int start = next;
+            for (Ast.Statement statement : statements) {
+                visit(statement);
+            }
+            scopes.pop();
+            next = start;
+        }
+
+        /**
+         * Allocates a slot for a variable of the current block, which is
+         * released when the block ends.
+         */
+        private int declare(String name) {
+            if (scopes.peek().containsKey(name)) {
+                valid = false;
+                return scopes.peek().get(name);
+            }
+            size = Math.max(size, next + 1);
+            scopes.peek().put(name, next);
+            return next++;
+        }
+
+        private void record(Ast node, int address) {
+            addresses.put(node, address);
+            if (!scopes.isEmpty()) {
+                resolved.add(node);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package plc.project;
+
+/**
+ * A side table of source spans for {@link Ast} nodes, filled in by {@link
+ * Parser#recordSpans(SourceSpans)}. Keeping spans out of the nodes leaves the
+ * AST (and its {@code equals}) unchanged and costs nothing when spans are not
+ * needed.
+ *
+ * Nodes are keyed by identity, since structurally equal nodes at different
+ * places in the source are still different nodes. Each span is packed into a
+ * single {@code long}, the start offset in the high half and the end offset
+ * in the low half, stored in a primitive array parallel to an open addressing
+ * table of nodes, so the table holds no per-entry objects.
+ */
+public final class SourceSpans {
+
+    private Ast[] nodes = new Ast[64];
+    private long[] spans = new long[64];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Records the span {@code [start, end)} of the node, replacing any span
+     * recorded before.
+     */
+    public void put(Ast node, int start, int end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid span [" + start + ", " + end + ").");
+        }
+        int slot = slot(node);
+        if (nodes[slot] == null) {
+            nodes[slot] = node;
+            size++;
+        }
+        spans[slot] = pack(start, end);
+        if (size * 2 > nodes.length) {
+            grow();
+        }
+    }
+
+    public boolean contains(Ast node) {
+        return nodes[slot(node)] != null;
+    }
+
+    /**
+     * Returns the packed span of the node, or -1 if it has none. See {@link
+     * #start(long)} and {@link #end(long)}.
+     */
+    public long get(Ast node) {
+        int slot = slot(node);
+        return nodes[slot] != null ? spans[slot] : -1;
+    }
+
+    public int getStart(Ast node) {
+        return start(require(node));
+    }
+
+    public int getEnd(Ast node) {
+        return end(require(node));
+    }
+
+    public static long pack(int start, int end) {
+        return ((long) start << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    public static int start(long span) {
+        return (int) (span >>> 32);
+    }
+
+    public static int end(long span) {
+        return (int) span;
+    }
+
+    private long require(Ast node) {
+        long span = get(node);
+        if (span == -1) {
+            throw new IllegalArgumentException("No span recorded for " + node.getClass().getSimpleName() + ".");
+        }
+        return span;
+    }
+
+    /**
+     * Returns the slot holding the node, or the empty slot where it belongs.
+     */
+    private int slot(Ast node) {
+        int mask = nodes.length - 1;
+        int slot = mix(System.identityHashCode(node)) & mask;
+        while (nodes[slot] != null && nodes[slot] != node) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        Ast[] oldNodes = nodes;
+        long[] oldSpans = spans;
+        nodes = new Ast[oldNodes.length * 2];
+        spans = new long[oldSpans.length * 2];
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] != null) {
+                int slot = slot(oldNodes[i]);
+                nodes[slot] = oldNodes[i];
+                spans[slot] = oldSpans[i];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
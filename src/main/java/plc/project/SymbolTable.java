@@ -0,0 +1,178 @@
+package plc.project;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Interns identifier and operator literals so that every occurrence of a name
+ * shares one {@link String} instance across tokens, the AST, and the {@link
+ * Scope} maps. Lookups read the name straight out of the source, so a name that
+ * has been seen before costs no allocation.
+ *
+ * Every table is seeded with {@link #RESERVED}, the keywords and operators the
+ * {@link Parser} matches on, using the JVM's own constant instances. Keywords
+ * are therefore classified as soon as they are lexed: an interned token is a
+ * given keyword exactly when its literal is the same reference as the
+ * parser's pattern.
+ */
+public final class SymbolTable {
+
+    /**
+     * Every string the parser passes to {@code peek}/{@code match}. Interned
+     * tokens are compared to these by reference, so any new pattern in the
+     * parser must be added here.
+     */
+    static final String[] RESERVED = {
+            "LIST", "VAR", "VAL", "FUN", "DO", "END", "LET", "SWITCH", "CASE", "DEFAULT",
+            "IF", "ELSE", "WHILE", "RETURN", "NIL", "TRUE", "FALSE",
+            ";", ":", ",", "=", "(", ")", "[", "]",
+            "&&", "||", "<", ">", "==", "!=", "+", "-", "*", "/", "^"
+    };
+
+    /**
+     * Canonical instances shared with other tables lexing the same source in
+     * parallel, or null for a standalone table. See {@link #fork()}.
+     */
+    private final ConcurrentMap<String, String> canonical;
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    /**
+     * Open addressing table of {@code id + 1}, with 0 marking an empty slot.
+     */
+    private int[] slots = new int[128];
+
+    public SymbolTable() {
+        this(null);
+    }
+
+    private SymbolTable(ConcurrentMap<String, String> canonical) {
+        this.canonical = canonical;
+        for (String name : RESERVED) {
+            add(name, hash(name, 0, name.length()));
+        }
+    }
+
+    /**
+     * Returns a factory of tables for use on other threads. Each table it
+     * creates is private to one thread, but new names are canonicalized
+     * through a shared concurrent map seeded with this table's names, so equal
+     * names still resolve to a single instance. The map is consulted once per
+     * distinct name per table, not once per token. Afterwards, {@link
+     * #merge(SymbolTable)} brings the names back into this table.
+     */
+    Supplier<SymbolTable> fork() {
+        ConcurrentMap<String, String> shared = new ConcurrentHashMap<>();
+        for (int id = 0; id < size; id++) {
+            shared.put(names[id], names[id]);
+        }
+        return () -> new SymbolTable(shared);
+    }
+
+    /**
+     * Adds every name of {@code other} to this table, keeping the instances
+     * already present in this table.
+     */
+    void merge(SymbolTable other) {
+        for (int id = 0; id < other.size; id++) {
+            id(other.names[id], 0, other.names[id].length());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of the symbol spelled by {@code source[start, end)},
+     * adding it to the table if it is new.
+     */
+    public int id(CharSequence source, int start, int end) {
+        int hash = hash(source, start, end);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(names[id], source, start, end)) {
+                return id;
+            }
+        }
+        return add(source.subSequence(start, end).toString(), hash);
+    }
+
+    /**
+     * Returns the canonical instance of the symbol with the given id.
+     */
+    public String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol " + id + ".");
+        }
+        return names[id];
+    }
+
+    /**
+     * Returns the canonical instance of the symbol spelled by {@code
+     * source[start, end)}.
+     */
+    public String intern(CharSequence source, int start, int end) {
+        int id = id(source, start, end); //may grow names, so read it afterwards
+        return names[id];
+    }
+
+    private int add(String name, int hash) {
+        if (canonical != null) {
+            String existing = canonical.putIfAbsent(name, name);
+            name = existing != null ? existing : name;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        names[size] = name;
+        hashes[size] = hash;
+        size++;
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int id = 0; id < size; id++) {
+                insert(id);
+            }
+        }
+        else {
+            insert(size - 1);
+        }
+        return size - 1;
+    }
+
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -14,11 +14,21 @@ public final class Token {
     private final Type type;
     private final String literal;
     private final int index;
+    private final boolean interned;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, false);
+    }
+
+    /**
+     * Creates a token whose literal may be the canonical instance from a
+     * {@link SymbolTable}, in which case it can be compared by reference.
+     */
+    public Token(Type type, String literal, int index, boolean interned) {
         this.type = type;
         this.literal = literal;
         this.index = index;
+        this.interned = interned;
     }
 
     public Type getType() {
@@ -33,6 +43,14 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns true if the literal is the canonical instance from a {@link
+     * SymbolTable}.
+     */
+    public boolean isInterned() {
+        return interned;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
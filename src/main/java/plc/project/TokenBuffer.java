@@ -0,0 +1,134 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A compact, struct-of-arrays alternative to a {@code List<Token>}. Each token
+ * is stored as a type ordinal, a start offset, and a length in parallel
+ * primitive arrays that point back into the source, so lexing a large input
+ * creates no per-token objects and copies no literals.
+ *
+ * Identifiers and operators are interned into a {@link SymbolTable} as they
+ * are added, and their symbol ids are kept in a fourth array; reading their
+ * literal returns the shared instance and {@link #literalEquals(int, String)}
+ * is a reference comparison. Other literals are only materialized when {@link
+ * #getLiteral(int)} or {@link #get(int)} is called. The {@link Parser} can run
+ * directly on a buffer through {@link Parser#Parser(TokenBuffer)}.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final CharSequence source;
+    private final SymbolTable symbols;
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] ids = new int[64];
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this(source, new SymbolTable());
+    }
+
+    public TokenBuffer(CharSequence source, SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(Token.Type type, int start, int length) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        ids[size] = type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR
+                ? symbols.id(source, start, start + length)
+                : -1;
+        size++;
+    }
+
+    public Token.Type getType(int index) {
+        return TYPES[types[check(index)]];
+    }
+
+    /**
+     * Returns the offset of the token in the source, as in {@link
+     * Token#getIndex()}.
+     */
+    public int getStart(int index) {
+        return starts[check(index)];
+    }
+
+    public int getLength(int index) {
+        return lengths[check(index)];
+    }
+
+    /**
+     * Returns the symbol id of an identifier or operator token, or -1 for
+     * any other token.
+     */
+    public int getSymbol(int index) {
+        return ids[check(index)];
+    }
+
+    /**
+     * Returns the literal of the token: the shared instance for identifiers
+     * and operators, or a copy out of the source for anything else.
+     */
+    public String getLiteral(int index) {
+        if (ids[check(index)] >= 0) {
+            return symbols.name(ids[index]);
+        }
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Returns true if the literal of the token is exactly {@code literal},
+     * without materializing it. For identifiers and operators this is a
+     * reference comparison, so {@code literal} must be one of the {@link
+     * SymbolTable#RESERVED} constants or an instance from the same table.
+     */
+    public boolean literalEquals(int index, String literal) {
+        if (ids[check(index)] >= 0) {
+            return symbols.name(ids[index]) == literal;
+        }
+        if (lengths[index] != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (source.charAt(starts[index] + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Materializes the token as a {@link Token}.
+     */
+    public Token get(int index) {
+        return new Token(getType(index), getLiteral(index), getStart(index), ids[index] >= 0);
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " tokens.");
+        }
+        return index;
+    }
+
+}
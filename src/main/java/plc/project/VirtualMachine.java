@@ -0,0 +1,281 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes {@link Bytecode}, as an alternative to the {@link Interpreter}
+ * with the same results: {@link #run(Bytecode)} initializes the globals and
+ * returns the result of {@code main}, as {@link Interpreter#visit(Ast.Source)}
+ * does.
+ *
+ * Values live on a single stack. The arguments of a call become the first
+ * locals of the called function, followed by its other locals and then the
+ * values of its expressions; the result replaces them when it returns.
+ * Globals are kept in an array, and the scope given to the machine, which
+ * also defines {@code print}, is only used for variables and functions the
+ * source does not define.
+ */
+public final class VirtualMachine {
+
+    private static final Object NIL = Environment.NIL.getValue();
+
+    private final Scope scope;
+    private final Interpreter interpreter = new Interpreter(new Scope(null));
+    private Bytecode bytecode;
+    private Object[] globals;
+    private Object[] stack = new Object[1024];
+
+    public VirtualMachine(Scope parent) {
+        scope = new Scope(parent);
+        scope.defineFunction("print", 1, args -> {
+            System.out.println(args.get(0).getValue());
+            return Environment.NIL;
+        });
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    public Environment.PlcObject run(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.globals = new Object[bytecode.globals];
+        return wrap(execute(0, 0));
+    }
+
+    /**
+     * Executes a function whose arguments are on the stack from the base, and
+     * returns its result.
+     */
+    private Object execute(int function, int base) {
+        int[] code = bytecode.code;
+        Object[] constants = bytecode.constants;
+        int sp = base + bytecode.locals[function];
+        if (sp + bytecode.stacks[function] > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + bytecode.stacks[function]));
+        }
+        Object[] stack = this.stack;
+        int pc = bytecode.entries[function];
+        while (true) {
+            switch (code[pc]) {
+                case Bytecode.CONST:
+                    stack[sp++] = constants[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case Bytecode.LOAD:
+                    stack[sp++] = stack[base + code[pc + 1]];
+                    pc += 2;
+                    break;
+                case Bytecode.STORE:
+                    stack[base + code[pc + 1]] = stack[--sp];
+                    pc += 2;
+                    break;
+                case Bytecode.ASSIGNABLE:
+                    if (stack[--sp] instanceof List) {
+                        throw new RuntimeException("List cannot be reassigned.");
+                    }
+                    pc += 1;
+                    break;
+                case Bytecode.GLOAD:
+                    stack[sp++] = globals[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case Bytecode.GSTORE:
+                    globals[code[pc + 1]] = stack[--sp];
+                    pc += 2;
+                    break;
+                case Bytecode.LOOKUP:
+                    stack[sp++] = scope.lookupVariable((String) constants[code[pc + 1]]).getValue().getValue();
+                    pc += 2;
+                    break;
+                case Bytecode.ASSIGN:
+                    scope.lookupVariable((String) constants[code[pc + 1]]).setValue(wrap(stack[--sp]));
+                    pc += 2;
+                    break;
+                case Bytecode.INDEX: {
+                    int index = require(BigInteger.class, stack[--sp]).intValue();
+                    List<Object> list = unchecked(stack[sp - 1]);
+                    if (index >= list.size() || index < 0) {
+                        throw new RuntimeException("List index out of bounds.");
+                    }
+                    stack[sp - 1] = list.get(index);
+                    pc += 1;
+                    break;
+                }
+                case Bytecode.SET_INDEX: {
+                    Object value = stack[--sp];
+                    int index = require(BigInteger.class, stack[--sp]).intValue();
+                    List<Object> list = unchecked(stack[--sp]);
+                    list.set(index, value);
+                    pc += 1;
+                    break;
+                }
+                case Bytecode.LIST: {
+                    int count = code[pc + 1];
+                    sp -= count;
+                    stack[sp] = new ArrayList<>(Arrays.asList(stack).subList(sp, sp + count));
+                    sp++;
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.POP:
+                    stack[--sp] = null;
+                    pc += 1;
+                    break;
+                case Bytecode.JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case Bytecode.JUMP_FALSE:
+                    pc = require(Boolean.class, stack[--sp]) ? pc + 2 : code[pc + 1];
+                    break;
+                case Bytecode.JUMP_TRUE:
+                    pc = require(Boolean.class, stack[--sp]) ? code[pc + 1] : pc + 2;
+                    break;
+                case Bytecode.BOOLEAN:
+                    require(Boolean.class, stack[sp - 1]);
+                    pc += 1;
+                    break;
+                case Bytecode.ADD_INTEGER:
+                    sp--;
+                    stack[sp - 1] = ((BigInteger) stack[sp - 1]).add((BigInteger) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.SUBTRACT_INTEGER:
+                    sp--;
+                    stack[sp - 1] = ((BigInteger) stack[sp - 1]).subtract((BigInteger) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.MULTIPLY_INTEGER:
+                    sp--;
+                    stack[sp - 1] = ((BigInteger) stack[sp - 1]).multiply((BigInteger) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.DIVIDE_INTEGER:
+                    sp--;
+                    if (stack[sp].equals(BigInteger.ZERO)) {
+                        throw new RuntimeException("Can't divide by zero.");
+                    }
+                    stack[sp - 1] = ((BigInteger) stack[sp - 1]).divide((BigInteger) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.ADD_DECIMAL:
+                    sp--;
+                    stack[sp - 1] = ((BigDecimal) stack[sp - 1]).add((BigDecimal) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.SUBTRACT_DECIMAL:
+                    sp--;
+                    stack[sp - 1] = ((BigDecimal) stack[sp - 1]).subtract((BigDecimal) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.MULTIPLY_DECIMAL:
+                    sp--;
+                    stack[sp - 1] = ((BigDecimal) stack[sp - 1]).multiply((BigDecimal) stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.DIVIDE_DECIMAL:
+                    sp--;
+                    if (stack[sp].equals(BigDecimal.ZERO)) {
+                        throw new RuntimeException("Can't divide by zero.");
+                    }
+                    stack[sp - 1] = ((BigDecimal) stack[sp - 1]).divide((BigDecimal) stack[sp], RoundingMode.HALF_EVEN);
+                    pc += 1;
+                    break;
+                case Bytecode.LESS:
+                case Bytecode.GREATER: {
+                    sp--;
+                    Comparable<Object> left = unchecked(require(Comparable.class, stack[sp - 1]));
+                    int comparison = left.compareTo(require(left.getClass(), stack[sp]));
+                    stack[sp - 1] = code[pc] == Bytecode.LESS ? comparison < 0 : comparison > 0;
+                    pc += 1;
+                    break;
+                }
+                case Bytecode.EQUAL:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1].equals(stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !stack[sp - 1].equals(stack[sp]);
+                    pc += 1;
+                    break;
+                case Bytecode.BINARY: {
+                    sp--;
+                    Environment.PlcObject right = wrap(stack[sp]);
+                    stack[sp - 1] = interpreter.binary((String) constants[code[pc + 1]], wrap(stack[sp - 1]), () -> right).getValue();
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.CALL: {
+                    int arity = code[pc + 2];
+                    Object result = execute(code[pc + 1], sp - arity);
+                    stack = this.stack;
+                    sp -= arity;
+                    stack[sp++] = result;
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.INVOKE: {
+                    String name = (String) constants[code[pc + 1]];
+                    int arity = code[pc + 2];
+                    List<Environment.PlcObject> arguments = new ArrayList<>(arity);
+                    for (int i = sp - arity; i < sp; i++) {
+                        arguments.add(wrap(stack[i]));
+                    }
+                    Object result = scope.lookupFunction(name, arity).invoke(arguments).getValue();
+                    stack = this.stack;
+                    sp -= arity;
+                    stack[sp++] = result;
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.RETURN: {
+                    Object result = stack[--sp];
+                    Arrays.fill(stack, base, sp, null);
+                    return result;
+                }
+                case Bytecode.FAIL:
+                    throw new RuntimeException((String) constants[code[pc + 1]]);
+                case Bytecode.MUTABLE: {
+                    Environment.Variable variable = scope.lookupVariable((String) constants[code[pc + 1]]);
+                    if (!variable.getMutable()) {
+                        throw new RuntimeException("Expected mutable receiver.");
+                    }
+                    stack[sp++] = variable.getValue().getValue();
+                    pc += 2;
+                    break;
+                }
+                default:
+                    throw new AssertionError("Unknown opcode " + code[pc] + ".");
+            }
+        }
+    }
+
+    private static <T> T require(Class<T> type, Object value) {
+        if (type.isInstance(value)) {
+            return type.cast(value);
+        } else {
+            throw new RuntimeException("Expected type " + type.getName() + ", received " + value.getClass().getName() + ".");
+        }
+    }
+
+    /**
+     * Casts a value of the stack to a generic type, which the cast can only
+     * check up to its erasure.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T unchecked(Object value) {
+        return (T) value;
+    }
+
+    private static Environment.PlcObject wrap(Object value) {
+        return value == NIL ? Environment.NIL : Environment.create(value);
+    }
+
+}
@@ -1,14 +1,19 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -563,6 +568,184 @@ public final class AnalyzerTests {
         );
     }
 
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testConstantFolding(String test, String expression, String expected) {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 5; VAR b: Boolean = TRUE;\n"
+                + "FUN main(): Integer DO print(" + expression + "); RETURN 0; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Expression original = argument(ast);
+        ConstantFolder folder = new ConstantFolder();
+        Ast.Source folded = folder.visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(argument(folded));
+        Assertions.assertEquals(expected, writer.toString());
+        Assertions.assertEquals(folder.getFolded() + folder.getUnwrapped() == 0, folded == ast);
+        Assertions.assertEquals(evaluate(original), evaluate(argument(folded)));
+    }
+
+    @Test
+    public void testConstantFoldingCounts() {
+        //only binary expressions count as folded, groups are counted apart
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 5;\n"
+                + "FUN main(): Integer DO print((1 + 2) * x); print((x + 0) * 2); RETURN 0; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        ConstantFolder folder = new ConstantFolder();
+        folder.visit(ast);
+        Assertions.assertEquals(2, folder.getFolded());
+        Assertions.assertEquals(2, folder.getUnwrapped());
+    }
+
+    private static Stream<Arguments> testConstantFolding() {
+        return Stream.of(
+                Arguments.of("Arithmetic", "1 + 2 * 3", "7"),
+                Arguments.of("Nested Groups", "(1 + 2) * (10 - (4 / 2))", "24"),
+                Arguments.of("Partial", "x + 2 * 3", "x + 6"),
+                Arguments.of("Identities", "(x * 1 + 0) - 0", "x"),
+                Arguments.of("Left Identities", "1 * x + (0 + x / 1)", "x + x"),
+                Arguments.of("Division By Zero", "x + 1 / 0", "x + 1 / 0"),
+                Arguments.of("Integer Division", "7 / 2 - -7 / 2", "6"),
+                Arguments.of("Overflow", "2147483647 + 1", "2147483647 + 1"),
+                Arguments.of("Power", "2 ^ 3", "Math.pow(2, 3)"),
+                Arguments.of("Decimal", "1.1 + 2.2", "1.1 + 2.2"),
+                Arguments.of("Concatenation", "\"a\" + \"b\" + 1 + 'c' + TRUE", "\"ab1ctrue\""),
+                Arguments.of("Decimal Concatenation", "\"a\" + 1.0", "\"a\" + 1.0"),
+                Arguments.of("Comparison", "1 < 2 && 'b' > 'a' && 1 != 2", "true"),
+                Arguments.of("Short Circuit", "FALSE && b", "false"),
+                Arguments.of("Short Circuit Identity", "TRUE && b || FALSE", "b"),
+                Arguments.of("Short Circuit Right", "b && FALSE", "b && false"),
+                Arguments.of("String Equality", "\"a\" == \"a\"", "\"a\" == \"a\"")
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testDeadCodeElimination(String test, String body, String expected, int removed) {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 0;\nFUN main(): Integer DO " + body + " END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        Ast.Source eliminated = eliminator.visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(eliminated.getFunctions().get(0));
+        Assertions.assertEquals(expected, writer.toString());
+        Assertions.assertEquals(removed, eliminator.getRemoved());
+        Assertions.assertEquals(removed == 0, eliminated == ast);
+    }
+
+    private static Stream<Arguments> testDeadCodeElimination() {
+        return Stream.of(
+                Arguments.of("Unchanged", "x = 1; RETURN x;",
+                        "int main() {\n    x = 1;\n    return x;\n}", 0),
+                Arguments.of("After Return", "RETURN 0; print(1); x = 2;",
+                        "int main() {\n    return 0;\n}", 6),
+                Arguments.of("While False", "WHILE FALSE DO print(1); END RETURN 0;",
+                        "int main() {\n    return 0;\n}", 5),
+                Arguments.of("If True", "IF TRUE DO print(1); ELSE print(2); END RETURN 0;",
+                        "int main() {\n    System.out.println(1);\n    return 0;\n}", 5),
+                Arguments.of("If False", "IF FALSE DO print(1); END RETURN 0;",
+                        "int main() {\n    return 0;\n}", 5),
+                Arguments.of("Return In Branch", "IF TRUE DO RETURN 1; END print(2); RETURN 0;",
+                        "int main() {\n    return 1;\n}", 7),
+                Arguments.of("Nested", "WHILE x < 3 DO IF FALSE DO x = 0; END x = x + 1; END RETURN 0;",
+                        "int main() {\n    while (x < 3) {\n        x = x + 1;\n    }\n    return 0;\n}", 5),
+                Arguments.of("Branch Declaration", "IF FALSE DO print(1); ELSE LET y = 1; print(y); END RETURN 0;",
+                        "int main() {\n    if (false) {\n    } else {\n        int y = 1;\n        System.out.println(y);\n    }\n    return 0;\n}", 3)
+        );
+    }
+
+    private static Ast.Expression argument(Ast.Source ast) {
+        Ast.Statement.Expression statement = (Ast.Statement.Expression) ast.getFunctions().get(0).getStatements().get(0);
+        return ((Ast.Expression.Function) statement.getExpression()).getArguments().get(0);
+    }
+
+    private static Object evaluate(Ast.Expression ast) {
+        Scope scope = new Scope(null);
+        scope.defineVariable("x", true, Environment.create(BigInteger.valueOf(5)));
+        scope.defineVariable("b", true, Environment.create(true));
+        try {
+            return new Interpreter(scope).visit(ast).getValue();
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testSerialization(String test, String source) throws IOException {
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        byte[] data = AstSerializer.write(ast);
+        Assertions.assertTrue(AstSerializer.isCurrent(data));
+        Ast.Source loaded = AstSerializer.read(data);
+        Assertions.assertEquals(ast, loaded);
+        Assertions.assertArrayEquals(data, AstSerializer.write(loaded));
+    }
+
+    private static Stream<Arguments> testSerialization() {
+        return Stream.of(
+                Arguments.of("Empty", "FUN main(): Integer DO RETURN 0; END"),
+                Arguments.of("Literals", "VAL a: Any = NIL; VAR b: Boolean = TRUE; VAR c: Character = '\\n'; "
+                        + "VAR d: Decimal = -12345678901234567890.000000000001; "
+                        + "VAR e: Integer = 2147483647; VAR f: String = \"é\\\"\";\n"
+                        + "FUN main(): Integer DO print(a); print(b); print(c); print(d); print(e); print(f); RETURN 0; END"),
+                Arguments.of("Statements", "LIST l: Integer = [1, 2, 3]; VAR x: Integer;\n"
+                        + "FUN f(a: Integer, b: Decimal): Decimal DO LET y = a; l[y] = (y + 1) * 2; RETURN b; END\n"
+                        + "FUN main(): Integer DO\n"
+                        + "    SWITCH 'c' CASE 'c': x = 1; DEFAULT print(f(x, 1.5)); END\n"
+                        + "    WHILE x < 10 DO x = x + 1; IF x == 5 DO print(x); ELSE print(\"no\"); END END\n"
+                        + "    RETURN 0;\n"
+                        + "END"),
+                Arguments.of("Synthetic", SyntheticPrograms.generate(64 * 1024))
+        );
+    }
+
+    @Test
+    public void testSerializationSharing() throws IOException {
+        //nodes bound to the same variable or function still share it after loading
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 1;\n"
+                + "FUN main(): Integer DO x = x + 1; print(x); print(x); RETURN 0; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source loaded = AstSerializer.read(AstSerializer.write(ast));
+        List<Ast.Statement> statements = loaded.getFunctions().get(0).getStatements();
+        Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) statements.get(0);
+        Ast.Expression.Function first = (Ast.Expression.Function) ((Ast.Statement.Expression) statements.get(1)).getExpression();
+        Ast.Expression.Function second = (Ast.Expression.Function) ((Ast.Statement.Expression) statements.get(2)).getExpression();
+        Assertions.assertSame(loaded.getGlobals().get(0).getVariable(), ((Ast.Expression.Access) assignment.getReceiver()).getVariable());
+        Assertions.assertSame(first.getFunction(), second.getFunction());
+        Assertions.assertSame(Environment.Type.INTEGER, assignment.getValue().getType());
+    }
+
+    @Test
+    public void testSerializationVersion() {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO RETURN 0; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        byte[] data = AstSerializer.write(ast);
+        data[AstSerializer.MAGIC.length]++;
+        Assertions.assertFalse(AstSerializer.isCurrent(data));
+        Assertions.assertThrows(IOException.class, () -> AstSerializer.read(data));
+        Assertions.assertThrows(IOException.class, () -> AstSerializer.read(new byte[] {'P', 'L'}));
+        byte[] truncated = Arrays.copyOf(AstSerializer.write(ast), 10);
+        Assertions.assertThrows(IOException.class, () -> AstSerializer.read(truncated));
+    }
+
+    @Test
+    public void testSerializationCorruptCount() {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 1; FUN main(): Integer DO print(x); RETURN x; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        byte[] data = AstSerializer.write(ast);
+        //a huge varint anywhere is an IOException, or a valid read, rather than an OutOfMemoryError
+        byte[] huge = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        for (int i = AstSerializer.MAGIC.length + 1; i < data.length; i++) {
+            byte[] corrupt = Arrays.copyOf(data, Math.max(data.length, i + huge.length));
+            System.arraycopy(huge, 0, corrupt, i, huge.length);
+            try {
+                AstSerializer.read(corrupt);
+            } catch (IOException e) {
+                //expected
+            }
+        }
+    }
+
     /**
      * Helper function for tests. If {@param expected} is {@code null}, analysis
      * is expected to throw a {@link RuntimeException}.
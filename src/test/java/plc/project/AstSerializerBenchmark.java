@@ -0,0 +1,58 @@
+package plc.project;
+
+import java.io.IOException;
+
+/**
+ * Compares loading an analyzed AST with {@link AstSerializer#read(byte[])}
+ * against rebuilding it from source with the {@link Lexer}, {@link Parser},
+ * and {@link Analyzer}, and reports the size of the serialized form.
+ *
+ * Run with an optional source size in characters, for example {@code java
+ * plc.project.AstSerializerBenchmark 4194304}.
+ */
+public class AstSerializerBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int size = args.length == 0 ? 4 * 1024 * 1024 : Integer.parseInt(args[0]);
+        String source = SyntheticPrograms.generate(size);
+        byte[] data = AstSerializer.write(rebuild(source));
+        if (!AstSerializer.read(data).equals(rebuild(source))) {
+            throw new AssertionError("The loaded AST differs from the analyzed one.");
+        }
+
+        System.out.printf("%,d chars, %,d bytes serialized (%.2f B/char)%n",
+                source.length(), data.length, data.length / (double) source.length());
+        for (int i = 0; i < WARMUP; i++) {
+            rebuild(source);
+            AstSerializer.read(data);
+            AstSerializer.write(rebuild(source));
+        }
+        System.out.printf("%-8s %10s %10s%n", "stage", "ms", "MB/s");
+        Ast.Source ast = rebuild(source);
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            rebuild(source);
+            report("rebuild", System.nanoTime() - start, source.length());
+            start = System.nanoTime();
+            AstSerializer.read(data);
+            report("load", System.nanoTime() - start, source.length());
+            start = System.nanoTime();
+            AstSerializer.write(ast);
+            report("save", System.nanoTime() - start, source.length());
+        }
+    }
+
+    private static Ast.Source rebuild(String source) {
+        Ast.Source ast = new Parser(new Lexer(source).lexBuffer()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        return ast;
+    }
+
+    private static void report(String stage, long nanos, int chars) {
+        System.out.printf("%-8s %10.1f %10.2f%n", stage, nanos / 1e6, chars / (1024.0 * 1024) / (nanos / 1e9));
+    }
+
+}
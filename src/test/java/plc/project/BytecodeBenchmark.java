@@ -0,0 +1,46 @@
+package plc.project;
+
+/**
+ * Compares the time the {@link Interpreter} and the {@link VirtualMachine}
+ * take to run {@link ClosureInterpreterBenchmark}'s analyzed loop-heavy
+ * program, and the time compiling it to {@link Bytecode} takes.
+ *
+ * Run with an optional iteration count, for example {@code java
+ * plc.project.BytecodeBenchmark 200}.
+ */
+public class BytecodeBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int iterations = args.length == 0 ? 200 : Integer.parseInt(args[0]);
+        Ast.Source ast = new Parser(new Lexer(ClosureInterpreterBenchmark.program(iterations)).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+
+        Bytecode bytecode = Bytecode.compile(ast);
+        Object expected = new Interpreter(new Scope(null)).visit(ast).getValue();
+        if (!expected.equals(new VirtualMachine(new Scope(null)).run(bytecode).getValue())) {
+            throw new AssertionError("The interpreter and the machine disagree.");
+        }
+        System.out.printf("%d iterations, result %s, %d ints of code, %d constants%n",
+                iterations, expected, bytecode.size(), bytecode.constants.length);
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Interpreter(new Scope(null)).visit(ast);
+            new VirtualMachine(new Scope(null)).run(Bytecode.compile(ast));
+        }
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            new Interpreter(new Scope(null)).visit(ast);
+            long middle = System.nanoTime();
+            Bytecode compiled = Bytecode.compile(ast);
+            long compiledAt = System.nanoTime();
+            new VirtualMachine(new Scope(null)).run(compiled);
+            long end = System.nanoTime();
+            System.out.printf("run: interpreter %8.1f ms, machine %8.1f ms (compile %6.3f ms)%n",
+                    (middle - start) / 1e6, (end - compiledAt) / 1e6, (compiledAt - middle) / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package plc.project;
+
+/**
+ * Compares the time the {@link Interpreter} and the {@link
+ * ClosureInterpreter} take to run an analyzed loop-heavy program: nested
+ * loops of integer and decimal arithmetic, comparisons, list accesses, and
+ * recursive calls.
+ *
+ * Run with an optional iteration count, for example {@code java
+ * plc.project.ClosureInterpreterBenchmark 200}.
+ */
+public class ClosureInterpreterBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int iterations = args.length == 0 ? 200 : Integer.parseInt(args[0]);
+        String source = program(iterations);
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+
+        Object expected = new Interpreter(new Scope(null)).visit(ast).getValue();
+        if (!expected.equals(new ClosureInterpreter(new Scope(null)).visit(ast).getValue())) {
+            throw new AssertionError("The interpreters disagree.");
+        }
+        System.out.printf("%d iterations, result %s%n", iterations, expected);
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Interpreter(new Scope(null)).visit(ast);
+            new ClosureInterpreter(new Scope(null)).visit(ast);
+        }
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            new Interpreter(new Scope(null)).visit(ast);
+            long middle = System.nanoTime();
+            new ClosureInterpreter(new Scope(null)).visit(ast);
+            long end = System.nanoTime();
+            System.out.printf("run: interpreter %8.1f ms, closures %8.1f ms%n", (middle - start) / 1e6, (end - middle) / 1e6);
+        }
+    }
+
+    /**
+     * Returns the benchmarked program, whose outer loop runs the given number
+     * of times.
+     */
+    static String program(int iterations) {
+        return "LIST l: Integer = [3, 1, 4, 1, 5, 9, 2, 6];\n"
+                + "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; ELSE RETURN fib(n - 1) + fib(n - 2); END END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET total = 0;\n"
+                + "    LET d = 0.0;\n"
+                + "    LET i = 0;\n"
+                + "    WHILE i < " + iterations + " DO\n"
+                + "        LET j = 0;\n"
+                + "        WHILE j < 100 DO\n"
+                + "            IF l[j - j / 8 * 8] > 2 && j != 50 DO total = total + j * 2 - 1; ELSE total = total - 1; END\n"
+                + "            d = d + 0.5 * 2.0;\n"
+                + "            j = j + 1;\n"
+                + "        END\n"
+                + "        total = total + fib(10);\n"
+                + "        i = i + 1;\n"
+                + "    END\n"
+                + "    RETURN total;\n"
+                + "END";
+    }
+
+}
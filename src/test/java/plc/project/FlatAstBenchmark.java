@@ -0,0 +1,63 @@
+package plc.project;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+
+/**
+ * Compares an analyzed {@link Ast.Source} with its {@link FlatAst}: the heap
+ * each one retains, and the time {@link Generator} takes to walk each one.
+ *
+ * Run with an optional source size in characters, for example {@code java
+ * plc.project.FlatAstBenchmark 4194304}.
+ */
+public class FlatAstBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length == 0 ? 4 * 1024 * 1024 : Integer.parseInt(args[0]);
+        String source = SyntheticPrograms.generate(size);
+
+        collect();
+        long used = used();
+        Ast.Source ast = new Parser(new Lexer(source).lexBuffer()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        collect();
+        long tree = used() - used;
+        used = used();
+        FlatAst flat = FlatAst.of(ast);
+        collect();
+        long flattened = used() - used;
+        System.out.printf("%,d chars, %,d flat nodes%n", source.length(), flat.size());
+        System.out.printf("retained: tree %,d bytes, flat %,d bytes%n", tree, flattened);
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Generator(new PrintWriter(Writer.nullWriter())).visit(ast);
+            new Generator(new PrintWriter(Writer.nullWriter())).visit(flat);
+        }
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            new Generator(new PrintWriter(Writer.nullWriter())).visit(ast);
+            long middle = System.nanoTime();
+            new Generator(new PrintWriter(Writer.nullWriter())).visit(flat);
+            long end = System.nanoTime();
+            System.out.printf("generate: tree %8.1f ms, flat %8.1f ms%n", (middle - start) / 1e6, (end - middle) / 1e6);
+        }
+        Reference.reachabilityFence(ast);
+        Reference.reachabilityFence(flat);
+    }
+
+    private static long used() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void collect() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+}
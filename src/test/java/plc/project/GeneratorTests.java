@@ -7,14 +7,21 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class GeneratorTests {
@@ -495,6 +502,224 @@ public class GeneratorTests {
         );
     }
 
+    @Test
+    void testFlatAst() {
+        //the flattened source keeps its annotations and generates the same code
+        String source = SyntheticPrograms.generate(16 * 1024).replace("FUN main(): Integer DO\n",
+                "FUN main(): Integer DO\n    SWITCH 'a' CASE 'b': print(1); DEFAULT print(\"c\"); END\n");
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        FlatAst flat = FlatAst.of(ast);
+        Assertions.assertEquals(ast, flat.toAst());
+        StringWriter expected = new StringWriter();
+        new Generator(new PrintWriter(expected)).visit(ast);
+        StringWriter actual = new StringWriter();
+        new Generator(new PrintWriter(actual)).visit(flat);
+        Assertions.assertEquals(expected.toString(), actual.toString());
+        Assertions.assertTrue(actual.toString().contains("switch ('a') {"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testClassGenerator(String test, String source, Integer expected, String output) {
+        //the generated class behaves as the generated Java source does
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            if (expected != null) {
+                Assertions.assertEquals(expected.intValue(), ClassGenerator.run(ast));
+            } else {
+                Assertions.assertThrows(ArithmeticException.class, () -> ClassGenerator.run(ast));
+            }
+        } finally {
+            System.setOut(sysout);
+        }
+        Assertions.assertEquals(output.replace("\n", System.lineSeparator()), out.toString());
+    }
+
+    private static Stream<Arguments> testClassGenerator() {
+        return Stream.of(
+                Arguments.of("Hello, World!",
+                        "FUN main(): Integer DO print(\"Hello, World!\"); RETURN 0; END",
+                        0, "Hello, World!\n"
+                ),
+                Arguments.of("Globals and Recursion",
+                        "VAR total: Integer = 0; LIST l: Integer = [1, 2, 3]; VAL d: Decimal = 1.5;\n"
+                                + "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; ELSE RETURN f(n - 1) + f(n - 2); END END\n"
+                                + "FUN main(): Integer DO\n"
+                                + "    LET i = 0;\n"
+                                + "    WHILE i < 10 DO LET j = i; total = total + f(j); i = i + 1; END\n"
+                                + "    IF d > 1.0 && l[0] != 2 || FALSE DO l[2] = l[2] + 1; END\n"
+                                + "    RETURN total + l[2];\n"
+                                + "END",
+                        92, ""
+                ),
+                Arguments.of("Java Arithmetic",
+                        "FUN main(): Integer DO print(0.1 + 0.2); print(7.0 / 2.0); RETURN 7 / 2 - 2 ^ 3; END",
+                        -5, "0.30000000000000004\n3.5\n"
+                ),
+                Arguments.of("Concatenation",
+                        "VAL s: String = \"n\"; FUN main(): Integer DO print(s + 1 + 'c' + 2.5 + TRUE + NIL); RETURN 0; END",
+                        0, "n1c2.5truenull\n"
+                ),
+                Arguments.of("Switch Fall Through",
+                        "FUN main(): Integer DO\n"
+                                + "    LET x = 2;\n"
+                                + "    SWITCH x CASE 1: print(1); CASE 2: print(2); CASE 3: print(3); DEFAULT print(0); END\n"
+                                + "    SWITCH \"b\" + \"\" CASE \"a\": print(\"a\"); CASE \"b\": print(\"b\"); DEFAULT print(\"z\"); END\n"
+                                + "    RETURN x;\n"
+                                + "END",
+                        2, "2\n3\n0\nb\nz\n"
+                ),
+                Arguments.of("Comparisons and Any",
+                        "VAR a: Any = 1; FUN g(v: Any): Any DO RETURN v; END\n"
+                                + "FUN main(): Integer DO print(g(2.5)); print(a); print(\"x\" < \"y\"); print('b' > 'a'); print(1.0 < 0.5); RETURN 0; END",
+                        0, "2.5\n1\ntrue\ntrue\nfalse\n"
+                ),
+                Arguments.of("Division by Zero",
+                        "FUN main(): Integer DO LET zero = 0; RETURN 1 / zero; END",
+                        null, ""
+                )
+        );
+    }
+
+    @Test
+    void testClassGeneratorExit() {
+        //the class has the static main of the generated source, besides the instance main run above
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO RETURN 3; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        byte[] classFile = ClassGenerator.generate(ast);
+        Assertions.assertEquals(0xCAFEBABE, ((classFile[0] & 0xff) << 24) | ((classFile[1] & 0xff) << 16) | ((classFile[2] & 0xff) << 8) | (classFile[3] & 0xff));
+        Assertions.assertEquals(49, classFile[7]);
+        Class<?> type = ClassGenerator.load(classFile);
+        Assertions.assertEquals("Main", type.getName());
+        Assertions.assertDoesNotThrow(() -> type.getMethod("main", String[].class));
+    }
+
+    @Test
+    void testClassGeneratorLongJump() {
+        //a loop body of over 32767 bytes can't be jumped over with a branch
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 6000; i++) {
+            body.append("x = x + 1000; ");
+        }
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO LET x = 0; WHILE x < 0 DO " + body + "END RETURN x; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> ClassGenerator.generate(ast));
+        Assertions.assertTrue(exception.getMessage().startsWith("The method is too large"));
+    }
+
+    @Test
+    void testInMemoryCompiler() {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO RETURN 1 + 2 * 3; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        InMemoryCompiler compiler = new InMemoryCompiler(1);
+        Assertions.assertEquals(7, compiler.run(ast));
+        String java = "public class Main { int main() { return 4; } }";
+        Class<?> type = compiler.compile(java);
+        Assertions.assertEquals("Main", type.getName());
+        Assertions.assertSame(type, compiler.compile(java));
+        Assertions.assertEquals(4, compiler.run(java));
+        Assertions.assertEquals(2, compiler.getHits());
+        Assertions.assertEquals(2, compiler.getMisses());
+        Assertions.assertEquals(1, compiler.getEvictions());
+        Assertions.assertEquals(1, compiler.getEntries());
+
+        //errors are reported rather than cached
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> compiler.compile("public class Main { int main() { return; } }"));
+        Assertions.assertTrue(exception.getMessage().startsWith("Compilation failed:"));
+        Assertions.assertEquals(1, compiler.getEntries());
+    }
+
+    @Test
+    void testCompilationCache() throws IOException {
+        Path directory = Files.createTempDirectory("plc-cache");
+        try {
+            String first = "FUN main(): Integer DO print(\"first\"); RETURN 0; END";
+            String second = "FUN main(): Integer DO print(\"second\"); RETURN 0; END";
+            CompilationCache cache = new CompilationCache(directory, 1 << 20);
+            CompilationCache.Result compiled = cache.compile(first);
+            CompilationCache.Result cached = cache.compile(first);
+            Assertions.assertEquals(compiled.getJava(), cached.getJava());
+            Assertions.assertEquals(compiled.getAst(), cached.getAst());
+            Assertions.assertTrue(compiled.getJava().contains("System.out.println(\"first\");"));
+            cache.compile(second);
+            Assertions.assertEquals(1, cache.getHits());
+            Assertions.assertEquals(2, cache.getMisses());
+            Assertions.assertEquals(2, cache.getEntries());
+
+            //entries and their recency survive reopening; the least recently used entry goes first
+            long size = cache.getSize();
+            cache.compile(first);
+            cache = new CompilationCache(directory, size - 1);
+            Assertions.assertEquals(1, cache.getEvictions());
+            Assertions.assertEquals(1, cache.getEntries());
+            cache.compile(first);
+            Assertions.assertEquals(1, cache.getHits());
+            Assertions.assertThrows(ParseException.class, () -> new CompilationCache(directory, 0).compile("FUN"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testCompilationCacheRecency() throws IOException {
+        //a hit makes the entry the most recently used within the process, not only on disk
+        Path directory = Files.createTempDirectory("plc-cache");
+        try {
+            String first = "FUN main(): Integer DO print(\"a\"); RETURN 0; END";
+            String second = "FUN main(): Integer DO print(\"b\"); RETURN 0; END";
+            String third = "FUN main(): Integer DO print(\"c\"); RETURN 0; END";
+            CompilationCache cache = new CompilationCache(directory, 1 << 20);
+            cache.compile(first);
+            cache.compile(second);
+            cache = new CompilationCache(directory, cache.getSize());
+            cache.compile(first);
+            cache.compile(third);
+            Assertions.assertEquals(1, cache.getEvictions());
+            Assertions.assertEquals(2, cache.getEntries());
+            cache.compile(first);
+            Assertions.assertEquals(2, cache.getHits());
+            cache.compile(second);
+            Assertions.assertEquals(2, cache.getMisses());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void testCompilationCacheCorruptEntry() throws IOException {
+        Path directory = Files.createTempDirectory("plc-cache");
+        try {
+            String source = "FUN main(): Integer DO RETURN 0; END";
+            CompilationCache cache = new CompilationCache(directory, 1 << 20);
+            String java = cache.compile(source).getJava();
+            Path entry = directory.resolve(CompilationCache.key(source) + ".plcc");
+            Files.write(entry, new byte[] {0, 0, 0, 1, 'x'});
+            Assertions.assertEquals(java, cache.compile(source).getJava());
+            Assertions.assertEquals(0, cache.getHits());
+            Assertions.assertEquals(2, cache.getMisses());
+            Assertions.assertEquals(java, cache.compile(source).getJava());
+            Assertions.assertEquals(1, cache.getHits());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     */
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
     /**
      * Helper function for tests, using a StringWriter as the output stream.
      */
@@ -10,6 +10,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -116,6 +117,248 @@ final class InterpreterTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("testSource")
+    void testFlatSource(String test, Ast.Source ast, Object expected) {
+        //the flattened source must behave exactly like the tree
+        FlatAst flat = FlatAst.of(ast);
+        Assertions.assertEquals(ast, flat.toAst());
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        if (expected != null) {
+            Assertions.assertEquals(expected, interpreter.visit(flat).getValue());
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(flat));
+        }
+    }
+
+    @Test
+    void testFlatProgram() {
+        String source = "VAR total: Integer = 0; LIST l: Integer = [1, 2, 3];\n"
+                + "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; ELSE RETURN f(n - 1) + f(n - 2); END END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET i = 0;\n"
+                + "    WHILE i < 10 DO total = total + f(i); i = i + 1; END\n"
+                + "    SWITCH total CASE 88: l[1] = total; DEFAULT l[1] = 0; END\n"
+                + "    RETURN l[1] * 2 ^ 2 + l[2];\n"
+                + "END";
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        Environment.PlcObject expected = new Interpreter(new Scope(null)).visit(ast);
+        Assertions.assertEquals(BigInteger.valueOf(30979), expected.getValue());
+        Assertions.assertEquals(expected.getValue(), new Interpreter(new Scope(null)).visit(FlatAst.of(ast)).getValue());
+
+        //a case value that does not match is evaluated again, in both walks
+        ast = new Parser(new Lexer("VAR n: Integer = 0; FUN f(): Integer DO n = n + 1; RETURN 5; END\n"
+                + "FUN main(): Integer DO SWITCH 1 CASE f(): n = n + 10; DEFAULT n = n + 100; END RETURN n; END").lex()).parseSource();
+        Assertions.assertEquals(BigInteger.valueOf(102), new Interpreter(new Scope(null)).visit(ast).getValue());
+        Assertions.assertEquals(BigInteger.valueOf(102), new Interpreter(new Scope(null)).visit(FlatAst.of(ast)).getValue());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testSource")
+    void testClosureSource(String test, Ast.Source ast, Object expected) {
+        testClosure(ast);
+    }
+
+    @ParameterizedTest
+    @MethodSource("testBinaryExpression")
+    void testClosureBinaryExpression(String test, Ast ast, Object expected) {
+        testClosure(ast);
+    }
+
+    @Test
+    void testClosureProgram() {
+        String source = "VAR total: Integer = 0; LIST l: Integer = [1, 2, 3]; VAR d: Decimal = 1.5;\n"
+                + "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; ELSE RETURN f(n - 1) + f(n - 2); END END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET i = 0;\n"
+                + "    WHILE i < 10 DO total = total + f(i); d = d * 2.0 - 1.0 / 4.0; i = i + 1; END\n"
+                + "    SWITCH total CASE 88: l[1] = total; DEFAULT l[1] = 0; END\n"
+                + "    IF d > 100.0 && l[0] != 2 || FALSE DO l[2] = l[2] + 1; END\n"
+                + "    RETURN l[1] * 2 ^ 2 + l[2] / 2;\n"
+                + "END";
+        //analyzed, so the arithmetic uses the typed nodes
+        Ast.Source analyzed = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(analyzed);
+        Assertions.assertEquals(BigInteger.valueOf(30978), testClosure(analyzed).getValue());
+        testClosure(new Parser(new Lexer(source).lex()).parseSource());
+    }
+
+    @Test
+    void testResolver() {
+        String source = "VAR g: Integer = 1; VAR h: Integer = g;\n"
+                + "FUN f(a: Integer): Integer DO\n"
+                + "    LET b = a;\n"
+                + "    IF b > g DO LET c = b; LET g = c; RETURN g; END\n"
+                + "    WHILE b < 3 DO LET d = b; b = d + 1; END\n"
+                + "    RETURN y;\n"
+                + "END\n"
+                + "FUN twice(): Integer DO LET x = 1; LET x = 2; RETURN x; END";
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        Resolver resolver = Resolver.of(ast);
+        Assertions.assertEquals(2, resolver.getGlobals());
+        Assertions.assertEquals(Resolver.pack(Resolver.GLOBAL, 1), resolver.getAddress(ast.getGlobals().get(1)));
+        Assertions.assertEquals(Resolver.pack(Resolver.GLOBAL, 0), resolver.getAddress(ast.getGlobals().get(1).getValue().get()));
+
+        Ast.Function f = ast.getFunctions().get(0);
+        //the parameter, b, and then c and g in the IF, whose slots d reuses in the WHILE
+        Assertions.assertEquals(4, resolver.getFrameSize(f));
+        Assertions.assertEquals(Resolver.pack(Resolver.LOCAL, 1), resolver.getAddress(f.getStatements().get(0)));
+        Ast.Statement.If ifStatement = (Ast.Statement.If) f.getStatements().get(1);
+        Assertions.assertEquals(Resolver.pack(Resolver.GLOBAL, 0), resolver.getAddress(((Ast.Expression.Binary) ifStatement.getCondition()).getRight()));
+        Assertions.assertEquals(Resolver.pack(Resolver.LOCAL, 3), resolver.getAddress(ifStatement.getThenStatements().get(1)));
+        Ast.Statement.Return ret = (Ast.Statement.Return) ifStatement.getThenStatements().get(2);
+        Assertions.assertEquals(Resolver.pack(Resolver.LOCAL, 3), resolver.getAddress(ret.getValue()));
+        Ast.Statement.While whileStatement = (Ast.Statement.While) f.getStatements().get(2);
+        Assertions.assertEquals(Resolver.pack(Resolver.LOCAL, 2), resolver.getAddress(whileStatement.getStatements().get(0)));
+        //variables the source does not declare are looked up by name
+        Assertions.assertEquals(-1, resolver.getAddress(((Ast.Statement.Return) f.getStatements().get(3)).getValue()));
+
+        //a function declaring a variable twice keeps its scopes, to fail when run as the interpreter does
+        Ast.Function twice = ast.getFunctions().get(1);
+        Assertions.assertEquals(-1, resolver.getFrameSize(twice));
+        Assertions.assertEquals(-1, resolver.getAddress(twice.getStatements().get(0)));
+    }
+
+    @Test
+    void testClosureFrames() {
+        String source = "VAR g: Integer = 1; LIST l: Integer = [1, 2];\n"
+                + "FUN count(n: Integer): Integer DO IF n == 0 DO RETURN 0; END LET m = n - 1; RETURN count(m) + n; END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET i = 0;\n"
+                + "    LET list = l;\n"
+                + "    WHILE i < 3 DO LET g = i; list[1] = list[1] + g; i = i + 1; END\n"
+                + "    IF i == 3 DO LET i = 10; g = g + i; ELSE LET k = 0; END\n"
+                + "    SWITCH i CASE 3: LET i = 20; g = g + i; DEFAULT g = 0; END\n"
+                + "    RETURN g + count(i) + l[1] + y;\n"
+                + "END";
+        Scope scope = new Scope(null);
+        scope.defineVariable("y", true, Environment.create(BigInteger.valueOf(100)));
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        ClosureInterpreter interpreter = new ClosureInterpreter(scope);
+        Assertions.assertEquals(BigInteger.valueOf(31 + 6 + 5 + 100), interpreter.visit(ast).getValue());
+        //globals are still variables of the scope
+        Assertions.assertEquals(BigInteger.valueOf(31), interpreter.getScope().lookupVariable("g").getValue().getValue());
+        Assertions.assertEquals(BigInteger.valueOf(31 + 6 + 5 + 100), new Interpreter(scope).visit(ast).getValue());
+
+        testClosure(new Parser(new Lexer("FUN main(): Integer DO LET x = 1; LET x = 2; RETURN x; END").lex()).parseSource());
+        testClosure(new Parser(new Lexer("FUN f(a: Integer, a: Integer): Integer DO RETURN a; END FUN main(): Integer DO RETURN f(1, 2); END").lex()).parseSource());
+        testClosure(new Parser(new Lexer("VAL x: Integer = 1; FUN main(): Integer DO x = 2; RETURN x; END").lex()).parseSource());
+        testClosure(new Parser(new Lexer("LIST l: Integer = [1]; FUN main(): Integer DO LET m = l; m = 2; RETURN 0; END").lex()).parseSource());
+        testClosure(new Parser(new Lexer("FUN main(): Integer DO x = 1; LET x = 2; RETURN x; END").lex()).parseSource());
+    }
+
+    /**
+     * Runs the AST with the {@link ClosureInterpreter}, which must behave
+     * exactly like the {@link Interpreter}.
+     */
+    private static Environment.PlcObject testClosure(Ast ast) {
+        Environment.PlcObject expected;
+        try {
+            expected = new Interpreter(new Scope(null)).visit(ast);
+        } catch (RuntimeException e) {
+            Assertions.assertThrows(e.getClass(), () -> new ClosureInterpreter(new Scope(null)).visit(ast));
+            return null;
+        }
+        Environment.PlcObject result = new ClosureInterpreter(new Scope(null)).visit(ast);
+        Assertions.assertEquals(expected.getValue(), result.getValue());
+        return result;
+    }
+
+    @ParameterizedTest
+    @MethodSource("testSource")
+    void testBytecodeSource(String test, Ast.Source ast, Object expected) {
+        testBytecode(ast);
+    }
+
+    @Test
+    void testBytecodeProgram() {
+        String source = "VAR total: Integer = 0; LIST l: Integer = [1, 2, 3]; VAR d: Decimal = 1.5; VAL s: String = \"n\";\n"
+                + "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; ELSE RETURN f(n - 1) + f(n - 2); END END\n"
+                + "FUN g(n: Integer) DO LET m = n; IF m > 0 DO LET k = m - 1; g(k); END END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET i = 0;\n"
+                + "    WHILE i < 10 DO LET j = i; total = total + f(j); d = d * 2.0 - 1.0 / 4.0; i = i + 1; END\n"
+                + "    SWITCH total CASE 1: l[0] = 0; CASE 88: LET x = total; l[1] = x; DEFAULT l[1] = 0; END\n"
+                + "    IF d > 100.0 && l[0] != 2 || FALSE DO l[2] = l[2] + 1; END\n"
+                + "    IF s + 1 == \"n1\" DO g(3); ELSE l[2] = 0; END\n"
+                + "    RETURN l[1] * 2 ^ 2 + l[2] / 2;\n"
+                + "END";
+        Ast.Source analyzed = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(analyzed);
+        Assertions.assertEquals(BigInteger.valueOf(30978), testBytecode(analyzed).getValue());
+        testBytecode(new Parser(new Lexer(source).lex()).parseSource());
+    }
+
+    @Test
+    void testBytecodeErrors() {
+        //runtime errors of the interpreter are runtime errors of the machine
+        testBytecode(new Parser(new Lexer("LIST l: Integer = [1]; FUN main(): Integer DO RETURN l[1]; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("FUN main(): Integer DO LET i = 0; RETURN 1 / i; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("VAL x: Integer = 1; FUN main(): Integer DO x = 2; RETURN x; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("LIST l: Integer = [1]; FUN main(): Integer DO l = 2; RETURN 0; END").lex()).parseSource());
+        //declarations and functions only fail when they run, and globals can't call the functions of the source
+        testBytecode(new Parser(new Lexer("FUN main(): Integer DO IF FALSE DO LET a = 1; LET a = 2; END RETURN 0; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("FUN main(): Integer DO LET a = 1; LET a = 2; RETURN a; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("FUN f(a: Integer, a: Integer): Integer DO RETURN a; END FUN main(): Integer DO RETURN 0; END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("FUN f(a: Integer, a: Integer): Integer DO RETURN a; END FUN main(): Integer DO RETURN f(1, 2); END").lex()).parseSource());
+        testBytecode(new Parser(new Lexer("FUN f(): Integer DO RETURN 1; END FUN f(): Integer DO RETURN 2; END FUN main(): Integer DO RETURN f(); END").lex()).parseSource());
+        Assertions.assertNull(testBytecode(new Parser(new Lexer("VAR h: Integer = f(); FUN f(): Integer DO RETURN 5; END FUN main(): Integer DO RETURN h; END").lex()).parseSource()));
+        //a case value that does not match is evaluated again, and taken if nil
+        Assertions.assertEquals(BigInteger.valueOf(102), testBytecode(new Parser(new Lexer("VAR n: Integer = 0; FUN f(): Integer DO n = n + 1; RETURN 5; END\n"
+                + "FUN main(): Integer DO SWITCH 1 CASE f(): n = n + 10; DEFAULT n = n + 100; END RETURN n; END").lex()).parseSource()).getValue());
+        Assertions.assertEquals(BigInteger.ONE, testBytecode(new Parser(new Lexer("FUN g() DO END\n"
+                + "FUN main(): Integer DO SWITCH 1 CASE g(): RETURN 1; DEFAULT RETURN 2; END END").lex()).parseSource()).getValue());
+        //the receiver is checked before the value is evaluated
+        testBytecodeOrder("LIST xs: Integer = [1]; FUN f(): Integer DO y = y + 1; RETURN 2; END FUN main(): Integer DO xs = f(); RETURN 0; END");
+        testBytecodeOrder("FUN f(): Integer DO y = y + 1; RETURN 2; END FUN main(): Integer DO z = f(); RETURN 0; END");
+        testBytecodeOrder("FUN f(): Integer DO y = y + 1; RETURN 0; END FUN main(): Integer DO z[f()] = 1; RETURN 0; END");
+        //variables the source does not define are looked up in the scope
+        Scope scope = new Scope(null);
+        scope.defineVariable("y", true, Environment.create(BigInteger.TEN));
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO y = y + 1; RETURN y; END").lex()).parseSource();
+        Assertions.assertEquals(BigInteger.valueOf(11), new VirtualMachine(scope).run(Bytecode.compile(ast)).getValue());
+        Assertions.assertEquals(BigInteger.valueOf(11), scope.lookupVariable("y").getValue().getValue());
+    }
+
+    /**
+     * Runs the source with the {@link Interpreter} and the {@link
+     * VirtualMachine} in a scope with a mutable {@code y} and an immutable
+     * list {@code z}, which must both fail before the source changes {@code y}.
+     */
+    private static void testBytecodeOrder(String input) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        for (boolean machine : new boolean[] {false, true}) {
+            Scope scope = new Scope(null);
+            scope.defineVariable("y", true, Environment.create(BigInteger.ZERO));
+            scope.defineVariable("z", false, Environment.create(new ArrayList<>(Arrays.asList(BigInteger.ONE))));
+            Assertions.assertThrows(RuntimeException.class, () -> {
+                if (machine) {
+                    new VirtualMachine(scope).run(Bytecode.compile(ast));
+                } else {
+                    new Interpreter(scope).visit(ast);
+                }
+            });
+            Assertions.assertEquals(BigInteger.ZERO, scope.lookupVariable("y").getValue().getValue());
+        }
+    }
+
+    /**
+     * Runs the AST with the {@link VirtualMachine}, which must behave exactly
+     * like the {@link Interpreter}.
+     */
+    private static Environment.PlcObject testBytecode(Ast.Source ast) {
+        Environment.PlcObject expected;
+        try {
+            expected = new Interpreter(new Scope(null)).visit(ast);
+        } catch (RuntimeException e) {
+            Assertions.assertThrows(RuntimeException.class, () -> new VirtualMachine(new Scope(null)).run(Bytecode.compile(ast)));
+            return null;
+        }
+        Environment.PlcObject result = new VirtualMachine(new Scope(null)).run(Bytecode.compile(ast));
+        Assertions.assertEquals(expected.getValue(), result.getValue());
+        return result;
+    }
+
     @Test
     void testEmptySource() {
 
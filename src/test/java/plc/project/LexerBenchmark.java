@@ -0,0 +1,73 @@
+package plc.project;
+
+import java.util.List;
+
+/**
+ * Compares the throughput of the table-driven {@link Lexer}, sequentially and
+ * with {@link Lexer#lexParallel()}, against the original regex-driven {@link
+ * RegexLexer} on generated sources.
+ *
+ * Run with an optional list of source sizes in characters, for example
+ * {@code java plc.project.LexerBenchmark 65536 2097152}.
+ */
+public class LexerBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[] {64 * 1024, 2 * 1024 * 1024} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            String source = SyntheticPrograms.generate(size);
+            if (!new Lexer(source).lex().equals(new RegexLexer(source).lex())) {
+                throw new AssertionError("Lexer and RegexLexer disagree on a " + size + " character source.");
+            }
+            double regex = measure(source, Mode.REGEX);
+            double table = measure(source, Mode.TABLE);
+            double parallel = measure(source, Mode.PARALLEL);
+            System.out.printf("%,12d chars   regex %8.2f MB/s   table %8.2f MB/s   parallel %8.2f MB/s   speedup %6.1fx%n",
+                    source.length(), regex, table, parallel, table / regex);
+        }
+    }
+
+    /**
+     * Returns the average throughput in MB of source per second.
+     */
+    private static double measure(String source, Mode mode) {
+        for (int i = 0; i < WARMUP; i++) {
+            lex(source, mode);
+        }
+        long start = System.nanoTime();
+        int tokens = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            tokens += lex(source, mode).size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (tokens == 0) {
+            throw new AssertionError("Lexed no tokens.");
+        }
+        return source.length() * (double) ITERATIONS / seconds / (1024 * 1024);
+    }
+
+    private static List<Token> lex(String source, Mode mode) {
+        switch (mode) {
+            case REGEX:
+                return new RegexLexer(source).lex();
+            case TABLE:
+                return new Lexer(source).lex();
+            default:
+                return new Lexer(source).lexParallel();
+        }
+    }
+
+    private enum Mode {
+        REGEX,
+        TABLE,
+        PARALLEL
+    }
+
+}
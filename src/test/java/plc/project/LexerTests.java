@@ -6,8 +6,17 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -247,10 +256,210 @@ public class LexerTests {
                 Arguments.of("Example 10", "0f", Arrays.asList(
                         new Token(Token.Type.INTEGER, "0", 0),
                         new Token(Token.Type.IDENTIFIER, "f", 1)
+                )),
+                Arguments.of("Logical Or", "a || b", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "a", 0),
+                        new Token(Token.Type.OPERATOR, "||", 2),
+                        new Token(Token.Type.IDENTIFIER, "b", 5)
                 ))
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testRegexEquivalence(String test, String input) {
+        //the table-driven lexer must agree with the original regex lexer, including on errors
+        List<Token> expected, actual;
+        try {
+            expected = new RegexLexer(input).lex();
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class, () -> new Lexer(input).lex());
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+            Assertions.assertEquals(e.getMessage(), exception.getMessage());
+            return;
+        }
+        actual = new Lexer(input).lex();
+        Assertions.assertEquals(expected, actual);
+    }
+
+    private static Stream<Arguments> testRegexEquivalence() {
+        return Stream.of(
+                Arguments.of("Identifiers", "@a_b-c d9 x"),
+                Arguments.of("Numbers", "0 01 -0.5 -01 -.5 1.2.3 0.0 -7 10. -0.x -"),
+                Arguments.of("Operators", "!= == = ! && & | ; \\ \u00e9"),
+                Arguments.of("Whitespace", "a \b\n\r\tb"),
+                Arguments.of("Characters", "'a' '\\n' '\\'' '\"' '\u00e9'"),
+                Arguments.of("Strings", "\"\" \"a\\tb\\\"c\" \"\u00e9\""),
+                Arguments.of("Empty Character", "''"),
+                Arguments.of("Unterminated Character", "'ab'"),
+                Arguments.of("Newline Character", "'\n'"),
+                Arguments.of("Invalid Character Escape", "'\\a'"),
+                Arguments.of("Unterminated String", "\"abc\ndef\""),
+                Arguments.of("Invalid String Escape", "\"abc\\q\""),
+                Arguments.of("Trailing Backslash", "\"abc\\"),
+                Arguments.of("Program", SyntheticPrograms.generate(4096))
+        );
+    }
+
+    @Test
+    void testTokenBuffer() {
+        String source = SyntheticPrograms.generate(4096);
+        List<Token> expected = new Lexer(source).lex();
+        TokenBuffer buffer = new Lexer(source).lexBuffer();
+        Assertions.assertEquals(expected.size(), buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            Assertions.assertEquals(expected.get(i), buffer.get(i));
+        }
+    }
+
+    @Test
+    void testInterning() {
+        //repeated names share one instance, and keywords are the parser's own constants
+        List<Token> tokens = new Lexer("LET name = name + 1;").lex();
+        Assertions.assertSame("LET", tokens.get(0).getLiteral());
+        Assertions.assertSame(tokens.get(1).getLiteral(), tokens.get(3).getLiteral());
+        Assertions.assertSame("+", tokens.get(4).getLiteral());
+        Assertions.assertFalse(tokens.get(5).isInterned());
+    }
+
+    @Test
+    void testSymbolTableGrowth() {
+        SymbolTable symbols = new SymbolTable();
+        String source = IntStream.range(0, 1000).mapToObj(i -> "name" + i).collect(Collectors.joining(" "));
+        List<Token> tokens = new Lexer(source, symbols).lex();
+        Assertions.assertEquals(SymbolTable.RESERVED.length + 1000, symbols.size());
+        Assertions.assertEquals("name999", tokens.get(999).getLiteral());
+        Assertions.assertSame(tokens.get(500).getLiteral(), symbols.intern(source, tokens.get(500).getIndex(), tokens.get(501).getIndex() - 1));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMappedSource(String test, String input) throws IOException {
+        //lexing a mapped file must match lexing the decoded string, with indexes in chars rather than bytes
+        Path file = Files.createTempFile("source", ".plc");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+            MappedSource source = MappedSource.open(file);
+            Assertions.assertEquals(input.length(), source.length());
+            Assertions.assertEquals(input, source.toString());
+            Assertions.assertEquals(new Lexer(input).lex(), new Lexer(source).lex());
+            Assertions.assertEquals(new Lexer(input).lex(), new Lexer(source).lexParallel(pool, 1024));
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    private static Stream<Arguments> testMappedSource() {
+        String program = SyntheticPrograms.generate(32 * 1024);
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("ASCII", program),
+                Arguments.of("Two Byte", program.replace("Hello", "H\u00e9llo")),
+                Arguments.of("Three Byte", program.replace("quoted", "\u5f15\u7528")),
+                Arguments.of("Surrogate Pairs", program.replace("helper_", "\ud83d\ude00_"))
+        );
+    }
+
+    @Test
+    void testMappedSourceMalformed() {
+        //each maximal invalid subsequence decodes to one replacement character, as with String
+        byte[] bytes = {'"', (byte) 0xC3, '"', ' ', '"', (byte) 0xE2, (byte) 0x82, '"', ' ', '"', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0xFF, '"'};
+        MappedSource source = new MappedSource(ByteBuffer.wrap(bytes));
+        Assertions.assertEquals(new String(bytes, StandardCharsets.UTF_8), source.toString());
+        Assertions.assertEquals("\"\ufffd\" \"\ufffd\" \"\ufffd\ufffd\"", source.toString());
+        Assertions.assertEquals(Arrays.asList(
+                new Token(Token.Type.STRING, "\"\ufffd\"", 0),
+                new Token(Token.Type.STRING, "\"\ufffd\"", 4),
+                new Token(Token.Type.STRING, "\"\ufffd\ufffd\"", 8)
+        ), new Lexer(source).lex());
+
+        //and any bytes decode to the same chars as with String
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            byte[] input = new byte[random.nextInt(12)];
+            for (int j = 0; j < input.length; j++) {
+                //mostly non-ASCII, to hit lead and continuation bytes
+                input[j] = (byte) (random.nextInt(4) == 0 ? 'a' : 0x80 + random.nextInt(0x80));
+            }
+            Assertions.assertEquals(new String(input, StandardCharsets.UTF_8), new MappedSource(ByteBuffer.wrap(input)).toString());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        //small chunks force many split points; results and errors must match the sequential lexer
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Token> expected = new Lexer(input).lex();
+            Assertions.assertEquals(expected, new Lexer(input).lexParallel(pool, 64));
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> new Lexer(input).lexParallel(pool, 64));
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+            Assertions.assertEquals(e.getMessage(), exception.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Stream<Arguments> testParallel() {
+        String program = SyntheticPrograms.generate(8192);
+        int middle = program.indexOf("\n", program.length() / 2);
+        return Stream.of(
+                Arguments.of("Program", program),
+                Arguments.of("Carriage Returns", program.replace("\n", "\r\n")),
+                Arguments.of("Unterminated String", program.substring(0, middle) + "\"abc" + program.substring(middle)),
+                Arguments.of("Unterminated Character", program.substring(0, middle) + " '" + program.substring(middle)),
+                Arguments.of("Two Errors", program.substring(0, middle) + "'ab'" + program.substring(middle) + "\"\\q\"")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, String source, int offset, int removed, String inserted) {
+        //incremental re-lexing must match lexing the edited source from scratch, including on errors
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        SymbolTable symbols = new SymbolTable();
+        List<Token> previous = new Lexer(source, symbols).lex();
+        try {
+            List<Token> expected = new Lexer(edited).lex();
+            List<Token> tokens = Lexer.relex(edited, previous, symbols, offset, removed, inserted);
+            Assertions.assertEquals(expected, tokens);
+            //relexed names are the same instances as reused ones
+            for (Token token : tokens) {
+                if (token.isInterned()) {
+                    Assertions.assertSame(symbols.intern(token.getLiteral(), 0, token.getLiteral().length()), token.getLiteral());
+                }
+            }
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> Lexer.relex(edited, previous, symbols, offset, removed, inserted));
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+        }
+    }
+
+    private static Stream<Arguments> testRelex() {
+        String program = SyntheticPrograms.generate(2048);
+        int total = program.indexOf("total");
+        int line = program.indexOf("\n", program.length() / 2);
+        return Stream.of(
+                Arguments.of("Rename", program, total, 5, "sum"),
+                Arguments.of("Same Length", program, total, 5, "count"),
+                Arguments.of("Extend Identifier", program, total + 5, 0, "_2"),
+                Arguments.of("Insert Line", program, line, 0, "\n    LET x = 1;"),
+                Arguments.of("Join Lines", program, line, 1, ""),
+                Arguments.of("Split Token", program, total + 2, 0, " "),
+                Arguments.of("Negate Number", program, program.indexOf("0;") - 1, 1, "-"),
+                Arguments.of("Start", program, 0, 3, "VAL"),
+                Arguments.of("End", program, program.length(), 0, "\nFUN"),
+                Arguments.of("Delete All", program, 0, program.length(), ""),
+                Arguments.of("Unterminated String", program, line, 0, " \"abc")
+        );
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
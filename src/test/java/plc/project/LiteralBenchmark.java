@@ -0,0 +1,138 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the single pass {@link Literals#decodeString} against the chain of
+ * {@link String#replace} calls the parser used to decode string literals, on
+ * escape-heavy and escape-free literals.
+ *
+ * Run with an optional list of literal lengths in characters, for example
+ * {@code java plc.project.LiteralBenchmark 16 4096}.
+ */
+public class LiteralBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+    private static final int LITERALS = 1 << 16;
+
+    private static final String ESCAPES = "\\b\\n\\r\\t\\'\\\"\\\\";
+
+    public static void main(String[] args) {
+        int[] lengths = args.length == 0 ? new int[] {16, 256, 4096} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            lengths[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int length : lengths) {
+            for (Input input : Input.values()) {
+                List<String> literals = generate(length, input);
+                int count = Math.max(1, LITERALS * 16 / length);
+                for (String literal : literals) {
+                    if (!decode(literal, Mode.SINGLE_PASS).equals(decode(literal, Mode.REPLACE))) {
+                        throw new AssertionError("Decoders disagree on " + literal + ".");
+                    }
+                }
+                double replace = measure(literals, count, Mode.REPLACE);
+                double singlePass = measure(literals, count, Mode.SINGLE_PASS);
+                System.out.printf("%,8d chars  %-8s   replace %8.2f MB/s   single pass %8.2f MB/s   speedup %6.1fx%n",
+                        length, input, replace, singlePass, singlePass / replace);
+            }
+        }
+    }
+
+    /**
+     * Returns quoted literals of the given length. Escape-heavy literals cycle
+     * through every escape, separated so that the replace chain decodes them
+     * correctly too. The plain ones contain no escapes.
+     */
+    private static List<String> generate(int length, Input input) {
+        List<String> literals = new ArrayList<>();
+        for (int n = 0; n < 64; n++) {
+            StringBuilder builder = new StringBuilder(length + 2).append('"');
+            while (builder.length() < length + 1) {
+                if (input == Input.ESCAPES) {
+                    builder.append(ESCAPES).append('x');
+                }
+                else {
+                    builder.append("plain text ").append(n);
+                }
+            }
+            builder.setLength(length + 1);
+            if (builder.charAt(length) == '\\' && !isEscaped(builder, length)) {
+                builder.setCharAt(length, 'x');
+            }
+            literals.add(builder.append('"').toString());
+        }
+        return literals;
+    }
+
+    /**
+     * Returns true if the backslash at {@code index} is itself escaped, so that
+     * truncating after it still leaves a valid literal.
+     */
+    private static boolean isEscaped(CharSequence literal, int index) {
+        int backslashes = 0;
+        for (int i = index - 1; i > 0 && literal.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * Returns the average throughput in MB of literal characters per second.
+     */
+    private static double measure(List<String> literals, int count, Mode mode) {
+        for (int i = 0; i < WARMUP; i++) {
+            run(literals, count, mode);
+        }
+        long start = System.nanoTime();
+        long characters = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            characters += run(literals, count, mode);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return characters / seconds / (1024 * 1024);
+    }
+
+    private static long run(List<String> literals, int count, Mode mode) {
+        long characters = 0;
+        int decoded = 0;
+        for (int i = 0; i < count; i++) {
+            String literal = literals.get(i & (literals.size() - 1));
+            decoded += decode(literal, mode).length();
+            characters += literal.length();
+        }
+        if (decoded == 0) {
+            throw new AssertionError("Decoded nothing.");
+        }
+        return characters;
+    }
+
+    private static String decode(String literal, Mode mode) {
+        if (mode == Mode.SINGLE_PASS) {
+            return Literals.decodeString(literal, 0, literal.length());
+        }
+        String string = literal.substring(1, literal.length() - 1);
+        string = string.replace("\\b", "\b");
+        string = string.replace("\\n", "\n");
+        string = string.replace("\\r", "\r");
+        string = string.replace("\\t", "\t");
+        string = string.replace("\\'", "'");
+        string = string.replace("\\\"", "\"");
+        string = string.replace("\\\\", "\\");
+        return string;
+    }
+
+    private enum Input {
+        ESCAPES,
+        PLAIN
+    }
+
+    private enum Mode {
+        REPLACE,
+        SINGLE_PASS
+    }
+
+}
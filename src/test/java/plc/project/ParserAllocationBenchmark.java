@@ -0,0 +1,89 @@
+package plc.project;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.List;
+
+/**
+ * Profiles the allocations made by {@link Parser#parseSource()}, separating
+ * the bytes retained by the resulting AST from the garbage created along the
+ * way, when parsing from a list of {@link Token}s and from a {@link
+ * TokenBuffer}. Tokens are lexed beforehand, so only the parser is measured.
+ *
+ * Allocation is the JVM's count for the benchmark thread, and the retained
+ * size is the growth of the heap after a full collection while the AST is
+ * still reachable. Their difference is the garbage, which should be close to
+ * zero: only the backing arrays of lists that grow while being filled are
+ * discarded.
+ *
+ * Run with an optional source size in characters, for example {@code java
+ * plc.project.ParserAllocationBenchmark 4194304}.
+ */
+public class ParserAllocationBenchmark {
+
+    private static final int WARMUP = 10;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int size = args.length == 0 ? 4 * 1024 * 1024 : Integer.parseInt(args[0]);
+        String source = SyntheticPrograms.generate(size);
+        List<Token> tokens = new Lexer(source).lex();
+        TokenBuffer buffer = new Lexer(source).lexBuffer();
+
+        System.out.printf("%,d chars, %,d tokens%n", source.length(), tokens.size());
+        System.out.printf("%-8s %14s %14s %14s %12s%n", "input", "allocated", "retained", "garbage", "garbage/tok");
+        for (Mode mode : Mode.values()) {
+            for (int i = 0; i < WARMUP; i++) {
+                parse(tokens, buffer, mode == Mode.SPANS ? new SourceSpans() : null, mode);
+            }
+            for (int run = 0; run < RUNS; run++) {
+                collect();
+                long used = used();
+                long allocated = allocatedBytes();
+                SourceSpans spans = mode == Mode.SPANS ? new SourceSpans() : null;
+                Ast.Source ast = parse(tokens, buffer, spans, mode);
+                allocated = allocatedBytes() - allocated;
+                collect();
+                long retained = used() - used;
+                Reference.reachabilityFence(ast);
+                Reference.reachabilityFence(spans);
+                System.out.printf("%-8s %,14d %,14d %,14d %12.2f%n", mode, allocated, retained,
+                        allocated - retained, (allocated - retained) / (double) tokens.size());
+                if (spans != null && run == RUNS - 1) {
+                    System.out.printf("%,d nodes with spans%n", spans.size());
+                }
+            }
+        }
+    }
+
+    private static Ast.Source parse(List<Token> tokens, TokenBuffer buffer, SourceSpans spans, Mode mode) {
+        Parser parser = mode == Mode.LIST ? new Parser(tokens) : new Parser(buffer);
+        if (spans != null) {
+            parser.recordSpans(spans);
+        }
+        return parser.parseSource();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long used() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void collect() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+    private enum Mode {
+        LIST,
+        BUFFER,
+        SPANS
+    }
+
+}
@@ -8,10 +8,13 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -280,6 +283,38 @@ final class ParserTests2 {
         );
     }
 
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testLiteralDecoding(String test, String literal, Object expected) {
+        //token objects and the token buffer decode literals the same way, including the scale of decimals
+        Assertions.assertEquals(new Ast.Expression.Literal(expected),
+                new Parser(new Lexer(literal).lex()).parseExpression());
+        Assertions.assertEquals(new Ast.Expression.Literal(expected),
+                new Parser(new Lexer(literal).lexBuffer()).parseExpression());
+    }
+
+    private static Stream<Arguments> testLiteralDecoding() {
+        return Stream.of(
+                Arguments.of("Character", "'c'", 'c'),
+                Arguments.of("Escaped Character", "'\\t'", '\t'),
+                Arguments.of("Escaped Quote", "'\\''", '\''),
+                Arguments.of("Escaped Backslash", "'\\\\'", '\\'),
+                Arguments.of("Empty String", "\"\"", ""),
+                Arguments.of("Plain String", "\"plain\"", "plain"),
+                Arguments.of("All Escapes", "\"\\b\\n\\r\\t\\'\\\"\\\\\"", "\b\n\r\t'\"\\"),
+                //decoded left to right, so this is a backslash followed by n and not a newline
+                Arguments.of("Backslash Before Letter", "\"\\\\n\"", "\\n"),
+                Arguments.of("Trailing Escape", "\"abc\\n\"", "abc\n"),
+                Arguments.of("Integer", "123", new BigInteger("123")),
+                Arguments.of("Negative Integer", "-45", new BigInteger("-45")),
+                Arguments.of("Eighteen Digits", "999999999999999999", new BigInteger("999999999999999999")),
+                Arguments.of("Large Integer", "-123456789012345678901234", new BigInteger("-123456789012345678901234")),
+                Arguments.of("Decimal", "2.50", new BigDecimal("2.50")),
+                Arguments.of("Negative Decimal", "-0.125", new BigDecimal("-0.125")),
+                Arguments.of("Large Decimal", "1234567890.1234567890123", new BigDecimal("1234567890.1234567890123"))
+        );
+    }
+
     @ParameterizedTest
     @MethodSource
     void testGroupExpression(String test, List<Token> tokens, Ast.Expression.Group expected) {
@@ -373,6 +408,32 @@ final class ParserTests2 {
         );
     }
 
+    @Test
+    void testLongOperatorChain() {
+        //chains are consumed iteratively, so a long one must not overflow the stack
+        int terms = 100_000;
+        StringBuilder source = new StringBuilder("x0");
+        for (int i = 1; i < terms; i++) {
+            source.append(i % 2 == 0 ? " + x" : " * x").append(i);
+        }
+        Ast.Expression expression = new Parser(new Lexer(source.toString()).lexBuffer()).parseExpression();
+        //x0 * x1 + x2 * x3 + ... is a left-leaning chain of additions of products
+        int additions = 0;
+        while (((Ast.Expression.Binary) expression).getOperator().equals("+")) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+            Assertions.assertEquals("+", binary.getOperator());
+            Assertions.assertTrue(binary.getRight() instanceof Ast.Expression.Binary);
+            Assertions.assertEquals("*", ((Ast.Expression.Binary) binary.getRight()).getOperator());
+            expression = binary.getLeft();
+            additions++;
+        }
+        Assertions.assertEquals(terms / 2 - 1, additions);
+        Assertions.assertEquals(new Ast.Expression.Binary("*",
+                new Ast.Expression.Access(Optional.empty(), "x0"),
+                new Ast.Expression.Access(Optional.empty(), "x1")
+        ), expression);
+    }
+
     @ParameterizedTest
     @MethodSource
     void testAccessExpression(String test, List<Token> tokens, Ast.Expression.Access expected) {
@@ -515,6 +576,231 @@ final class ParserTests2 {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testStreamingTokens() {
+        //parsing straight from the lexer's iterator must match parsing the materialized list
+        String source = SyntheticPrograms.generate(4096);
+        Ast.Source expected = new Parser(new Lexer(source).lex()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(source).tokens()).parseSource());
+    }
+
+    @Test
+    void testStreamingLexerError() {
+        //lexer errors surface from the parser once the invalid input is reached
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer("VAR x: String = \"unterminated;").tokens()).parseSource());
+        Assertions.assertEquals(30, exception.getIndex());
+    }
+
+    @Test
+    void testTokenBuffer() {
+        //parsing from the struct-of-arrays buffer must match parsing token objects
+        String source = SyntheticPrograms.generate(4096);
+        Ast.Source expected = new Parser(new Lexer(source).lex()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(source).lexBuffer()).parseSource());
+    }
+
+    @Test
+    void testTokenBufferErrorIndex() {
+        //error indexes past the last token are computed from the buffer's offsets and lengths
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer("VAR name: Integer = 1").lexBuffer()).parseSource());
+        Assertions.assertEquals(21, exception.getIndex());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testIncremental(String test, String source, int offset, int removed, String inserted) {
+        //incremental reparsing must match parsing the edited source from scratch, including on errors
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        IncrementalParser parser = new IncrementalParser(source);
+        try {
+            Ast.Source expected = new Parser(new Lexer(edited).lex()).parseSource();
+            Assertions.assertEquals(expected, parser.edit(offset, removed, inserted));
+            //a second edit undoing the first must restore the original AST
+            Assertions.assertEquals(new Parser(new Lexer(source).lex()).parseSource(),
+                    parser.edit(offset, inserted.length(), source.substring(offset, offset + removed)));
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> parser.edit(offset, removed, inserted));
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+        }
+    }
+
+    private static Stream<Arguments> testIncremental() {
+        String program = SyntheticPrograms.generate(4096);
+        int total = program.indexOf("total", program.length() / 2);
+        int function = program.indexOf("FUN helper", program.length() / 2);
+        return Stream.of(
+                Arguments.of("Rename", program, total, 5, "sum"),
+                Arguments.of("Insert Statement", program, program.indexOf("\n", total), 0, "\n    LET x = 1;"),
+                Arguments.of("Insert Function", program, function, 0, "FUN f() DO END\n"),
+                Arguments.of("Remove Function", program, function, program.indexOf("FUN", function + 1) - function, ""),
+                Arguments.of("Merge Functions", program, function - 4, 4, ""),
+                Arguments.of("Edit Global", program, program.indexOf("0;"), 1, "1"),
+                Arguments.of("Global After Function", program, function, 0, "VAR x = 1;\n"),
+                Arguments.of("Unterminated Function", program, program.lastIndexOf("END"), 3, ""),
+                Arguments.of("Syntax Error", program, total, 0, "+")
+        );
+    }
+
+    @Test
+    void testIncrementalReparsesOneFunction() {
+        String source = SyntheticPrograms.generate(1 << 20);
+        IncrementalParser parser = new IncrementalParser(source);
+        Assertions.assertEquals(SyntheticPrograms.functions(source) + 4, parser.getReparsed());
+        int offset = source.indexOf("ratio < 3.0", source.length() / 2) + 8;
+        Ast.Source edited = parser.edit(offset, 3, "4.25");
+        Assertions.assertEquals(1, parser.getReparsed());
+        Assertions.assertEquals(new Parser(new Lexer(parser.getText()).lex()).parseSource(), edited);
+    }
+
+    @Test
+    void testIncrementalAfterError() {
+        //after a failed edit, the next edit starts over from the full source
+        IncrementalParser parser = new IncrementalParser("FUN main() DO\n    RETURN 1;\nEND\n");
+        Assertions.assertThrows(ParseException.class, () -> parser.edit(28, 3, ""));
+        Ast.Source source = parser.edit(28, 0, "END");
+        Assertions.assertEquals(new Parser(new Lexer(parser.getText()).lex()).parseSource(), source);
+    }
+
+    @Test
+    void testSpans() {
+        String source = "VAR x: Integer = 1 + 2;\nFUN f() DO\n    RETURN g(x, 'c');\nEND\n";
+        Parser parser = new Parser(new Lexer(source).lex());
+        SourceSpans spans = new SourceSpans();
+        parser.recordSpans(spans);
+        Ast.Source ast = parser.parseSource();
+
+        Ast.Global global = ast.getGlobals().get(0);
+        Ast.Function function = ast.getFunctions().get(0);
+        Ast.Statement.Return statement = (Ast.Statement.Return) function.getStatements().get(0);
+        Ast.Expression.Function call = (Ast.Expression.Function) statement.getValue();
+        Assertions.assertEquals("VAR x: Integer = 1 + 2;", text(source, spans, global));
+        Assertions.assertEquals("1 + 2", text(source, spans, global.getValue().get()));
+        Assertions.assertEquals("FUN f() DO\n    RETURN g(x, 'c');\nEND", text(source, spans, function));
+        Assertions.assertEquals("RETURN g(x, 'c');", text(source, spans, statement));
+        Assertions.assertEquals("g(x, 'c')", text(source, spans, call));
+        Assertions.assertEquals("'c'", text(source, spans, call.getArguments().get(1)));
+        Assertions.assertEquals(0, spans.getStart(ast));
+        Assertions.assertEquals(source.length() - 1, spans.getEnd(ast));
+        //source, global, binary and its operands, function, return, call and its arguments
+        Assertions.assertEquals(10, spans.size());
+    }
+
+    @Test
+    void testSpansEmptyCases() {
+        //a case's span includes its keyword, so empty bodies still have valid spans
+        String source = "FUN main() DO SWITCH 1 CASE 2: DEFAULT END END";
+        Parser parser = new Parser(new Lexer(source).lex());
+        SourceSpans spans = new SourceSpans();
+        parser.recordSpans(spans);
+        Ast.Source ast = parser.parseSource();
+        Ast.Statement.Switch statement = (Ast.Statement.Switch) ast.getFunctions().get(0).getStatements().get(0);
+        Assertions.assertEquals("SWITCH 1 CASE 2: DEFAULT END", text(source, spans, statement));
+        Assertions.assertEquals("CASE 2:", text(source, spans, statement.getCases().get(0)));
+        Assertions.assertEquals("DEFAULT", text(source, spans, statement.getCases().get(1)));
+        Assertions.assertEquals(new Parser(new Lexer(source).lex()).parseSource(), ast);
+    }
+
+    @Test
+    void testSpansLargeSource() {
+        //spans survive the table growing, and nodes equal by value still get their own span
+        String source = SyntheticPrograms.generate(64 * 1024);
+        Parser parser = new Parser(new Lexer(source).lexBuffer());
+        SourceSpans spans = new SourceSpans();
+        parser.recordSpans(spans);
+        Ast.Source ast = parser.parseSource();
+        Assertions.assertEquals(new Parser(new Lexer(source).lex()).parseSource(), ast);
+        int previous = -1;
+        for (Ast.Function function : ast.getFunctions()) {
+            String text = text(source, spans, function);
+            Assertions.assertTrue(text.startsWith("FUN ") && text.endsWith("END"), text);
+            Assertions.assertTrue(spans.getStart(function) > previous);
+            previous = spans.getStart(function);
+            for (Ast.Statement statement : function.getStatements()) {
+                String body = text(source, spans, statement);
+                Assertions.assertTrue(body.endsWith(";") || body.endsWith("END"), body);
+            }
+        }
+        Assertions.assertFalse(spans.contains(new Ast.Expression.Literal(BigInteger.ONE)));
+        Assertions.assertEquals(-1, spans.get(new Ast.Expression.Literal(BigInteger.ONE)));
+    }
+
+    private static String text(String source, SourceSpans spans, Ast node) {
+        return source.substring(spans.getStart(node), spans.getEnd(node));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testParallel(String test, String source) {
+        //small batches force many tasks; results and errors must match the sequential parser
+        List<Token> tokens = new Lexer(source).lex();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Ast.Source expected = new Parser(tokens).parseSource();
+            Assertions.assertEquals(expected, Parser.parseParallel(tokens, pool, 2));
+        } catch (ParseException e) {
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> Parser.parseParallel(tokens, pool, 2));
+            Assertions.assertEquals(e.getIndex(), exception.getIndex());
+            Assertions.assertEquals(e.getMessage(), exception.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Stream<Arguments> testParallel() {
+        String program = SyntheticPrograms.generate(8192);
+        int middle = program.indexOf("FUN", program.length() / 2);
+        return Stream.of(
+                Arguments.of("Program", program),
+                Arguments.of("Globals Only", "VAR x: Integer = 1;\nVAL y: String = \"y\";\n"),
+                Arguments.of("Empty", ""),
+                Arguments.of("FUN Identifier", "FUN a() DO\n    IF x DO\n    END\n    FUN;\nEND\nFUN b() DO\nEND\n"),
+                Arguments.of("Missing End", program.substring(0, middle - 4) + program.substring(middle)),
+                Arguments.of("Global After Function", program + "VAR x: Integer = 1;\n"),
+                Arguments.of("Broken Global", "VAR x Integer = 1;\n" + program)
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testRecovery(String test, String source, List<Integer> expected, String recovered) {
+        //every error is reported, and the partial AST is the one of the source without the broken parts
+        List<ParseException> errors = new ArrayList<>();
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource(errors);
+        Assertions.assertEquals(expected, errors.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(new Parser(new Lexer(recovered).lex()).parseSource(), ast);
+    }
+
+    private static Stream<Arguments> testRecovery() {
+        String program = SyntheticPrograms.generate(2048);
+        return Stream.of(
+                Arguments.of("No Errors", program, Arrays.asList(), program),
+                Arguments.of("Statements",
+                        "FUN a() DO\n    x = ;\n    RETURN 1;\nEND\nFUN b() DO\n    print(1)\nEND\n",
+                        Arrays.asList(19, 63),
+                        "FUN a() DO\n    RETURN 1;\nEND\nFUN b() DO\nEND\n"),
+                Arguments.of("Nested Statement",
+                        "FUN a() DO\n    IF x DO\n        y = (1;\n        z = 2;\n    END\nEND\n",
+                        Arrays.asList(37),
+                        "FUN a() DO\n    IF x DO\n        z = 2;\n    END\nEND\n"),
+                Arguments.of("Missing End",
+                        "FUN a() DO\n    x = 1;\nFUN b() DO\nEND\n",
+                        Arrays.asList(22),
+                        "FUN b() DO\nEND\n"),
+                Arguments.of("Globals",
+                        "VAR x Integer = 1;\nVAL y: Integer = 2;\nFUN main() DO\nEND\nVAR z: Integer;\n",
+                        Arrays.asList(6, 57),
+                        "VAL y: Integer = 2;\nFUN main() DO\nEND\n"),
+                Arguments.of("Stray Tokens",
+                        "END\nFUN main() DO\n    RETURN 1;\nEND\n) x\n",
+                        Arrays.asList(0, 36),
+                        "FUN main() DO\n    RETURN 1;\nEND\n")
+        );
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).
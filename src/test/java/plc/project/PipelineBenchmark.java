@@ -0,0 +1,177 @@
+package plc.project;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures each stage of the front end, {@link Lexer#lex()}, {@link
+ * Parser#parseSource()} (and {@link Parser#parseParallel(List)}), {@link
+ * Analyzer#visit(Ast.Source)}, and {@link Generator}, on generated sources of
+ * increasing size, so that throughput or allocation regressions show up as a
+ * change in the numbers rather than as a slow build.
+ *
+ * For every source size and stage it reports:
+ *
+ *  - throughput, in MB of source per second,
+ *  - allocation, in bytes allocated per byte of source and MB per second,
+ *    as reported by the JVM for the benchmark thread (so allocations made
+ *    by pool workers in {@code PARSE_PAR} are not included),
+ *  - the number of collections and the time spent in them,
+ *  - and the cost per character relative to the smallest size, which stays
+ *    close to 1.0 while the stage scales linearly.
+ *
+ * Each stage runs on the output of the previous one, prepared outside of the
+ * measurement, and is repeated until it has run for at least {@link
+ * #MINIMUM_TIME} nanoseconds after warming up. Run with an optional list of
+ * source sizes in characters, for example {@code java -Xmx4g
+ * plc.project.PipelineBenchmark 1024 52428800}; the largest default size
+ * needs a few GB of heap.
+ */
+public class PipelineBenchmark {
+
+    private static final int[] SIZES = {
+            1 << 10, 16 << 10, 256 << 10, 4 << 20, 50 << 20
+    };
+
+    private static final int WARMUP = 3;
+    private static final long MINIMUM_TIME = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? SIZES : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        double[] baseline = new double[Stage.values().length];
+        System.out.printf("%12s  %-9s %10s %12s %10s %6s %8s %8s%n",
+                "chars", "stage", "MB/s", "alloc B/B", "alloc MB/s", "gcs", "gc ms", "scaling");
+        for (int size : sizes) {
+            Input input = new Input(SyntheticPrograms.generate(size));
+            for (Stage stage : Stage.values()) {
+                Result result = measure(input, stage);
+                double nanosPerChar = result.nanos / (double) result.iterations / input.source.length();
+                if (baseline[stage.ordinal()] == 0) {
+                    baseline[stage.ordinal()] = nanosPerChar;
+                }
+                double seconds = result.nanos / 1e9;
+                double megabytes = input.source.length() * (double) result.iterations / (1024 * 1024);
+                System.out.printf("%,12d  %-9s %10.2f %12.2f %10.1f %6d %8d %8.2f%n",
+                        input.source.length(), stage, megabytes / seconds,
+                        result.allocated / (double) result.iterations / input.source.length(),
+                        result.allocated / seconds / (1024 * 1024),
+                        result.collections, result.collectionMillis,
+                        nanosPerChar / baseline[stage.ordinal()]);
+            }
+        }
+    }
+
+    private static Result measure(Input input, Stage stage) {
+        for (int i = 0; i < WARMUP; i++) {
+            run(input, stage);
+        }
+        long allocated = allocatedBytes();
+        long collections = collections();
+        long collectionMillis = collectionMillis();
+        long start = System.nanoTime();
+        long nanos;
+        int iterations = 0;
+        do {
+            run(input, stage);
+            iterations++;
+            nanos = System.nanoTime() - start;
+        } while (nanos < MINIMUM_TIME);
+        return new Result(iterations, nanos, allocatedBytes() - allocated,
+                collections() - collections, collectionMillis() - collectionMillis);
+    }
+
+    private static void run(Input input, Stage stage) {
+        switch (stage) {
+            case LEX:
+                if (new Lexer(input.source).lex().size() != input.tokens.size()) {
+                    throw new AssertionError("Lexed a different number of tokens.");
+                }
+                break;
+            case PARSE:
+                new Parser(input.tokens).parseSource();
+                break;
+            case PARSE_PAR:
+                Parser.parseParallel(input.tokens);
+                break;
+            case ANALYZE:
+                new Analyzer(new Scope(null)).visit(input.ast);
+                break;
+            default:
+                new Generator(new PrintWriter(Writer.nullWriter())).visit(input.ast);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(bean.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    /**
+     * A source along with the output of each stage, which is the input of the
+     * next one. The AST is analyzed once up front so that the generator sees
+     * the types and variables it needs.
+     */
+    private static final class Input {
+
+        private final String source;
+        private final List<Token> tokens;
+        private final Ast.Source ast;
+
+        private Input(String source) {
+            this.source = source;
+            this.tokens = new Lexer(source).lex();
+            this.ast = new Parser(tokens).parseSource();
+            new Analyzer(new Scope(null)).visit(ast);
+        }
+
+    }
+
+    private static final class Result {
+
+        private final int iterations;
+        private final long nanos;
+        private final long allocated;
+        private final long collections;
+        private final long collectionMillis;
+
+        private Result(int iterations, long nanos, long allocated, long collections, long collectionMillis) {
+            this.iterations = iterations;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+        }
+
+    }
+
+    private enum Stage {
+        LEX,
+        PARSE,
+        PARSE_PAR,
+        ANALYZE,
+        GENERATE
+    }
+
+}
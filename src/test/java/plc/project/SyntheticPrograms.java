@@ -0,0 +1,72 @@
+package plc.project;
+
+/**
+ * Generates synthetic PLC programs for the benchmarks. Every generated program
+ * lexes, parses, analyzes, and interprets successfully, so the same source can
+ * be used to measure any stage of the pipeline.
+ */
+final class SyntheticPrograms {
+
+    private static final String GLOBALS = ""
+            + "VAR counter: Integer = 0;\n"
+            + "VAL greeting: String = \"Hello,\\tWorld!\\n\";\n"
+            + "LIST values: Integer = [1, 2, 3, -4, 5];\n";
+
+    private static final String MAIN = ""
+            + "FUN main(): Integer DO\n"
+            + "    RETURN helper0(1, 2.5);\n"
+            + "END\n";
+
+    private SyntheticPrograms() {}
+
+    /**
+     * Returns a program of roughly {@code size} characters, made of a few
+     * globals, as many helper functions as fit, and a {@code main} function.
+     */
+    static String generate(int size) {
+        StringBuilder builder = new StringBuilder(size + 1024);
+        builder.append(GLOBALS);
+        int count = 0;
+        do {
+            function(builder, count++);
+        } while (builder.length() + MAIN.length() < size);
+        builder.append(MAIN);
+        return builder.toString();
+    }
+
+    /**
+     * Returns the number of helper functions {@link #generate(int)} emits for
+     * the given size.
+     */
+    static int functions(String source) {
+        int count = 0;
+        for (int i = source.indexOf("FUN helper"); i >= 0; i = source.indexOf("FUN helper", i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void function(StringBuilder builder, int n) {
+        builder.append("FUN helper").append(n).append("(a: Integer, b: Decimal): Integer DO\n")
+                .append("    LET total: Integer = a * 2 + ").append(n % 97).append(";\n")
+                .append("    LET ratio = b / 1.5;\n")
+                .append("    LET name: String = \"helper_").append(n).append("\\\"quoted\\\"\";\n")
+                .append("    IF total > 10 && ratio < 3.0 DO\n")
+                .append("        total = total - 1;\n")
+                .append("    ELSE\n")
+                .append("        total = total + values[0];\n")
+                .append("    END\n")
+                .append("    WHILE total < 100 DO\n")
+                .append("        total = total + (7 * -1 + 14);\n")
+                .append("    END\n")
+                .append("    SWITCH 'c'\n")
+                .append("        CASE '\\n':\n")
+                .append("            print(name);\n")
+                .append("        DEFAULT\n")
+                .append("            print(greeting);\n")
+                .append("    END\n")
+                .append("    RETURN total;\n")
+                .append("END\n");
+    }
+
+}